@@ -0,0 +1,117 @@
+package com.medblocks.plugins.bench;
+
+import org.hl7.fhir.r4.model.Dosage;
+import org.hl7.fhir.r4.model.Quantity;
+import org.hl7.fhir.r4.model.Range;
+import org.hl7.fhir.r4.model.Ratio;
+import org.hl7.fhir.r4.model.SimpleQuantity;
+import org.hl7.fhir.r4.model.Timing;
+import org.hl7.fhir.r4.model.Timing.UnitsOfTime;
+
+/**
+ * HAPI R4 fixtures modelled on typical MedicationRequest/MedicationStatement dosages
+ */
+public final class BenchmarkFixtures {
+
+    private static final String UCUM = "http://unitsofmeasure.org";
+
+    private BenchmarkFixtures() {
+    }
+
+    /**
+     * Twice daily at a fixed time of day, e.g. "1-0-1" oral medication
+     */
+    public static Timing bidWithTimeOfDay() {
+        Timing timing = new Timing();
+        Timing.TimingRepeatComponent repeat = timing.getRepeat();
+        repeat.setFrequency(2);
+        repeat.setPeriod(1);
+        repeat.setPeriodUnit(UnitsOfTime.D);
+        repeat.addTimeOfDay("08:00:00");
+        return timing;
+    }
+
+    /**
+     * Every 6 to 8 hours, 1 to 2 times, limited to 10 administrations (PRN analgesic)
+     */
+    public static Timing rangesWithCount() {
+        Timing timing = new Timing();
+        Timing.TimingRepeatComponent repeat = timing.getRepeat();
+        repeat.setFrequency(1);
+        repeat.setFrequencyMax(2);
+        repeat.setPeriod(6);
+        repeat.setPeriodMax(8);
+        repeat.setPeriodUnit(UnitsOfTime.H);
+        repeat.setCount(10);
+        return timing;
+    }
+
+    /**
+     * Compact time of day that has to be rewritten to the extended DV_TIME format
+     */
+    public static Timing compactTimeOfDay() {
+        Timing timing = new Timing();
+        timing.getRepeat().addTimeOfDay("200000");
+        return timing;
+    }
+
+    /**
+     * 30 minute infusion
+     */
+    public static Timing.TimingRepeatComponent infusionDuration() {
+        Timing.TimingRepeatComponent repeat = new Timing.TimingRepeatComponent();
+        repeat.setDuration(30);
+        repeat.setDurationUnit(UnitsOfTime.MIN);
+        return repeat;
+    }
+
+    /**
+     * Infusion running between 1 and 2 hours
+     */
+    public static Timing.TimingRepeatComponent infusionDurationRange() {
+        Timing.TimingRepeatComponent repeat = new Timing.TimingRepeatComponent();
+        repeat.setDuration(1);
+        repeat.setDurationMax(2);
+        repeat.setDurationUnit(UnitsOfTime.H);
+        return repeat;
+    }
+
+    /**
+     * Dosage.doseAndRate with a rateRatio of 100 mL per hour
+     */
+    public static Dosage.DosageDoseAndRateComponent infusionRate() {
+        Dosage.DosageDoseAndRateComponent doseAndRate = new Dosage.DosageDoseAndRateComponent();
+        Ratio ratio = new Ratio();
+        ratio.setNumerator(new Quantity().setValue(100).setUnit("mL").setSystem(UCUM).setCode("mL"));
+        ratio.setDenominator(new Quantity().setValue(1).setUnit("h").setSystem(UCUM).setCode("h"));
+        doseAndRate.setRate(ratio);
+        return doseAndRate;
+    }
+
+    /**
+     * Plain Ratio of 600 mg per hour
+     */
+    public static Ratio plainRatio() {
+        Ratio ratio = new Ratio();
+        ratio.setNumerator(new Quantity().setValue(600).setUnit("mg").setSystem(UCUM).setCode("mg"));
+        ratio.setDenominator(new Quantity().setValue(1).setUnit("h").setSystem(UCUM).setCode("h"));
+        return ratio;
+    }
+
+    /**
+     * Dose range of 1 to 2 tablets
+     */
+    public static Range doseRange() {
+        Range range = new Range();
+        range.setLow(new SimpleQuantity().setValue(1).setUnit("tablet"));
+        range.setHigh(new SimpleQuantity().setValue(2).setUnit("tablet"));
+        return range;
+    }
+
+    /**
+     * Single dose of 500 mg
+     */
+    public static Quantity doseQuantity() {
+        return new Quantity().setValue(500).setUnit("mg").setSystem(UCUM).setCode("mg");
+    }
+}
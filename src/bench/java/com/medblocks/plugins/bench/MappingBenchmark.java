@@ -0,0 +1,135 @@
+package com.medblocks.plugins.bench;
+
+import com.google.gson.JsonObject;
+import com.medblocks.plugins.CustomMapping;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of {@link CustomMapping.TestFormatConverter#applyFhirToOpenEhrMapping} for every
+ * mapping code. Run with the GC profiler to get the allocation rate per operation:
+ *
+ * <pre>
+ * mvn -Pbenchmark test-compile exec:exec
+ * </pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class MappingBenchmark {
+
+    private static final String TIMING_PATH = "medikamentenverabreichung/dosierung/taegliche_dosierung";
+    private static final String DURATION_PATH = "medikamentenverabreichung/dosierung/verabreichungsdauer";
+    private static final String RATE_PATH = "medikamentenverabreichung/dosierung/verabreichungsrate";
+    private static final String DOSE_PATH = "medikamentenverabreichung/dosierung/dosis";
+
+    /**
+     * Timing shapes are only varied for the timing benchmark
+     */
+    @State(Scope.Thread)
+    public static class TimingState {
+
+        @Param({"bidWithTimeOfDay", "rangesWithCount", "compactTimeOfDay"})
+        public String timingShape;
+
+        Object timing;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            switch (timingShape) {
+                case "rangesWithCount":
+                    timing = BenchmarkFixtures.rangesWithCount();
+                    break;
+                case "compactTimeOfDay":
+                    timing = BenchmarkFixtures.compactTimeOfDay();
+                    break;
+                default:
+                    timing = BenchmarkFixtures.bidWithTimeOfDay();
+            }
+        }
+    }
+
+    private CustomMapping.TestFormatConverter converter;
+    private JsonObject flatComposition;
+
+    private Object duration;
+    private Object durationRange;
+    private Object rateRatio;
+    private Object plainRatio;
+    private Object doseRange;
+    private Object doseQuantity;
+
+    @Setup(Level.Trial)
+    public void setUpFixtures() {
+        converter = new CustomMapping.TestFormatConverter();
+        duration = BenchmarkFixtures.infusionDuration();
+        durationRange = BenchmarkFixtures.infusionDurationRange();
+        rateRatio = BenchmarkFixtures.infusionRate();
+        plainRatio = BenchmarkFixtures.plainRatio();
+        doseRange = BenchmarkFixtures.doseRange();
+        doseQuantity = BenchmarkFixtures.doseQuantity();
+    }
+
+    @Setup(Level.Iteration)
+    public void setUpComposition() {
+        // Keys are overwritten on every invocation, so one composition per iteration is enough
+        flatComposition = new JsonObject();
+    }
+
+    @Benchmark
+    public boolean timingToDailyNonDaily(TimingState state) {
+        return converter.applyFhirToOpenEhrMapping("timingToDaily_NonDaily", TIMING_PATH,
+                state.timing, "CLUSTER", flatComposition);
+    }
+
+    @Benchmark
+    public boolean dosageDurationToAdministrationDuration() {
+        return converter.applyFhirToOpenEhrMapping("dosageDurationToAdministrationDuration", DURATION_PATH,
+                duration, "DV_DURATION", flatComposition);
+    }
+
+    @Benchmark
+    public boolean dosageDurationRangeToAdministrationDuration() {
+        return converter.applyFhirToOpenEhrMapping("dosageDurationToAdministrationDuration", DURATION_PATH,
+                durationRange, "DV_INTERVAL<DV_DURATION>", flatComposition);
+    }
+
+    @Benchmark
+    public boolean rateRatioToDvQuantity() {
+        return converter.applyFhirToOpenEhrMapping("ratio_to_dv_quantity", RATE_PATH,
+                rateRatio, "DV_QUANTITY", flatComposition);
+    }
+
+    @Benchmark
+    public boolean plainRatioToDvQuantity() {
+        return converter.applyFhirToOpenEhrMapping("ratio_to_dv_quantity", RATE_PATH,
+                plainRatio, "DV_QUANTITY", flatComposition);
+    }
+
+    @Benchmark
+    public boolean dosageRangeToRange() {
+        return converter.applyFhirToOpenEhrMapping("dosageQuantityToRange", DOSE_PATH,
+                doseRange, "DV_INTERVAL<DV_QUANTITY>", flatComposition);
+    }
+
+    @Benchmark
+    public boolean dosageQuantityToQuantity() {
+        return converter.applyFhirToOpenEhrMapping("dosageQuantityToRange", DOSE_PATH,
+                doseQuantity, "DV_QUANTITY", flatComposition);
+    }
+}
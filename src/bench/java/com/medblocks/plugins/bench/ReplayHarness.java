@@ -0,0 +1,393 @@
+package com.medblocks.plugins.bench;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.DataFormatException;
+import ca.uhn.fhir.parser.IParser;
+import com.google.gson.JsonObject;
+import com.medblocks.plugins.CustomMapping;
+import com.medblocks.plugins.MappingRequest;
+import com.medblocks.plugins.diagnostics.LatencyHistogram;
+import com.medblocks.plugins.diagnostics.MappingCodeStats;
+import com.medblocks.plugins.diagnostics.MappingDiagnostics;
+import com.medblocks.plugins.diagnostics.SkipReason;
+import com.medblocks.plugins.handler.DosageDurationHandler;
+import com.medblocks.plugins.handler.DosageQuantityToRangeHandler;
+import com.medblocks.plugins.handler.RatioToDvQuantityHandler;
+import com.medblocks.plugins.handler.TimingToDailyHandler;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Dosage;
+import org.hl7.fhir.r4.model.MedicationRequest;
+import org.hl7.fhir.r4.model.MedicationStatement;
+import org.hl7.fhir.r4.model.Resource;
+import org.hl7.fhir.r4.model.Timing;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Replays NDJSON files of FHIR R4 MedicationRequest and MedicationStatement resources against
+ * {@link CustomMapping.TestFormatConverter}, without an openFHIR server.
+ *
+ * Every line is parsed with the HAPI R4 JSON parser; Bundles are unpacked and other resource
+ * types are ignored. For each dosage, the Timing, timing.repeat duration, doseAndRate rateRatio
+ * and dose Range or Quantity are mapped with the four single-value mapping codes. Resources are
+ * split between the threads, so a FHIR value is never mapped from two threads at once.
+ *
+ * After the warm-up rounds, the measured rounds report the throughput, the latency percentiles
+ * of all calls and, per mapping code, the calls, outcomes, skipped values and latencies:
+ *
+ * <pre>
+ * mvn -Pbenchmark test-compile exec:exec@replay -Dreplay.args="--threads 8 --rounds 20 traffic.ndjson"
+ * </pre>
+ *
+ * The exit status is 1 if a mapping failed with an exception and 2 for invalid arguments or input.
+ */
+public final class ReplayHarness {
+
+    private static final String USAGE =
+        "Usage: ReplayHarness [--threads N] [--rounds N] [--warmup-rounds N] file.ndjson...";
+
+    private static final String DOSAGE_PATH = "medikamentenverabreichung/dosierung:";
+
+    private static final List<String> MAPPING_CODES = List.of(
+        TimingToDailyHandler.MAPPING_CODE,
+        DosageDurationHandler.MAPPING_CODE,
+        RatioToDvQuantityHandler.MAPPING_CODE,
+        DosageQuantityToRangeHandler.MAPPING_CODE
+    );
+
+    private final int threads;
+    private final int rounds;
+    private final int warmupRounds;
+    private final List<Path> files;
+
+    private final CustomMapping.TestFormatConverter converter = new CustomMapping.TestFormatConverter();
+
+    // Latencies of the measured rounds, by mapping code
+    private final Map<String, LatencyHistogram> latencies = new LinkedHashMap<>();
+    private final LatencyHistogram allLatencies = new LatencyHistogram();
+
+    private int linesRead;
+    private int resourcesIgnored;
+    private int linesInvalid;
+
+    ReplayHarness(int threads, int rounds, int warmupRounds, List<Path> files) {
+        this.threads = threads;
+        this.rounds = rounds;
+        this.warmupRounds = warmupRounds;
+        this.files = files;
+        for (String code : MAPPING_CODES) {
+            latencies.put(code, new LatencyHistogram());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        ReplayHarness harness;
+        try {
+            harness = parseArgs(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+
+        List<List<MappingRequest>> resources;
+        try {
+            resources = harness.load();
+        } catch (IOException e) {
+            System.err.println("Could not read input: " + e.getMessage());
+            System.exit(2);
+            return;
+        }
+        if (resources.isEmpty()) {
+            System.err.println("No MedicationRequest or MedicationStatement with dosages found");
+            System.exit(2);
+            return;
+        }
+
+        boolean failed = harness.run(resources, System.out);
+        System.exit(failed ? 1 : 0);
+    }
+
+    static ReplayHarness parseArgs(String[] args) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        int rounds = 10;
+        int warmupRounds = 3;
+        List<Path> files = new ArrayList<>();
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--threads":
+                    threads = positive(args, ++i, 1);
+                    break;
+                case "--rounds":
+                    rounds = positive(args, ++i, 1);
+                    break;
+                case "--warmup-rounds":
+                    warmupRounds = positive(args, ++i, 0);
+                    break;
+                default:
+                    if (args[i].startsWith("--")) {
+                        throw new IllegalArgumentException("Unknown option " + args[i]);
+                    }
+                    files.add(Path.of(args[i]));
+            }
+        }
+        if (files.isEmpty()) {
+            throw new IllegalArgumentException("No input file");
+        }
+        return new ReplayHarness(threads, rounds, warmupRounds, files);
+    }
+
+    private static int positive(String[] args, int index, int min) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException("Missing value for " + args[index - 1]);
+        }
+        try {
+            int value = Integer.parseInt(args[index]);
+            if (value < min) {
+                throw new IllegalArgumentException(args[index - 1] + " must be at least " + min);
+            }
+            return value;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value for " + args[index - 1] + ": " + args[index]);
+        }
+    }
+
+    /**
+     * Parses the input files
+     *
+     * @return The mapping calls of every resource with at least one dosage value
+     * @throws IOException If a file cannot be read
+     */
+    List<List<MappingRequest>> load() throws IOException {
+        IParser parser = FhirContext.forR4().newJsonParser();
+        List<List<MappingRequest>> resources = new ArrayList<>();
+
+        for (Path file : files) {
+            try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isBlank()) {
+                        continue;
+                    }
+                    linesRead++;
+                    IBaseResource resource;
+                    try {
+                        resource = parser.parseResource(line);
+                    } catch (DataFormatException e) {
+                        linesInvalid++;
+                        continue;
+                    }
+                    collect(resource, resources);
+                }
+            }
+        }
+        return resources;
+    }
+
+    private void collect(IBaseResource resource, List<List<MappingRequest>> resources) {
+        if (resource instanceof Bundle) {
+            for (Bundle.BundleEntryComponent entry : ((Bundle) resource).getEntry()) {
+                if (entry.hasResource()) {
+                    collect(entry.getResource(), resources);
+                }
+            }
+            return;
+        }
+
+        List<Dosage> dosages;
+        if (resource instanceof MedicationRequest) {
+            dosages = ((MedicationRequest) resource).getDosageInstruction();
+        } else if (resource instanceof MedicationStatement) {
+            dosages = ((MedicationStatement) resource).getDosage();
+        } else {
+            resourcesIgnored++;
+            return;
+        }
+
+        List<MappingRequest> requests = new ArrayList<>();
+        for (int i = 0; i < dosages.size(); i++) {
+            addRequests(dosages.get(i), DOSAGE_PATH + i, requests);
+        }
+        if (requests.isEmpty()) {
+            resourcesIgnored++;
+        } else {
+            resources.add(requests);
+        }
+    }
+
+    /**
+     * Adds the values of one dosage, read with the has* methods so no empty elements are created
+     */
+    private static void addRequests(Dosage dosage, String path, List<MappingRequest> requests) {
+        if (dosage.hasTiming()) {
+            Timing timing = dosage.getTiming();
+            requests.add(new MappingRequest(TimingToDailyHandler.MAPPING_CODE, path + "/taegliche_dosierung",
+                                            timing, "CLUSTER"));
+            if (timing.hasRepeat() && timing.getRepeat().hasDuration()) {
+                Timing.TimingRepeatComponent repeat = timing.getRepeat();
+                requests.add(new MappingRequest(DosageDurationHandler.MAPPING_CODE, path + "/verabreichungsdauer", repeat,
+                                                repeat.hasDurationMax() ? "DV_INTERVAL<DV_DURATION>" : "DV_DURATION"));
+            }
+        }
+
+        if (dosage.hasDoseAndRate()) {
+            for (Dosage.DosageDoseAndRateComponent doseAndRate : dosage.getDoseAndRate()) {
+                if (doseAndRate.hasRateRatio()) {
+                    requests.add(new MappingRequest(RatioToDvQuantityHandler.MAPPING_CODE, path + "/verabreichungsrate",
+                                                    doseAndRate, "DV_QUANTITY"));
+                }
+                if (doseAndRate.hasDoseRange()) {
+                    requests.add(new MappingRequest(DosageQuantityToRangeHandler.MAPPING_CODE, path + "/dosis",
+                                                    doseAndRate.getDose(), "DV_INTERVAL<DV_QUANTITY>"));
+                } else if (doseAndRate.hasDoseQuantity()) {
+                    requests.add(new MappingRequest(DosageQuantityToRangeHandler.MAPPING_CODE, path + "/dosis",
+                                                    doseAndRate.getDose(), "DV_QUANTITY"));
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs the warm-up and measured rounds and prints the report
+     *
+     * @param resources The mapping calls of every resource
+     * @param out Where the report is printed
+     * @return true if a mapping failed with an exception
+     * @throws InterruptedException If interrupted while waiting for the threads
+     */
+    boolean run(List<List<MappingRequest>> resources, PrintStream out) throws InterruptedException {
+        int calls = 0;
+        for (List<MappingRequest> requests : resources) {
+            calls += requests.size();
+        }
+        out.printf(Locale.ROOT, "Read %d lines: %d resources with %d mapping calls, %d ignored, %d invalid%n",
+                   linesRead, resources.size(), calls, resourcesIgnored, linesInvalid);
+
+        if (warmupRounds > 0) {
+            long elapsed = replay(resources, warmupRounds, false);
+            out.printf(Locale.ROOT, "Warm-up: %d rounds in %d ms%n", warmupRounds, elapsed / 1_000_000);
+        }
+
+        Map<String, long[]> before = counters();
+        long elapsed = replay(resources, rounds, true);
+        Map<String, long[]> after = counters();
+
+        long totalCalls = (long) calls * rounds;
+        double seconds = elapsed / 1e9;
+        out.printf(Locale.ROOT, "Replay: %d threads, %d rounds in %.2f s%n", threads, rounds, seconds);
+        out.printf(Locale.ROOT, "Throughput: %.0f calls/s, %.0f resources/s%n",
+                   totalCalls / seconds, (long) resources.size() * rounds / seconds);
+        out.printf(Locale.ROOT, "Latency (us): p50 %.1f, p90 %.1f, p99 %.1f, p99.9 %.1f, max %.1f%n",
+                   micros(allLatencies.getPercentileNanos(0.5)), micros(allLatencies.getPercentileNanos(0.9)),
+                   micros(allLatencies.getPercentileNanos(0.99)), micros(allLatencies.getPercentileNanos(0.999)),
+                   micros(allLatencies.getMaxNanos()));
+
+        out.printf(Locale.ROOT, "%n%-40s %10s %10s %10s %8s %8s %9s %9s%n",
+                   "Mapping code", "Calls", "Mapped", "NotMapped", "Failed", "Skipped", "p50 (us)", "p99 (us)");
+        boolean failed = false;
+        for (String code : MAPPING_CODES) {
+            LatencyHistogram histogram = latencies.get(code);
+            long[] delta = new long[4];
+            for (int i = 0; i < delta.length; i++) {
+                delta[i] = after.get(code)[i] - before.get(code)[i];
+            }
+            failed |= delta[2] > 0;
+            out.printf(Locale.ROOT, "%-40s %10d %10d %10d %8d %8d %9.1f %9.1f%n", code, histogram.getCount(),
+                       delta[0], delta[1], delta[2], delta[3],
+                       micros(histogram.getPercentileNanos(0.5)), micros(histogram.getPercentileNanos(0.99)));
+        }
+        return failed;
+    }
+
+    /**
+     * Maps all resources the given number of times, split between the threads
+     *
+     * @return The elapsed time in nanoseconds
+     */
+    private long replay(List<List<MappingRequest>> resources, int rounds, boolean record) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        AtomicReference<Throwable> error = new AtomicReference<>();
+
+        for (int t = 0; t < threads; t++) {
+            int first = t;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int round = 0; round < rounds; round++) {
+                        for (int i = first; i < resources.size(); i += threads) {
+                            replay(resources.get(i), record);
+                        }
+                    }
+                } catch (Throwable e) {
+                    error.compareAndSet(null, e);
+                } finally {
+                    done.countDown();
+                }
+            }, "replay-" + t);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - begin;
+
+        if (error.get() != null) {
+            throw new IllegalStateException("Replay thread failed", error.get());
+        }
+        return elapsed;
+    }
+
+    private void replay(List<MappingRequest> requests, boolean record) {
+        // One flat composition per resource, as openFHIR builds one composition per resource
+        JsonObject flatComposition = new JsonObject();
+        for (int i = 0; i < requests.size(); i++) {
+            MappingRequest request = requests.get(i);
+            long start = System.nanoTime();
+            converter.applyFhirToOpenEhrMapping(request.getMappingCode(), request.getOpenEhrPath(),
+                                                request.getFhirValue(), request.getOpenEhrType(), flatComposition);
+            if (record) {
+                long nanos = System.nanoTime() - start;
+                latencies.get(request.getMappingCode()).record(nanos);
+                allLatencies.record(nanos);
+            }
+        }
+    }
+
+    /**
+     * @return Mapped, not mapped, failed and skipped counts by mapping code
+     */
+    private static Map<String, long[]> counters() {
+        Map<String, long[]> counters = new LinkedHashMap<>();
+        for (String code : MAPPING_CODES) {
+            MappingCodeStats stats = MappingDiagnostics.forCode(code);
+            long skipped = 0;
+            for (SkipReason reason : SkipReason.values()) {
+                skipped += stats.getSkipped(reason);
+            }
+            counters.put(code, new long[] {stats.getMapped(), stats.getNotMapped(), stats.getFailed(), skipped});
+        }
+        return counters;
+    }
+
+    private static double micros(long nanos) {
+        return nanos / 1000.0;
+    }
+}
@@ -0,0 +1,94 @@
+package com.medblocks.plugins.bench;
+
+import com.google.gson.JsonObject;
+import com.medblocks.plugins.CustomMapping;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of one shared {@link CustomMapping.TestFormatConverter} called from several threads,
+ * each mapping its own FHIR values into its own flat composition. Every operation maps one value
+ * with each of the four single-value mapping codes. Compare the score of a single thread with
+ * that of all CPUs to see how the converter scales:
+ *
+ * <pre>
+ * mvn -Pbenchmark test-compile exec:exec -Djmh.args="ScalingBenchmark -t 1"
+ * mvn -Pbenchmark test-compile exec:exec -Djmh.args="ScalingBenchmark -t max"
+ * </pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScalingBenchmark {
+
+    private static final String TIMING_PATH = "medikamentenverabreichung/dosierung/taegliche_dosierung";
+    private static final String DURATION_PATH = "medikamentenverabreichung/dosierung/verabreichungsdauer";
+    private static final String RATE_PATH = "medikamentenverabreichung/dosierung/verabreichungsrate";
+    private static final String DOSE_PATH = "medikamentenverabreichung/dosierung/dosis";
+
+    /**
+     * The converter shared by all threads
+     */
+    @State(Scope.Benchmark)
+    public static class SharedConverter {
+        CustomMapping.TestFormatConverter converter;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            converter = new CustomMapping.TestFormatConverter();
+        }
+    }
+
+    /**
+     * HAPI getters create missing children on access, so every thread maps its own FHIR values
+     */
+    @State(Scope.Thread)
+    public static class ThreadFixtures {
+        Object timing;
+        Object duration;
+        Object rate;
+        Object dose;
+        JsonObject flatComposition;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            timing = BenchmarkFixtures.bidWithTimeOfDay();
+            duration = BenchmarkFixtures.infusionDurationRange();
+            rate = BenchmarkFixtures.infusionRate();
+            dose = BenchmarkFixtures.doseRange();
+        }
+
+        @Setup(Level.Iteration)
+        public void setUpComposition() {
+            // Keys are overwritten on every invocation, so one composition per iteration is enough
+            flatComposition = new JsonObject();
+        }
+    }
+
+    @Benchmark
+    public boolean mapAll(SharedConverter shared, ThreadFixtures fixtures) {
+        CustomMapping.TestFormatConverter converter = shared.converter;
+        JsonObject composition = fixtures.flatComposition;
+        return converter.applyFhirToOpenEhrMapping("timingToDaily_NonDaily", TIMING_PATH,
+                    fixtures.timing, "CLUSTER", composition)
+                & converter.applyFhirToOpenEhrMapping("dosageDurationToAdministrationDuration", DURATION_PATH,
+                    fixtures.duration, "DV_INTERVAL<DV_DURATION>", composition)
+                & converter.applyFhirToOpenEhrMapping("ratio_to_dv_quantity", RATE_PATH,
+                    fixtures.rate, "DV_QUANTITY", composition)
+                & converter.applyFhirToOpenEhrMapping("dosageQuantityToRange", DOSE_PATH,
+                    fixtures.dose, "DV_INTERVAL<DV_QUANTITY>", composition);
+    }
+}
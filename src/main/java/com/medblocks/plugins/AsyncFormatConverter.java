@@ -0,0 +1,168 @@
+package com.medblocks.plugins;
+
+import com.google.gson.JsonObject;
+import org.hl7.fhir.r4.model.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Asynchronous facade over {@link CustomMapping.TestFormatConverter}, so that callers can overlap
+ * mapping work with I/O. Every call returns at once with a future that completes on the executor.
+ *
+ * Calls against the same flat composition instance run one at a time, in the order they were
+ * submitted, so the values of one call are never interleaved with those of another and a reverse
+ * mapping sees the values of the forward mappings submitted before it. Calls against different
+ * compositions run in parallel. Waiting calls are chained on the future of the previous call
+ * rather than blocking a thread. Callers get a copy of that future, so cancelling it does not
+ * release the next call while the cancelled one is still running.
+ *
+ * As with the synchronous converter, a FHIR value or target resource must not be used by several
+ * pending calls at once, as HAPI getters create missing children on access.
+ */
+public class AsyncFormatConverter implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(AsyncFormatConverter.class);
+
+    private final CustomMapping.TestFormatConverter converter;
+    private final Executor executor;
+    private final ExecutorService ownedExecutor;
+
+    // Last pending call per composition instance, guarded by itself
+    private final Map<Object, CompletableFuture<?>> tails = new IdentityHashMap<>();
+
+    /**
+     * Creates a facade running on the executor configured with the {@code async.threads} setting
+     */
+    public AsyncFormatConverter() {
+        this(new CustomMapping.TestFormatConverter(), createExecutor(PluginSettings.getInt("async.threads", 0)), true);
+    }
+
+    /**
+     * Creates a facade running on the given executor, which is not shut down by {@link #close()}
+     *
+     * @param converter The converter the calls are delegated to
+     * @param executor The executor running the calls
+     */
+    public AsyncFormatConverter(CustomMapping.TestFormatConverter converter, Executor executor) {
+        this(converter, executor, false);
+    }
+
+    private AsyncFormatConverter(CustomMapping.TestFormatConverter converter, Executor executor, boolean owned) {
+        if (converter == null || executor == null) {
+            throw new IllegalArgumentException("Converter and executor must not be null");
+        }
+        this.converter = converter;
+        this.executor = executor;
+        this.ownedExecutor = owned ? (ExecutorService) executor : null;
+    }
+
+    /**
+     * Maps one FHIR value asynchronously, see
+     * {@link CustomMapping.TestFormatConverter#applyFhirToOpenEhrMapping}
+     *
+     * @return A future of true if at least one value was written
+     */
+    public CompletableFuture<Boolean> applyFhirToOpenEhrMapping(String mappingCode, String openEhrPath, Object fhirValue,
+                                                                String openEhrType, Object flatComposition) {
+        return submit(flatComposition, () -> converter.applyFhirToOpenEhrMapping(mappingCode, openEhrPath, fhirValue,
+                                                                                openEhrType, flatComposition));
+    }
+
+    /**
+     * Maps several FHIR values into one flat composition asynchronously, see
+     * {@link CustomMapping.TestFormatConverter#applyFhirToOpenEhrMappings}.
+     * The requests of the batch are written without values of other calls in between.
+     *
+     * @return A future of the outcome of every request, in request order
+     */
+    public CompletableFuture<BatchResult> applyFhirToOpenEhrMappings(List<MappingRequest> requests,
+                                                                     Object flatComposition) {
+        return submit(flatComposition, () -> converter.applyFhirToOpenEhrMappings(requests, flatComposition));
+    }
+
+    /**
+     * Maps a flat composition back to FHIR asynchronously, after the pending calls writing into
+     * the same composition, see {@link CustomMapping.TestFormatConverter#applyOpenEhrToFhirMapping}
+     *
+     * @return A future of the mapped FHIR value, completing with null if nothing was mapped
+     */
+    public CompletableFuture<Object> applyOpenEhrToFhirMapping(String mappingCode, String openEhrPath,
+                                                               JsonObject flatJsonObject, String fhirPath,
+                                                               Resource targetResource) {
+        return submit(flatJsonObject, () -> converter.applyOpenEhrToFhirMapping(mappingCode, openEhrPath, flatJsonObject,
+                                                                               fhirPath, targetResource));
+    }
+
+    /**
+     * Shuts down the executor if it was created by this facade. Pending calls still complete.
+     */
+    @Override
+    public void close() {
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Runs a call on the executor once the previous call against the same composition is done
+     */
+    private <T> CompletableFuture<T> submit(Object composition, Supplier<T> call) {
+        if (composition == null) {
+            // No composition to serialize against
+            return CompletableFuture.supplyAsync(call, executor);
+        }
+
+        CompletableFuture<T> future;
+        synchronized (tails) {
+            CompletableFuture<?> previous = tails.get(composition);
+            // The outcome of the previous call does not matter, only that it is done
+            future = previous == null ? CompletableFuture.supplyAsync(call, executor)
+                                      : previous.handleAsync((result, error) -> call.get(), executor);
+            tails.put(composition, future);
+        }
+        CompletableFuture<T> tail = future;
+        future.whenComplete((result, error) -> {
+            synchronized (tails) {
+                tails.remove(composition, tail);
+            }
+        });
+        // The chained future stays internal, so that a caller cannot complete it early
+        return future.copy();
+    }
+
+    /**
+     * Creates the default executor: a virtual thread per call on JDK 21 and later, otherwise a
+     * pool of daemon threads, one per processor
+     *
+     * @param threads The number of pooled platform threads, 0 for the default
+     */
+    static ExecutorService createExecutor(int threads) {
+        if (threads <= 0) {
+            try {
+                // Through reflection, so that the plugin still compiles for Java 17
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                threads = Runtime.getRuntime().availableProcessors();
+                log.debug("Virtual threads are not available, mapping asynchronously on {} threads", threads);
+            }
+        }
+        AtomicInteger count = new AtomicInteger();
+        ThreadFactory factory = runnable -> {
+            Thread thread = new Thread(runnable, "custom-mapping-async-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        return Executors.newFixedThreadPool(threads, factory);
+    }
+}
@@ -0,0 +1,59 @@
+package com.medblocks.plugins;
+
+/**
+ * Per-item outcome of a batch of mapping requests, in request order
+ */
+public final class BatchResult {
+
+    private final boolean[] mapped;
+    private final int mappedCount;
+
+    BatchResult(boolean[] mapped) {
+        this.mapped = mapped;
+        int count = 0;
+        for (boolean value : mapped) {
+            if (value) {
+                count++;
+            }
+        }
+        this.mappedCount = count;
+    }
+
+    /**
+     * @return The number of requests in the batch
+     */
+    public int size() {
+        return mapped.length;
+    }
+
+    /**
+     * Get the outcome of one request
+     *
+     * @param index The index of the request in the batch
+     * @return true if the request wrote at least one value
+     */
+    public boolean isMapped(int index) {
+        return mapped[index];
+    }
+
+    /**
+     * @return The number of requests that wrote at least one value
+     */
+    public int getMappedCount() {
+        return mappedCount;
+    }
+
+    /**
+     * @return true if every request in the batch was mapped
+     */
+    public boolean isAllMapped() {
+        return mappedCount == mapped.length;
+    }
+
+    /**
+     * @return A copy of the per-request outcomes
+     */
+    public boolean[] toArray() {
+        return mapped.clone();
+    }
+}
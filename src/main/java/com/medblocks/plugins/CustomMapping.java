@@ -8,14 +8,25 @@ import org.slf4j.LoggerFactory;
 import com.google.gson.JsonObject;
 import com.medblocks.openfhir.plugin.api.FormatConverter;
 import org.hl7.fhir.r4.model.Resource;
-import org.hl7.fhir.r4.model.Timing;
-import org.hl7.fhir.r4.model.Dosage;
-import org.hl7.fhir.r4.model.Range;
-import org.hl7.fhir.r4.model.Quantity;
 
-import java.util.function.Supplier;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
-import com.medblocks.plugins.unit.TimeUnitConverterFactory;
+import com.medblocks.plugins.composition.FlatCompositionIndex;
+import com.medblocks.plugins.diagnostics.ErrorReporter;
+import com.medblocks.plugins.diagnostics.MappingCodeStats;
+import com.medblocks.plugins.diagnostics.MappingDiagnostics;
+import com.medblocks.plugins.diagnostics.MappingEvent;
+import com.medblocks.plugins.diagnostics.MappingMetrics;
+import com.medblocks.plugins.diagnostics.SkipReason;
+import com.medblocks.plugins.handler.MappingHandler;
+import com.medblocks.plugins.handler.MappingHandlerRegistry;
+import com.medblocks.plugins.path.PathKeyCache;
+import com.medblocks.plugins.path.PathTemplates;
+import com.medblocks.plugins.rules.MappingRules;
+import com.medblocks.plugins.rules.RuleSet;
 
 import static com.medblocks.plugins.MappingUtils.*;
 
@@ -23,22 +34,57 @@ public class CustomMapping extends Plugin {
 
     private static final Logger log = LoggerFactory.getLogger(CustomMapping.class);
 
+    // Kept here, as Plugin.getWrapper() is deprecated
+    private final PluginWrapper pluginWrapper;
+
     public CustomMapping(PluginWrapper wrapper) {
         super(wrapper);
+        this.pluginWrapper = wrapper;
     }
 
     @Override
     public void start() {
         log.info("Plugin is starting...");
+        
+        // Build the handler registry once from the built-in handlers and those contributed by other plugins
+        List<MappingHandler> contributed = pluginWrapper.getPluginManager().getExtensions(MappingHandler.class);
+        MappingHandlerRegistry registry = MappingHandlerRegistry.build(contributed);
+        MappingHandlerRegistry.install(registry);
+        log.info("Registered mapping handlers: {}", registry.getMappingCodes());
+        
+        // Declarative rules from the configured rule file, for mapping codes without a handler
+        MappingRules.start();
+        
+        // Path suffixes of other templates, from the configured path template file
+        PathKeyCache.install(PathTemplates.configured());
+        
+        MappingDiagnostics.start();
+        MappingMetrics.start();
+        
+        // Runs in the background, startup is not blocked
+        MappingWarmUp.start(new TestFormatConverter());
     }
 
     @Override
     public void stop() {
         log.info("Plugin is stopping...");
+        MappingWarmUp.stop();
+        MappingRules.stop();
+        PathKeyCache.install(PathTemplates.defaults());
+        MappingHandlerRegistry.install(MappingHandlerRegistry.builtIn());
+        MappingMetrics.stop();
+        MappingDiagnostics.stop();
     }
 
     /**
-     * Extension implementation for converting between FHIR and OpenEHR formats
+     * Extension implementation for converting between FHIR and OpenEHR formats.
+     *
+     * Thread-safe: openFHIR calls one instance from many request threads. The converter holds no
+     * mutable state; handlers, unit converters and caches are immutable or use concurrent
+     * structures. Several threads may map into one shared flat composition, as writes to a
+     * JsonObject are made under its monitor and sinks must accept concurrent writes.
+     * FHIR values must not be mapped from several threads at once, as HAPI getters create
+     * missing children on access.
      */
     @Extension
     public static class TestFormatConverter implements FormatConverter {
@@ -48,446 +94,195 @@ public class CustomMapping extends Plugin {
         @Override
         public boolean applyFhirToOpenEhrMapping(String mappingCode, String openEhrPath, Object fhirValue, 
                                                String openEhrType, Object flatComposition) {
-            log.info("Applying FHIR to OpenEHR mapping function: {}", mappingCode);
-            log.info("OpenEHR Path: {}, Value type: {}, OpenEHR Type: {}", openEhrPath, 
-                     fhirValue != null ? fhirValue.getClass().getName() : "null", openEhrType);
-            
-            // Dispatch to the appropriate mapping function based on the mappingCode
-            switch (mappingCode) {
-                case "dosageDurationToAdministrationDuration":
-                    return dosageDurationToAdministrationDuration(openEhrPath, fhirValue, openEhrType, flatComposition);
-                case "ratio_to_dv_quantity":
-                    return ratio_to_dv_quantity(openEhrPath, fhirValue, openEhrType, flatComposition);
-                case "timingToDaily_NonDaily":
-                    return timingToDaily_NonDaily(openEhrPath, fhirValue, openEhrType, flatComposition);
-                case "dosageQuantityToRange":
-                    return dosageQuantityToRange(openEhrPath, fhirValue, openEhrType, flatComposition);
-                default:
-                    log.warn("Unknown mapping code: {}", mappingCode);
+            boolean sampled = MappingDiagnostics.beginCall();
+            try {
+                if (sampled) {
+                    log.info("Applying FHIR to OpenEHR mapping function: {}", mappingCode);
+                    log.info("OpenEHR Path: {}, Value type: {}, OpenEHR Type: {}", openEhrPath, 
+                             fhirValue != null ? fhirValue.getClass().getName() : "null", openEhrType);
+                }
+                
+                // Dispatch to the handler or rule registered for the mappingCode
+                MappingHandler handler = resolve(MappingHandlerRegistry.current(), MappingRules.current(), mappingCode);
+                if (handler == null) {
+                    MappingDiagnostics.unknownCode().skipped(SkipReason.UNKNOWN_MAPPING_CODE);
+                    MappingEvent.end(MappingEvent.start(), mappingCode, openEhrPath, fhirValue, openEhrType,
+                                     MappingEvent.UNKNOWN_CODE);
+                    if (sampled) {
+                        log.warn("Unknown mapping code: {}", mappingCode);
+                    }
                     return false;
+                }
+                
+                return applyHandler(handler, MappingDiagnostics.forCode(mappingCode), 
+                                    openEhrPath, fhirValue, openEhrType, flatComposition);
+            } finally {
+                MappingDiagnostics.endCall(sampled);
             }
         }
         
-        @Override
-        public Object applyOpenEhrToFhirMapping(String mappingCode, String openEhrPath, 
-                                               JsonObject flatJsonObject, String fhirPath, 
-                                               Resource targetResource) {
-            log.info("OpenEHR to FHIR mapping is currently disabled");
-            return null;
-        }
-        
         /**
-         * Utility method for executing operations with exception handling
+         * Maps several FHIR values into one flat composition in a single call.
+         * Requests are grouped by mapping code, so each handler is resolved and the composition
+         * is validated once per batch rather than once per value. Every request is mapped
+         * independently: a failure in one request does not affect the others, and null
+         * requests are reported as not mapped.
+         *
+         * @param requests The values to map
+         * @param flatComposition The flat composition all values are written into
+         * @return The outcome of every request, in request order
          */
-        private <T> T executeWithExceptionHandling(String operationName, Supplier<T> operation, T defaultValue) {
-            try {
-                return operation.get();
-            } catch (Exception e) {
-                log.error("Error in operation {}: {}", operationName, e.getMessage(), e);
-                return defaultValue;
+        public BatchResult applyFhirToOpenEhrMappings(List<MappingRequest> requests, Object flatComposition) {
+            boolean[] results = new boolean[requests.size()];
+            if (results.length == 0) {
+                return new BatchResult(results);
             }
-        } 
-
-        /**
-         * Mapping function for FHIR Timing to OpenEHR timing_daily cluster
-         */
-        private boolean timingToDaily_NonDaily(String openEhrPath, Object fhirValue, 
-                                      String openEhrType, Object flatComposition) {
-            return executeWithExceptionHandling("FHIR Timing to OpenEHR timing_daily", () -> {
-                log.info("Converting FHIR Timing to OpenEHR timing_daily");
-                
-                if (!(fhirValue instanceof Timing)) {
-                    log.warn("Expected Timing type but got: {}", fhirValue != null ? fhirValue.getClass().getName() : "null");
-                    return false;
+            
+            if (!isSupportedComposition(flatComposition)) {
+                log.warn("Unsupported flat composition type for batch of {} mappings: {}", results.length, 
+                         flatComposition != null ? flatComposition.getClass().getName() : "null");
+                return new BatchResult(results);
+            }
+            
+            boolean sampled = MappingDiagnostics.beginCall();
+            try {
+                // Group request indexes by mapping code, keeping the order of first appearance
+                Map<String, List<Integer>> groups = new LinkedHashMap<>();
+                for (int i = 0; i < results.length; i++) {
+                    MappingRequest request = requests.get(i);
+                    if (request == null) {
+                        // Nothing to map, the request stays unmapped
+                        continue;
+                    }
+                    groups.computeIfAbsent(request.getMappingCode(), code -> new ArrayList<>()).add(i);
                 }
                 
-                Timing timing = (Timing) fhirValue;
-                JsonObject flatJson = (JsonObject) flatComposition;
-                boolean success = false;
-                
-                // Only proceed if timing has repeat component
-                if (timing.hasRepeat()) {
-                    Timing.TimingRepeatComponent repeat = timing.getRepeat();
-                    
-                    // Map specific time (timeOfDay)
-                    if (repeat.hasTimeOfDay() && !repeat.getTimeOfDay().isEmpty()) {
-                        String timeOfDay = repeat.getTimeOfDay().get(0).getValue();
-                        if (timeOfDay != null) {
-                            // Validate and format timeOfDay to match DV_TIME ISO 8601 format
-                            String formattedTime = validateAndFormatDvTime(timeOfDay);
-                            if (formattedTime != null) {
-                                setValueInJson(flatJson, openEhrPath + "/zeitpunkt", formattedTime);
-                                log.info("Mapped specific time: {}", formattedTime);
-                                success = true;
-                            } else {
-                                log.warn("Time value '{}' does not conform to DV_TIME format", timeOfDay);
-                            }
-                        }
-                    }
-                    
-                    // Map frequency
-                    if (repeat.hasFrequency()) {
-                        int frequency = repeat.getFrequency();
-                        
-                        // Validate and get the frequency unit using our new converter
-                        if (repeat.hasPeriodUnit() && 
-                            TimeUnitConverterFactory.getFrequencyConverter().isValidUnit(repeat.getPeriodUnit())) {
-                            
-                            String unit = TimeUnitConverterFactory.getFrequencyConverter()
-                                .convertUnit(repeat.getPeriodUnit());
-                            
-                            // Only proceed if we have a valid unit
-                            if (unit != null) {
-                                // Check if frequencyMax exists for range notation
-                                if (repeat.hasFrequencyMax()) {
-                                    int frequencyMax = repeat.getFrequencyMax();
-                                    
-                                    // Set the lower value and unit
-                                    setValueInJson(flatJson, openEhrPath + "/frequenz/quantity_value/lower|magnitude", frequency);
-                                    setValueInJson(flatJson, openEhrPath + "/frequenz/quantity_value/lower|unit", unit);
-                                    
-                                    // Set the upper value and unit
-                                    setValueInJson(flatJson, openEhrPath + "/frequenz/quantity_value/upper|magnitude", frequencyMax);
-                                    setValueInJson(flatJson, openEhrPath + "/frequenz/quantity_value/upper|unit", unit);
-                                    
-                                    log.info("Mapped frequency range: {}-{} {}", frequency, frequencyMax, unit);
-                                } else {
-                                    // Set single value and unit
-                                    setValueInJson(flatJson, openEhrPath + "/frequenz/quantity_value|magnitude", frequency);
-                                    setValueInJson(flatJson, openEhrPath + "/frequenz/quantity_value|unit", unit);
-                                    
-                                    log.info("Mapped frequency: {} {}", frequency, unit);
-                                }
-                                success = true;
-                            } else {
-                                log.warn("Skipping frequency mapping due to missing or unsupported period unit");
-                            }
-                        } else {
-                            log.warn("Skipping frequency mapping due to missing or unsupported period unit");
+                MappingHandlerRegistry registry = MappingHandlerRegistry.current();
+                RuleSet rules = MappingRules.current();
+                for (Map.Entry<String, List<Integer>> group : groups.entrySet()) {
+                    String mappingCode = group.getKey();
+                    MappingHandler handler = resolve(registry, rules, mappingCode);
+                    if (handler == null) {
+                        MappingCodeStats unknown = MappingDiagnostics.unknownCode();
+                        for (int i = 0; i < group.getValue().size(); i++) {
+                            unknown.skipped(SkipReason.UNKNOWN_MAPPING_CODE);
                         }
-                    }
-                    
-                    // Map interval (period)
-                    if (repeat.hasPeriod()) {
-                        double period = repeat.getPeriod().doubleValue();
-                        
-                        // Validate period unit using our new converter
-                        if (repeat.hasPeriodUnit() && 
-                            TimeUnitConverterFactory.getDurationConverter().isValidUnit(repeat.getPeriodUnit())) {
-                            
-                            Timing.UnitsOfTime periodUnit = repeat.getPeriodUnit();
-                            String durationValue = TimeUnitConverterFactory.getDurationConverter()
-                                .formatDuration(period, periodUnit);
-                            
-                            // Check if periodMax exists for range notation
-                            if (repeat.hasPeriodMax()) {
-                                double periodMax = repeat.getPeriodMax().doubleValue();
-                                String durationMaxValue = TimeUnitConverterFactory.getDurationConverter()
-                                    .formatDuration(periodMax, periodUnit);
-                                
-                                // Set the lower and upper duration values
-                                setValueInJson(flatJson, openEhrPath + "/intervall/duration_value/lower|value", durationValue);
-                                setValueInJson(flatJson, openEhrPath + "/intervall/duration_value/upper|value", durationMaxValue);
-                                
-                                log.info("Mapped interval range: {} to {}", durationValue, durationMaxValue);
-                            } else {
-                                // Set single duration value
-                                setValueInJson(flatJson, openEhrPath + "/intervall/duration_value", durationValue);
-                                
-                                log.info("Mapped interval: {}", durationValue);
-                            }
-                            success = true;
-                        } else {
-                            log.warn("Skipping interval mapping due to missing or unsupported period unit");
+                        if (sampled) {
+                            log.warn("Unknown mapping code: {}", mappingCode);
                         }
+                        continue;
                     }
                     
-                    // Map repeat count to dosierungsreihenfolge
-                    if (repeat.hasCount()) {
-                        int count = repeat.getCount();
-                        // Set the dosierungsreihenfolge value
-                        setValueInJson(flatJson, openEhrPath + "/dosierungsreihenfolge", count);
-                        log.info("Mapped repeat count to dosierungsreihenfolge: {}", count);
-                        success = true;
+                    MappingCodeStats stats = MappingDiagnostics.forCode(mappingCode);
+                    for (int index : group.getValue()) {
+                        MappingRequest request = requests.get(index);
+                        results[index] = applyHandler(handler, stats, request.getOpenEhrPath(), 
+                                                      request.getFhirValue(), request.getOpenEhrType(), flatComposition);
                     }
                 }
                 
-                return success;
-            }, false);
+                if (sampled) {
+                    log.info("Applied batch of {} mappings in {} groups", results.length, groups.size());
+                }
+            } finally {
+                MappingDiagnostics.endCall(sampled);
+            }
+            return new BatchResult(results);
         }
-
+        
         /**
-         * Converts FHIR dosage duration to OpenEHR administration duration
+         * Resolves the handler for a mapping code; handlers take precedence over declarative rules
          */
-        private boolean dosageDurationToAdministrationDuration(String openEhrPath, Object fhirValue, 
-                                                          String openEhrType, Object flatComposition) {
-            return executeWithExceptionHandling("dosage duration to administration duration", () -> {
-                log.info("Converting timing repeat to administration duration");
-                
-                if (!(fhirValue instanceof Timing.TimingRepeatComponent)) {
-                    log.warn("Expected TimingRepeatComponent but got: {}", 
-                           fhirValue != null ? fhirValue.getClass().getName() : "null");
-                    return false;
-                }
-                
-                Timing.TimingRepeatComponent repeat = (Timing.TimingRepeatComponent) fhirValue;
-                JsonObject flatJson = (JsonObject) flatComposition;
-                
-                // Check if duration exists
-                if (!repeat.hasDuration()) {
-                    log.info("No duration found in timing repeat");
-                    return false;
-                }
-                
-                double duration = repeat.getDuration().doubleValue();
-                
-                // Check if durationUnit exists
-                if (!repeat.hasDurationUnit()) {
-                    log.warn("No duration unit found in timing repeat");
-                    return false;
-                }
-                
-                Timing.UnitsOfTime durationUnit = repeat.getDurationUnit();
-                
-                // Validate duration unit using our new converter
-                if (!TimeUnitConverterFactory.getDurationConverter().isValidUnit(durationUnit)) {
-                    log.warn("Invalid duration unit: {}", durationUnit);
-                    return false;
-                }
-                
-                // Check if we have both duration and durationMax (range case)
-                if (repeat.hasDurationMax()) {
-                    double durationMax = repeat.getDurationMax().doubleValue();
-                    
-                    // Convert duration to ISO 8601 format using our new converter
-                    String lowerDuration = TimeUnitConverterFactory.getDurationConverter()
-                        .formatDuration(duration, durationUnit);
-                    String upperDuration = TimeUnitConverterFactory.getDurationConverter()
-                        .formatDuration(durationMax, durationUnit);
-                    
-                    if (lowerDuration == null || upperDuration == null) {
-                        log.warn("Could not convert duration to ISO 8601 format");
-                        return false;
-                    }
-                    
-                    // Set lower and upper values
-                    setValueInJson(flatJson, openEhrPath + "/duration_value/lower|value", lowerDuration);
-                    setValueInJson(flatJson, openEhrPath + "/duration_value/upper|value", upperDuration);
-                    
-                    log.info("Mapped administration duration range: {} to {}", lowerDuration, upperDuration);
-                } else {
-                    // Convert single duration to ISO 8601 format using our new converter
-                    String durationStr = TimeUnitConverterFactory.getDurationConverter()
-                        .formatDuration(duration, durationUnit);
-                    
-                    if (durationStr == null) {
-                        log.warn("Could not convert duration to ISO 8601 format");
-                        return false;
-                    }
-                    
-                    // Set single duration value
-                    setValueInJson(flatJson, openEhrPath + "/duration_value|value", durationStr);
-                    
-                    log.info("Mapped administration duration: {}", durationStr);
-                }
-                
-                return true;
-            }, false);
+        private static MappingHandler resolve(MappingHandlerRegistry registry, RuleSet rules, String mappingCode) {
+            MappingHandler handler = registry.get(mappingCode);
+            return handler != null ? handler : rules.get(mappingCode);
         }
         
         /**
-         * Converts FHIR Ratio to OpenEHR DV_QUANTITY
-         * Also handles Dosage.DosageAndRate.rate.rateRatio for verabreichungsrate
+         * Runs a handler and records its outcome and latency, and a JFR event while recording
          */
-        private boolean ratio_to_dv_quantity(String openEhrPath, Object fhirValue, 
-                                     String openEhrType, Object flatComposition) {
-            return executeWithExceptionHandling("FHIR Ratio to OpenEHR DV_QUANTITY", () -> {
-                log.info("Converting FHIR Ratio to OpenEHR Administration Rate");
-                
-                // Set of allowed units for verabreichungsrate
-                final String[] ALLOWED_RATE_UNITS = {"l/h", "ml/min", "ml/s", "ml/h"};
-                
-                Object ratioValue = fhirValue;
-                boolean isRateRatio = false;
-                
-                // Check if the value is Dosage.DosageDoseAndRateComponent
-                if (fhirValue instanceof Dosage.DosageDoseAndRateComponent) {
-                    Dosage.DosageDoseAndRateComponent doseAndRate = 
-                        (Dosage.DosageDoseAndRateComponent) fhirValue;
-                    
-                    // Check if it has rateRatio
-                    if (doseAndRate.hasRateRatio()) {
-                        ratioValue = doseAndRate.getRateRatio();
-                        isRateRatio = true;
-                        log.info("Found rateRatio in DosageDoseAndRateComponent");
-                    } else {
-                        log.info("DosageDoseAndRateComponent doesn't have rateRatio, using value directly");
-                    }
+        private boolean applyHandler(MappingHandler handler, MappingCodeStats stats, String openEhrPath, 
+                                     Object fhirValue, String openEhrType, Object flatComposition) {
+            // Inline try/catch rather than executeWithExceptionHandling, which needs a lambda per call
+            MappingEvent event = MappingEvent.start();
+            long start = System.nanoTime();
+            boolean mapped;
+            try {
+                mapped = handler.apply(openEhrPath, fhirValue, openEhrType, flatComposition);
+            } catch (Exception e) {
+                stats.latency(System.nanoTime() - start);
+                stats.failed();
+                MappingEvent.end(event, handler.getMappingCode(), openEhrPath, fhirValue, openEhrType, MappingEvent.FAILED);
+                ErrorReporter.report(handler.getMappingCode(), e);
+                return false;
+            }
+            stats.latency(System.nanoTime() - start);
+            if (mapped) {
+                stats.mapped();
+                if (flatComposition instanceof JsonObject) {
+                    // Keys were written, a sorted key index of the composition is stale
+                    FlatCompositionIndex.invalidate((JsonObject) flatComposition);
                 }
-                
-                // Validate the ratio (either direct ratio or rateRatio)
-                ValidationResult validation = validateRatio(ratioValue, "ratio conversion");
-                if (!validation.success || !validation.numeratorValid || !validation.denominatorValid) {
-                    log.warn("Invalid ratio structure for conversion");
-                    return false;
+            } else {
+                stats.notMapped();
+            }
+            MappingEvent.end(event, handler.getMappingCode(), openEhrPath, fhirValue, openEhrType,
+                             mapped ? MappingEvent.MAPPED : MappingEvent.NOT_MAPPED);
+            return mapped;
+        }
+        
+        @Override
+        public Object applyOpenEhrToFhirMapping(String mappingCode, String openEhrPath, 
+                                               JsonObject flatJsonObject, String fhirPath, 
+                                               Resource targetResource) {
+            boolean sampled = MappingDiagnostics.beginCall();
+            try {
+                if (sampled) {
+                    log.info("Applying OpenEHR to FHIR mapping function: {}", mappingCode);
+                    log.info("OpenEHR Path: {}, FHIR Path: {}", openEhrPath, fhirPath);
                 }
                 
-                JsonObject flatJson = (JsonObject) flatComposition;
-                
-                // For rateRatio handling (verabreichungsrate)
-                if (isRateRatio) {
-                    // Calculate magnitude (numerator value / denominator value)
-                    double magnitude = validation.numeratorValue / validation.denominatorValue;
-                    
-                    // Create the unit string (numerator.unit / denominator.unit)
-                    String unitString = validation.numeratorUnit + "/" + validation.denominatorUnit;
-                    
-                    // Normalize unit string (convert units to standard form if needed)
-                    String normalizedUnit = normalizeUnitString(unitString);
-                    
-                    // Check if the normalized unit is in the allowed list
-                    boolean unitAllowed = false;
-                    for (String allowedUnit : ALLOWED_RATE_UNITS) {
-                        if (normalizedUnit.equals(allowedUnit)) {
-                            unitAllowed = true;
-                            break;
-                        }
-                    }
-                    
-                    if (!unitAllowed) {
-                        log.warn("Unit '{}' is not in the allowed list for verabreichungsrate", normalizedUnit);
-                        return false;
+                MappingHandler handler = resolve(MappingHandlerRegistry.current(), MappingRules.current(), mappingCode);
+                if (handler == null) {
+                    MappingDiagnostics.unknownCode().skipped(SkipReason.UNKNOWN_MAPPING_CODE);
+                    if (sampled) {
+                        log.warn("Unknown mapping code: {}", mappingCode);
                     }
-                    
-                    // Set magnitude and unit
-                    setValueInJson(flatJson, openEhrPath + "/quantity_value|magnitude", magnitude);
-                    setValueInJson(flatJson, openEhrPath + "/quantity_value|unit", normalizedUnit);
-                    
-                    log.info("Mapped rateRatio to verabreichungsrate: magnitude={}, unit={}", 
-                             magnitude, normalizedUnit);
-                    return true;
-                }
-                // Standard ratio handling (for other cases)
-                else {
-                    // Format as numerator/denominator (e.g., "600 mg/h")
-                    String formattedRate = validation.numeratorValue + " " + validation.numeratorUnit;
-                    if (validation.denominatorValid) {
-                        formattedRate += "/" + validation.denominatorUnit;
-                    }
-                    
-                    // Set the formatted rate directly on the path
-                    setValueInJson(flatJson, openEhrPath, formattedRate);
-                    
-                    log.info("Mapped Ratio to Administration Rate: path={}, value={}", 
-                             openEhrPath, formattedRate);
-                    return true;
+                    return null;
                 }
-            }, false);
-        }
-        
-        /**
-         * Normalizes unit strings to standard format for comparison with allowed units.
-         * Handles cases like "milliliter/hour" -> "ml/h" for consistent checking.
-         */
-        private String normalizeUnitString(String unitString) {
-            // Convert full names to abbreviations if needed
-            String normalized = unitString.toLowerCase()
-                .replace("liter", "l")
-                .replace("milliliter", "ml")
-                .replace("hour", "h")
-                .replace("minute", "min")
-                .replace("second", "s")
-                // Clean up any spaces around the slash
-                .replace(" / ", "/")
-                .replace(" /", "/")
-                .replace("/ ", "/");
-            
-            // Handle special unit combinations
-            if (normalized.equals("ml/hour")) normalized = "ml/h";
-            if (normalized.equals("l/hour")) normalized = "l/h";
-            if (normalized.equals("ml/minute")) normalized = "ml/min";
-            if (normalized.equals("ml/second")) normalized = "ml/s";
-            
-            return normalized;
-        }
-
-        /**
-         * Converts FHIR Dosage dose (Quantity or Range) to OpenEHR Range
-         * This specifically handles the dose component from Dosage.DosageAndRate.dose,
-         * which can be either a Range or Quantity.
-         */
-        private boolean dosageQuantityToRange(String openEhrPath, Object fhirValue, 
-                                     String openEhrType, Object flatComposition) {
-            return executeWithExceptionHandling("dosageQuantityToRange", () -> {
-                log.info("Converting FHIR Dosage dose to OpenEHR Range/Quantity");
                 
-                JsonObject flatJson = (JsonObject) flatComposition;
+                MappingCodeStats stats = MappingDiagnostics.forCode(mappingCode);
+                if (flatJsonObject == null) {
+                    stats.notMapped();
+                    return null;
+                }
                 
-                // The fhirValue should directly be the dose, which is either a Range or Quantity
-                // Check if the dose is a Range
-                if (fhirValue instanceof Range) {
-                    Range doseRange = (Range) fhirValue;
-                    
-                    // Check if we have a valid low value
-                    if (doseRange.hasLow() && doseRange.getLow().hasValue()) {
-                        setValueInJson(flatJson, openEhrPath + "/quantity_value/lower|magnitude", 
-                                     doseRange.getLow().getValue().doubleValue());
-                        
-                        // Set the unit if present
-                        if (doseRange.getLow().hasUnit()) {
-                            setValueInJson(flatJson, openEhrPath + "/quantity_value/lower|unit", 
-                                         doseRange.getLow().getUnit());
-                        }
-                    } else {
-                        log.warn("DoseRange is missing required low value");
-                        return false;
-                    }
-                    
-                    // Check if we have a valid high value
-                    if (doseRange.hasHigh() && doseRange.getHigh().hasValue()) {
-                        setValueInJson(flatJson, openEhrPath + "/quantity_value/upper|magnitude", 
-                                     doseRange.getHigh().getValue().doubleValue());
-                        
-                        // Set the unit if present
-                        if (doseRange.getHigh().hasUnit()) {
-                            setValueInJson(flatJson, openEhrPath + "/quantity_value/upper|unit", 
-                                         doseRange.getHigh().getUnit());
-                        }
-                    } else {
-                        log.warn("DoseRange is missing required high value");
-                        return false;
-                    }
-                    
-                    log.info("Mapped DoseRange to OpenEHR Range");
-                    return true;
+                // The sorted key index is shared by all reverse calls against the same composition
+                long start = System.nanoTime();
+                Object result;
+                try {
+                    FlatCompositionIndex index = FlatCompositionIndex.of(flatJsonObject);
+                    result = handler.applyReverse(openEhrPath, index, fhirPath, targetResource);
+                } catch (Exception e) {
+                    stats.latency(System.nanoTime() - start);
+                    stats.failed();
+                    ErrorReporter.report(mappingCode, e);
+                    return null;
                 }
-                // Check if the dose is a Quantity
-                else if (fhirValue instanceof Quantity) {
-                    Quantity doseQuantity = (Quantity) fhirValue;
-                    
-                    // Check if we have a valid value
-                    if (doseQuantity.hasValue()) {
-                        setValueInJson(flatJson, openEhrPath + "/quantity_value|magnitude", 
-                                     doseQuantity.getValue().doubleValue());
-                        
-                        // Set the unit if present
-                        if (doseQuantity.hasUnit()) {
-                            setValueInJson(flatJson, openEhrPath + "/quantity_value|unit", 
-                                         doseQuantity.getUnit());
-                        }
-                        
-                        log.info("Mapped DoseQuantity to OpenEHR Quantity");
-                        return true;
-                    } else {
-                        log.warn("DoseQuantity is missing required value");
-                        return false;
-                    }
+                stats.latency(System.nanoTime() - start);
+                if (result != null) {
+                    stats.mapped();
                 } else {
-                    log.warn("Expected Range or Quantity type for dose but got: {}", 
-                           fhirValue != null ? fhirValue.getClass().getName() : "null");
-                    return false;
+                    stats.notMapped();
                 }
-            }, false);
+                
+                if (sampled) {
+                    log.info("Mapped {} to {}", openEhrPath, result != null ? result.getClass().getName() : "null");
+                }
+                return result;
+            } finally {
+                MappingDiagnostics.endCall(sampled);
+            }
         }
     }
-} 
+}
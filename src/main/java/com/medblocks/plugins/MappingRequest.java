@@ -0,0 +1,36 @@
+package com.medblocks.plugins;
+
+/**
+ * A single FHIR value to map as part of a batch, see
+ * {@link CustomMapping.TestFormatConverter#applyFhirToOpenEhrMappings}
+ */
+public final class MappingRequest {
+
+    private final String mappingCode;
+    private final String openEhrPath;
+    private final Object fhirValue;
+    private final String openEhrType;
+
+    public MappingRequest(String mappingCode, String openEhrPath, Object fhirValue, String openEhrType) {
+        this.mappingCode = mappingCode;
+        this.openEhrPath = openEhrPath;
+        this.fhirValue = fhirValue;
+        this.openEhrType = openEhrType;
+    }
+
+    public String getMappingCode() {
+        return mappingCode;
+    }
+
+    public String getOpenEhrPath() {
+        return openEhrPath;
+    }
+
+    public Object getFhirValue() {
+        return fhirValue;
+    }
+
+    public String getOpenEhrType() {
+        return openEhrType;
+    }
+}
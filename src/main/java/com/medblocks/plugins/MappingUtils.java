@@ -11,11 +11,17 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.function.Supplier;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
+import com.medblocks.plugins.composition.FlatCompositionSink;
+import com.medblocks.plugins.diagnostics.ErrorReporter;
+import com.medblocks.plugins.diagnostics.MappingValidationException;
+import com.medblocks.plugins.diagnostics.SkipReason;
+import com.medblocks.plugins.time.DvTimeFormatter;
+import com.medblocks.plugins.time.IsoDuration;
 import com.medblocks.plugins.unit.TimeUnitConverterFactory;
 
+import static com.medblocks.plugins.diagnostics.MappingDiagnostics.isSampled;
+
 /**
  * Utility class containing helper methods for FHIR to OpenEHR mapping operations
  */
@@ -23,19 +29,81 @@ public class MappingUtils {
     private static final Logger log = LoggerFactory.getLogger(MappingUtils.class);
 
     /**
-     * Utility method for executing operations with exception handling
+     * Utility method for executing operations with exception handling.
+     * Failures are reported through {@link ErrorReporter}, which logs each distinct failure
+     * once and summarizes repeats.
      */
     public static <T> T executeWithExceptionHandling(String operationName, Supplier<T> operation, T defaultValue) {
         try {
             return operation.get();
         } catch (Exception e) {
-            log.error("Error in operation {}: {}", operationName, e.getMessage(), e);
+            ErrorReporter.report(operationName, e);
             return defaultValue;
         }
     }
 
     /**
-     * Sets a value in a flat JSON object
+     * Checks whether the mapping functions can write into the given flat composition
+     */
+    public static boolean isSupportedComposition(Object flatComposition) {
+        return flatComposition instanceof JsonObject || flatComposition instanceof FlatCompositionSink;
+    }
+
+    /**
+     * Sets a value in a flat composition, which is either a flat JSON object or a {@link FlatCompositionSink}
+     */
+    public static void setValueInJson(Object flatComposition, String path, Object value) {
+        if (flatComposition instanceof JsonObject) {
+            setValueInJson((JsonObject) flatComposition, path, value);
+        } else if (flatComposition instanceof FlatCompositionSink) {
+            setValueInJson((FlatCompositionSink) flatComposition, path, value);
+        } else if (flatComposition != null) {
+            throw new MappingValidationException(SkipReason.UNEXPECTED_TYPE, 
+                "Unsupported flat composition type: " + flatComposition.getClass().getName());
+        }
+    }
+
+    /**
+     * Sets a decimal value in a flat composition without boxing it when writing to a sink
+     */
+    public static void setValueInJson(Object flatComposition, String path, double value) {
+        if (flatComposition instanceof FlatCompositionSink) {
+            ((FlatCompositionSink) flatComposition).put(path, value);
+        } else {
+            setValueInJson(flatComposition, path, (Object) value);
+        }
+    }
+
+    /**
+     * Sets an integer value in a flat composition without boxing it when writing to a sink
+     */
+    public static void setValueInJson(Object flatComposition, String path, int value) {
+        if (flatComposition instanceof FlatCompositionSink) {
+            ((FlatCompositionSink) flatComposition).put(path, value);
+        } else {
+            setValueInJson(flatComposition, path, (Object) value);
+        }
+    }
+
+    /**
+     * Sets a value in a flat composition sink
+     */
+    public static void setValueInJson(FlatCompositionSink sink, String path, Object value) {
+        if (value instanceof String) {
+            sink.put(path, (String) value);
+        } else if (value instanceof Integer) {
+            sink.put(path, (int) (Integer) value);
+        } else if (value instanceof Number) {
+            sink.put(path, ((Number) value).doubleValue());
+        } else if (value instanceof Boolean) {
+            sink.put(path, (boolean) (Boolean) value);
+        }
+    }
+
+    /**
+     * Sets a value in a flat JSON object.
+     * JsonObject is not thread-safe, so writes are made under the monitor of the object;
+     * this lets several threads map into one shared composition.
      */
     public static void setValueInJson(JsonObject jsonObject, String path, Object value) {
         if (jsonObject == null) {
@@ -43,15 +111,21 @@ public class MappingUtils {
         }
         
         try {
+            JsonPrimitive primitive;
             if (value instanceof String) {
-                jsonObject.add(path, new JsonPrimitive((String) value));
+                primitive = new JsonPrimitive((String) value);
             } else if (value instanceof Number) {
-                jsonObject.add(path, new JsonPrimitive((Number) value));
+                primitive = new JsonPrimitive((Number) value);
             } else if (value instanceof Boolean) {
-                jsonObject.add(path, new JsonPrimitive((Boolean) value));
+                primitive = new JsonPrimitive((Boolean) value);
+            } else {
+                return;
+            }
+            synchronized (jsonObject) {
+                jsonObject.add(path, primitive);
             }
         } catch (Exception e) {
-            log.error("Failed to set value at path {}: {}", path, e.getMessage());
+            ErrorReporter.report("setValueInJson", e);
         }
     }
 
@@ -60,110 +134,14 @@ public class MappingUtils {
      * Valid formats are:
      * - Extended (preferred): hh:mm:ss[(,|.)sss][Z|±hh[:mm]]
      * - Compact: hhmmss[(,|.)sss][Z|±hh[mm]]
+     * - hh:mm and hh, which are completed with zero minutes/seconds
      * 
      * @param timeStr The time string to validate
      * @return The validated/formatted time string, or null if invalid
+     * @see DvTimeFormatter
      */
     public static String validateAndFormatDvTime(String timeStr) {
-        if (timeStr == null || timeStr.isEmpty()) {
-            return null;
-        }
-        
-        // Regular expressions for extended and compact formats
-        // Extended: hh:mm:ss[(,|.)sss][Z|±hh[:mm]]
-        String extendedPattern = "^([01]\\d|2[0-3]):([0-5]\\d):([0-5]\\d)([,.][0-9]+)?(Z|[+-]([01]\\d|2[0-3])(:?[0-5]\\d)?)?$";
-        
-        // Compact: hhmmss[(,|.)sss][Z|±hh[mm]]
-        String compactPattern = "^([01]\\d|2[0-3])([0-5]\\d)([0-5]\\d)([,.][0-9]+)?(Z|[+-]([01]\\d|2[0-3])([0-5]\\d)?)?$";
-        
-        // Check if time string already matches one of the patterns
-        if (timeStr.matches(extendedPattern)) {
-            return timeStr; // Already in extended format
-        }
-        
-        if (timeStr.matches(compactPattern)) {
-            // Convert compact to extended format
-            try {
-                // Extract hours, minutes, seconds
-                String hours = timeStr.substring(0, 2);
-                String minutes = timeStr.substring(2, 4);
-                String seconds = timeStr.substring(4, 6);
-                
-                // Start with basic extended format
-                String formattedTime = hours + ":" + minutes + ":" + seconds;
-                
-                // Handle fraction and timezone if present
-                if (timeStr.length() > 6) {
-                    String remainder = timeStr.substring(6);
-                    
-                    // Check for fraction
-                    if (remainder.startsWith(",") || remainder.startsWith(".")) {
-                        int tzIndex = -1;
-                        for (int i = 1; i < remainder.length(); i++) {
-                            char c = remainder.charAt(i);
-                            if (c == 'Z' || c == '+' || c == '-') {
-                                tzIndex = i;
-                                break;
-                            }
-                            if (!Character.isDigit(c)) {
-                                return null; // Invalid character in fraction
-                            }
-                        }
-                        
-                        if (tzIndex > 0) {
-                            formattedTime += remainder.substring(0, tzIndex);
-                            remainder = remainder.substring(tzIndex);
-                        } else {
-                            formattedTime += remainder;
-                            remainder = "";
-                        }
-                    }
-                    
-                    // Handle timezone
-                    if (!remainder.isEmpty()) {
-                        if (remainder.equals("Z")) {
-                            formattedTime += "Z";
-                        } else if (remainder.startsWith("+") || remainder.startsWith("-")) {
-                            String sign = remainder.substring(0, 1);
-                            remainder = remainder.substring(1);
-                            
-                            if (remainder.length() >= 2) {
-                                String tzHours = remainder.substring(0, 2);
-                                formattedTime += sign + tzHours;
-                                
-                                if (remainder.length() >= 4) {
-                                    String tzMinutes = remainder.substring(2, 4);
-                                    formattedTime += ":" + tzMinutes;
-                                }
-                            }
-                        }
-                    }
-                }
-                
-                return formattedTime;
-            } catch (Exception e) {
-                log.error("Error converting compact time format to extended: {}", e.getMessage());
-                return null;
-            }
-        }
-        
-        // Try to interpret common time formats and convert to extended ISO format
-        try {
-            // Handle simple "HH:mm" format
-            if (timeStr.matches("^([01]\\d|2[0-3]):([0-5]\\d)$")) {
-                return timeStr + ":00"; // Add seconds
-            }
-            
-            // Handle simple "HH" format
-            if (timeStr.matches("^([01]\\d|2[0-3])$")) {
-                return timeStr + ":00:00"; // Add minutes and seconds
-            }
-        } catch (Exception e) {
-            log.error("Error parsing time format: {}", e.getMessage());
-        }
-        
-        // Could not validate or transform the time string
-        return null;
+        return DvTimeFormatter.format(timeStr);
     }
     
     /**
@@ -173,13 +151,17 @@ public class MappingUtils {
         ValidationResult result = new ValidationResult();
         
         if (fhirValue == null) {
-            log.warn("No FHIR value provided for {}", context);
+            if (isSampled()) {
+                log.warn("No FHIR value provided for {}", context);
+            }
             result.success = false;
             return result;
         }
         
         if (!(fhirValue instanceof Ratio)) {
-            log.warn("Expected Ratio type for {} but got: {}", context, fhirValue.getClass().getName());
+            if (isSampled()) {
+                log.warn("Expected Ratio type for {} but got: {}", context, fhirValue.getClass().getName());
+            }
             result.success = false;
             return result;
         }
@@ -226,47 +208,92 @@ public class MappingUtils {
     }
     
     /**
-     * Helper method to extract numeric value from ISO 8601 duration string
+     * Helper method to extract numeric value from ISO 8601 duration string.
+     * The whole duration is expressed in the unit of the designator and truncated, so "PT1H30M"
+     * gives 1 for "H" and 90 for "M". "M" means months if the duration has calendar components,
+     * minutes otherwise.
      */
     public static int extractNumericValue(String durationStr, String unitChar) {
-        try {
-            Pattern pattern = Pattern.compile("(\\d+)" + unitChar);
-            Matcher matcher = pattern.matcher(durationStr);
-            if (matcher.find()) {
-                return Integer.parseInt(matcher.group(1));
+        IsoDuration duration = IsoDuration.parse(durationStr);
+        UnitsOfTime unit = duration != null ? designatorUnit(duration, unitChar) : null;
+        if (unit == null) {
+            if (isSampled()) {
+                log.warn("Could not extract numeric value for unit {} from duration: {}", unitChar, durationStr);
+            }
+            return 0;
+        }
+        return (int) duration.toValue(unit);
+    }
+    
+    private static UnitsOfTime designatorUnit(IsoDuration duration, String unitChar) {
+        switch (String.valueOf(unitChar)) {
+            case "Y":
+                return UnitsOfTime.A;
+            case "M":
+                return duration.hasCalendarComponents() ? UnitsOfTime.MO : UnitsOfTime.MIN;
+            case "W":
+                return UnitsOfTime.WK;
+            case "D":
+                return UnitsOfTime.D;
+            case "H":
+                return UnitsOfTime.H;
+            case "S":
+                return UnitsOfTime.S;
+            default:
+                return null;
+        }
+    }
+    
+    /**
+     * Parses a decimal number such as "600.0", "-1.5" or "2e3" without throwing.
+     * Malformed values are common in flat compositions, and a NumberFormatException per value
+     * would capture a stack trace each time.
+     * 
+     * @param value The text to parse
+     * @return The number, or null if the text is not a decimal number
+     */
+    public static Double parseDecimal(String value) {
+        if (value == null) {
+            return null;
+        }
+        int len = value.length();
+        int i = 0;
+        if (i < len && (value.charAt(i) == '-' || value.charAt(i) == '+')) {
+            i++;
+        }
+        int digits = 0;
+        while (i < len && isAsciiDigit(value.charAt(i))) {
+            i++;
+            digits++;
+        }
+        if (i < len && value.charAt(i) == '.') {
+            i++;
+            while (i < len && isAsciiDigit(value.charAt(i))) {
+                i++;
+                digits++;
             }
-            
-            // For cases like "PT3H" where it might be in a different format
-            if (unitChar.equals("H")) {
-                pattern = Pattern.compile("PT(\\d+)H");
-                matcher = pattern.matcher(durationStr);
-                if (matcher.find()) {
-                    return Integer.parseInt(matcher.group(1));
-                }
+        }
+        if (digits == 0) {
+            return null;
+        }
+        if (i < len && (value.charAt(i) == 'e' || value.charAt(i) == 'E')) {
+            i++;
+            if (i < len && (value.charAt(i) == '-' || value.charAt(i) == '+')) {
+                i++;
             }
-            
-            if (unitChar.equals("M")) {
-                pattern = Pattern.compile("PT(\\d+)M");
-                matcher = pattern.matcher(durationStr);
-                if (matcher.find()) {
-                    return Integer.parseInt(matcher.group(1));
-                }
+            int exponentStart = i;
+            while (i < len && isAsciiDigit(value.charAt(i))) {
+                i++;
             }
-            
-            if (unitChar.equals("S")) {
-                pattern = Pattern.compile("PT(\\d+)S");
-                matcher = pattern.matcher(durationStr);
-                if (matcher.find()) {
-                    return Integer.parseInt(matcher.group(1));
-                }
+            if (i == exponentStart) {
+                return null;
             }
-            
-            log.warn("Could not extract numeric value for unit {} from duration: {}", unitChar, durationStr);
-            return 0;
-        } catch (Exception e) {
-            log.error("Error extracting numeric value from duration: {}", durationStr, e);
-            return 0;
         }
+        return i == len ? Double.parseDouble(value) : null;
+    }
+    
+    private static boolean isAsciiDigit(char c) {
+        return c >= '0' && c <= '9';
     }
     
     /**
@@ -296,6 +323,25 @@ public class MappingUtils {
         return TimeUnitConverterFactory.getDurationConverter().formatDuration(period, periodUnit);
     }
     
+    /**
+     * Expresses a whole ISO 8601 duration in one unit, e.g. 1.5 for "PT1H30M" in hours.
+     * 
+     * @param duration The ISO 8601 duration string
+     * @param unit The target unit, see {@link com.medblocks.plugins.unit.DurationUnitConverter#toTimeUnit}
+     * @return The duration in that unit, or 0 if the duration cannot be parsed
+     */
+    public static double durationToValue(String duration, UnitsOfTime unit) {
+        IsoDuration parsed = IsoDuration.parse(duration);
+        double value = parsed != null ? parsed.toValue(unit) : Double.NaN;
+        if (Double.isNaN(value)) {
+            if (isSampled()) {
+                log.warn("Could not convert duration {} to unit {}", duration, unit);
+            }
+            return 0;
+        }
+        return value;
+    }
+    
     /**
      * Checks if periodUnit is a valid time unit for OpenEHR interval.
      * 
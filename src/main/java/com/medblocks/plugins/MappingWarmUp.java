@@ -0,0 +1,209 @@
+package com.medblocks.plugins;
+
+import com.google.gson.JsonObject;
+import com.medblocks.openfhir.plugin.api.FormatConverter;
+import com.medblocks.plugins.handler.DosageCompositeHandler;
+import com.medblocks.plugins.handler.DosageDurationHandler;
+import com.medblocks.plugins.handler.DosageQuantityToRangeHandler;
+import com.medblocks.plugins.handler.MappingHandlerRegistry;
+import com.medblocks.plugins.handler.RatioToDvQuantityHandler;
+import com.medblocks.plugins.handler.TimingToDailyHandler;
+import org.hl7.fhir.r4.model.Dosage;
+import org.hl7.fhir.r4.model.MedicationRequest;
+import org.hl7.fhir.r4.model.Quantity;
+import org.hl7.fhir.r4.model.Range;
+import org.hl7.fhir.r4.model.Ratio;
+import org.hl7.fhir.r4.model.SimpleQuantity;
+import org.hl7.fhir.r4.model.Timing;
+import org.hl7.fhir.r4.model.Timing.UnitsOfTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Warms up the mapping functions after the plugin has started, so that the first requests do
+ * not pay for class loading and interpreted code.
+ *
+ * On a background daemon thread, the warm-up loads the HAPI R4 and Gson classes used by the
+ * mapping functions, then maps a synthetic fixture of every built-in mapping code forward into
+ * a throwaway JsonObject and back again. Mapping codes contributed by other plugins have no
+ * fixture and are not warmed up. The number of rounds is configured with the setting
+ * {@code warmup.iterations} (default 2000, 0 disables the warm-up).
+ *
+ * Warm-up calls go through the converter like any other call, so they are included in the
+ * counters and latencies of {@link com.medblocks.plugins.diagnostics.MappingMetrics}.
+ */
+public final class MappingWarmUp {
+
+    private static final Logger log = LoggerFactory.getLogger(MappingWarmUp.class);
+
+    private static final String OPENEHR_PATH = "warmup/dosage";
+
+    // Classes the mapping functions resolve lazily on their first call
+    private static final String[] PRELOADED_CLASSES = {
+        "org.hl7.fhir.r4.model.MedicationRequest",
+        "org.hl7.fhir.r4.model.Dosage",
+        "org.hl7.fhir.r4.model.Dosage$DosageDoseAndRateComponent",
+        "org.hl7.fhir.r4.model.Timing",
+        "org.hl7.fhir.r4.model.Timing$TimingRepeatComponent",
+        "org.hl7.fhir.r4.model.Timing$UnitsOfTime",
+        "org.hl7.fhir.r4.model.Timing$UnitsOfTimeEnumFactory",
+        "org.hl7.fhir.r4.model.Ratio",
+        "org.hl7.fhir.r4.model.Range",
+        "org.hl7.fhir.r4.model.Quantity",
+        "org.hl7.fhir.r4.model.SimpleQuantity",
+        "org.hl7.fhir.r4.model.Duration",
+        "org.hl7.fhir.r4.model.DecimalType",
+        "org.hl7.fhir.r4.model.PositiveIntType",
+        "org.hl7.fhir.r4.model.UnsignedIntType",
+        "org.hl7.fhir.r4.model.TimeType",
+        "org.hl7.fhir.r4.model.Enumeration",
+        "com.google.gson.JsonObject",
+        "com.google.gson.JsonPrimitive",
+        "com.google.gson.internal.LinkedTreeMap"
+    };
+
+    private static Thread thread;
+    private static volatile long lastDurationMillis = -1;
+
+    private MappingWarmUp() {
+    }
+
+    /**
+     * Starts the warm-up on a background thread, if enabled and not already running
+     *
+     * @param converter The converter to warm up
+     */
+    public static synchronized void start(FormatConverter converter) {
+        int iterations = PluginSettings.getInt("warmup.iterations", 2000);
+        if (iterations <= 0 || (thread != null && thread.isAlive())) {
+            return;
+        }
+
+        thread = new Thread(() -> run(converter, iterations), "custom-mapping-warmup");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Interrupts a running warm-up
+     */
+    public static synchronized void stop() {
+        if (thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    /**
+     * @return How long the last completed warm-up took in milliseconds, -1 if none has completed
+     */
+    public static long getLastDurationMillis() {
+        return lastDurationMillis;
+    }
+
+    /**
+     * Runs the warm-up on the calling thread
+     *
+     * @param converter The converter to warm up
+     * @param iterations The number of rounds over all fixtures
+     * @return true if the warm-up completed, false if it was interrupted
+     */
+    public static boolean run(FormatConverter converter, int iterations) {
+        long start = System.nanoTime();
+        try {
+            preloadClasses();
+
+            Map<String, Fixture> fixtures = fixtures();
+            fixtures.keySet().retainAll(MappingHandlerRegistry.current().getMappingCodes());
+
+            MedicationRequest target = new MedicationRequest();
+            for (int i = 0; i < iterations; i++) {
+                if (Thread.currentThread().isInterrupted()) {
+                    log.info("Warm-up interrupted after {} of {} rounds", i, iterations);
+                    return false;
+                }
+                for (Map.Entry<String, Fixture> entry : fixtures.entrySet()) {
+                    Fixture fixture = entry.getValue();
+                    JsonObject flat = new JsonObject();
+                    converter.applyFhirToOpenEhrMapping(entry.getKey(), OPENEHR_PATH, fixture.fhirValue,
+                                                        fixture.openEhrType, flat);
+                    converter.applyOpenEhrToFhirMapping(entry.getKey(), OPENEHR_PATH, flat, fixture.fhirPath, target);
+                }
+            }
+
+            lastDurationMillis = (System.nanoTime() - start) / 1_000_000;
+            log.info("Warm-up of {} mapping codes with {} rounds finished in {} ms",
+                     fixtures.size(), iterations, lastDurationMillis);
+            return true;
+        } catch (Exception e) {
+            log.warn("Warm-up failed after {} ms: {}", (System.nanoTime() - start) / 1_000_000, e.getMessage(), e);
+            return false;
+        }
+    }
+
+    private static void preloadClasses() {
+        ClassLoader loader = MappingWarmUp.class.getClassLoader();
+        for (String name : PRELOADED_CLASSES) {
+            try {
+                Class.forName(name, true, loader);
+            } catch (ClassNotFoundException | LinkageError e) {
+                log.debug("Could not preload {}: {}", name, e.toString());
+            }
+        }
+    }
+
+    /**
+     * @return One representative input per built-in mapping code
+     */
+    private static Map<String, Fixture> fixtures() {
+        Map<String, Fixture> fixtures = new LinkedHashMap<>();
+
+        Timing timing = new Timing();
+        timing.getRepeat().setFrequency(2).setFrequencyMax(3).setPeriod(1).setPeriodUnit(UnitsOfTime.D)
+            .setCount(10).addTimeOfDay("08:00");
+        fixtures.put(TimingToDailyHandler.MAPPING_CODE, new Fixture(timing, "CLUSTER", "dosageInstruction.timing"));
+
+        Timing.TimingRepeatComponent duration = new Timing.TimingRepeatComponent();
+        duration.setDuration(1.5).setDurationMax(2).setDurationUnit(UnitsOfTime.H);
+        fixtures.put(DosageDurationHandler.MAPPING_CODE,
+                     new Fixture(duration, "DV_DURATION", "dosageInstruction.timing.repeat"));
+
+        Dosage.DosageDoseAndRateComponent rate = new Dosage.DosageDoseAndRateComponent();
+        Ratio ratio = new Ratio();
+        ratio.setNumerator(new Quantity().setValue(100).setUnit("mL"));
+        ratio.setDenominator(new Quantity().setValue(1).setUnit("h"));
+        rate.setRate(ratio);
+        fixtures.put(RatioToDvQuantityHandler.MAPPING_CODE,
+                     new Fixture(rate, "DV_QUANTITY", "dosageInstruction.doseAndRate"));
+
+        Range range = new Range();
+        range.setLow(new SimpleQuantity().setValue(1).setUnit("tablet"));
+        range.setHigh(new SimpleQuantity().setValue(2).setUnit("tablet"));
+        fixtures.put(DosageQuantityToRangeHandler.MAPPING_CODE,
+                     new Fixture(range, "DV_QUANTITY", "dosageInstruction.doseAndRate.doseRange"));
+
+        Dosage dosage = new Dosage();
+        dosage.setTiming(timing.copy());
+        dosage.getTiming().getRepeat().setDuration(1.5).setDurationUnit(UnitsOfTime.H);
+        dosage.addDoseAndRate().setDose(range.copy()).setRate(ratio.copy());
+        fixtures.put(DosageCompositeHandler.MAPPING_CODE, new Fixture(dosage, "CLUSTER", "dosageInstruction"));
+
+        return fixtures;
+    }
+
+    private static final class Fixture {
+        final Object fhirValue;
+        final String openEhrType;
+        final String fhirPath;
+
+        Fixture(Object fhirValue, String openEhrType, String fhirPath) {
+            this.fhirValue = fhirValue;
+            this.openEhrType = openEhrType;
+            this.fhirPath = fhirPath;
+        }
+    }
+}
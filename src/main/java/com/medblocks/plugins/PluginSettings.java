@@ -0,0 +1,62 @@
+package com.medblocks.plugins;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Plugin configuration read from JVM system properties prefixed with
+ * {@value #PREFIX}, e.g. {@code -Dopenfhir.custommapping.diagnostics.summaryIntervalSeconds=60}
+ */
+public final class PluginSettings {
+
+    private static final Logger log = LoggerFactory.getLogger(PluginSettings.class);
+
+    public static final String PREFIX = "openfhir.custommapping.";
+
+    private PluginSettings() {
+    }
+
+    /**
+     * Reads a string setting
+     *
+     * @param name The setting name without prefix
+     * @param defaultValue The value used when the setting is absent
+     * @return The configured value or the default
+     */
+    public static String getString(String name, String defaultValue) {
+        String value = System.getProperty(PREFIX + name);
+        return value != null && !value.isBlank() ? value.trim() : defaultValue;
+    }
+
+    /**
+     * Reads an integer setting, falling back to the default for malformed values
+     *
+     * @param name The setting name without prefix
+     * @param defaultValue The value used when the setting is absent or invalid
+     * @return The configured value or the default
+     */
+    public static int getInt(String name, int defaultValue) {
+        String value = getString(name, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            log.warn("Invalid value '{}' for setting {}{}, using {}", value, PREFIX, name, defaultValue);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Reads a boolean setting
+     *
+     * @param name The setting name without prefix
+     * @param defaultValue The value used when the setting is absent
+     * @return The configured value or the default
+     */
+    public static boolean getBoolean(String name, boolean defaultValue) {
+        String value = getString(name, null);
+        return value != null ? Boolean.parseBoolean(value) : defaultValue;
+    }
+}
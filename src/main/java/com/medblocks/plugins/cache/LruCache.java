@@ -0,0 +1,151 @@
+package com.medblocks.plugins.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded, thread-safe cache that evicts the least recently used entries.
+ *
+ * The entries are spread over a fixed number of stripes by key hash. Each stripe is an
+ * access-ordered {@link LinkedHashMap} guarded by its own monitor, so concurrent lookups of
+ * different keys rarely contend and a lookup never allocates. Recency is tracked per stripe,
+ * which makes the eviction order approximate across the whole cache. The capacities of the
+ * stripes add up to exactly the maximum number of entries.
+ *
+ * A cache created with a maximum of 0 or less is disabled: lookups miss and nothing is stored.
+ *
+ * @param <K> The key type, which must implement equals and hashCode and must not change once stored
+ * @param <V> The value type
+ */
+public final class LruCache<K, V> {
+
+    private static final int MAX_STRIPES = 8;
+
+    private final Stripe<K, V>[] stripes;
+    private final int maxEntries;
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maxEntries The maximum number of entries, 0 or less to disable the cache
+     */
+    public LruCache(int maxEntries) {
+        this.maxEntries = Math.max(0, maxEntries);
+        // Power of two for masking, and never more stripes than entries
+        int stripeCount = 1;
+        while (stripeCount < MAX_STRIPES && stripeCount * 2 <= this.maxEntries) {
+            stripeCount *= 2;
+        }
+        // The first stripes take one entry of the remainder each, so the total is never exceeded
+        int perStripe = this.maxEntries / stripeCount;
+        int remainder = this.maxEntries % stripeCount;
+        stripes = newStripes(stripeCount);
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe<>(i < remainder ? perStripe + 1 : perStripe, evictions);
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <K, V> Stripe<K, V>[] newStripes(int count) {
+        return new Stripe[count];
+    }
+
+    /**
+     * Get a value, marking it as most recently used
+     *
+     * @param key The key
+     * @return The cached value, or null if absent
+     */
+    public V get(K key) {
+        if (maxEntries == 0) {
+            return null;
+        }
+        Stripe<K, V> stripe = stripeFor(key);
+        synchronized (stripe) {
+            return stripe.get(key);
+        }
+    }
+
+    /**
+     * Stores a value, evicting the least recently used entry of the stripe if it is full
+     *
+     * @param key The key
+     * @param value The value
+     */
+    public void put(K key, V value) {
+        if (maxEntries == 0) {
+            return;
+        }
+        Stripe<K, V> stripe = stripeFor(key);
+        synchronized (stripe) {
+            stripe.put(key, value);
+        }
+    }
+
+    /**
+     * @return The number of cached entries
+     */
+    public int size() {
+        int size = 0;
+        for (Stripe<K, V> stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return The maximum number of entries, 0 if the cache is disabled
+     */
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * @return The number of entries evicted to make room for new ones
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Removes all entries
+     */
+    public void clear() {
+        for (Stripe<K, V> stripe : stripes) {
+            synchronized (stripe) {
+                stripe.clear();
+            }
+        }
+    }
+
+    private Stripe<K, V> stripeFor(K key) {
+        int hash = key.hashCode();
+        hash ^= hash >>> 16;
+        return stripes[hash & (stripes.length - 1)];
+    }
+
+    private static final class Stripe<K, V> extends LinkedHashMap<K, V> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+        private final LongAdder evictions;
+
+        Stripe(int capacity, LongAdder evictions) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+            this.evictions = evictions;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            if (size() > capacity) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+}
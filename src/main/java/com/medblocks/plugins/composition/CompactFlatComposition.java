@@ -0,0 +1,314 @@
+package com.medblocks.plugins.composition;
+
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Flat composition held in primitive arrays instead of a {@link JsonObject} tree, for jobs that
+ * keep many compositions in memory. It is exported to a JsonObject or a JSON stream once all
+ * values have been mapped.
+ *
+ * Keys are stored in an open-addressing table with linear probing, filled to at most 75%. Decimal, integer and boolean
+ * values are stored as raw bits in a {@code long} slot array and strings in a separate slot
+ * array, so a value costs no map entry, no JsonPrimitive and no boxed number. The keys built
+ * by the mapping functions are interned, so all compositions share the same key instances and
+ * a key lookup usually ends with an identity comparison.
+ *
+ * As in a JsonObject, writing a key again replaces its value and keeps its position; keys are
+ * exported in the order they were first written. All methods are synchronized, so several
+ * mapping threads may write into one composition.
+ */
+public class CompactFlatComposition implements FlatCompositionSink {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private static final byte STRING = 1;
+    private static final byte DOUBLE = 2;
+    private static final byte INT = 3;
+    private static final byte BOOLEAN = 4;
+
+    // Slots, indexed by the position of the key in the table; a null key marks a free slot
+    private String[] keys;
+    private int[] hashes;
+    private byte[] types;
+    private long[] bits;
+    private String[] strings;
+
+    // Slot of every key, in the order the keys were first written
+    private int[] order;
+    private int size;
+
+    /**
+     * Creates an empty composition
+     */
+    public CompactFlatComposition() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates an empty composition sized for the expected number of values
+     *
+     * @param expectedSize The expected number of values
+     */
+    public CompactFlatComposition(int expectedSize) {
+        int capacity = DEFAULT_CAPACITY;
+        while (capacity * 3L < expectedSize * 4L && capacity < (1 << 30)) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+        order = new int[Math.max(expectedSize, DEFAULT_CAPACITY / 2)];
+    }
+
+    /**
+     * Writes a string value; a null value is exported as JSON null, as in a JsonObject
+     */
+    @Override
+    public synchronized void put(String key, String value) {
+        int slot = slotFor(key);
+        types[slot] = STRING;
+        strings[slot] = value;
+        bits[slot] = 0;
+    }
+
+    @Override
+    public synchronized void put(String key, double value) {
+        int slot = slotFor(key);
+        types[slot] = DOUBLE;
+        bits[slot] = Double.doubleToRawLongBits(value);
+        strings[slot] = null;
+    }
+
+    @Override
+    public synchronized void put(String key, int value) {
+        int slot = slotFor(key);
+        types[slot] = INT;
+        bits[slot] = value;
+        strings[slot] = null;
+    }
+
+    @Override
+    public synchronized void put(String key, boolean value) {
+        int slot = slotFor(key);
+        types[slot] = BOOLEAN;
+        bits[slot] = value ? 1 : 0;
+        strings[slot] = null;
+    }
+
+    /**
+     * @return The number of values
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @param key The flat path
+     * @return true if a value is stored for the key
+     */
+    public synchronized boolean has(String key) {
+        return find(key) >= 0;
+    }
+
+    /**
+     * Get a value as the type it was written with
+     *
+     * @param key The flat path
+     * @return A String, Double, Integer or Boolean, or null if there is no value for the key
+     */
+    public synchronized Object get(String key) {
+        int slot = find(key);
+        return slot >= 0 ? valueAt(slot) : null;
+    }
+
+    /**
+     * Copies the values into a new JsonObject
+     *
+     * @return The flat composition as JsonObject
+     */
+    public synchronized JsonObject toJsonObject() {
+        JsonObject json = new JsonObject();
+        for (int i = 0; i < size; i++) {
+            int slot = order[i];
+            String key = keys[slot];
+            switch (types[slot]) {
+                case STRING:
+                    json.addProperty(key, strings[slot]);
+                    break;
+                case DOUBLE:
+                    json.addProperty(key, Double.longBitsToDouble(bits[slot]));
+                    break;
+                case INT:
+                    json.addProperty(key, (int) bits[slot]);
+                    break;
+                default:
+                    json.addProperty(key, bits[slot] != 0);
+            }
+        }
+        return json;
+    }
+
+    /**
+     * Writes the values as one JSON object
+     *
+     * @param writer The JSON writer, positioned where the composition object should start
+     * @throws IOException If the writer fails
+     */
+    public synchronized void writeTo(JsonWriter writer) throws IOException {
+        writer.beginObject();
+        for (int i = 0; i < size; i++) {
+            int slot = order[i];
+            writer.name(keys[slot]);
+            switch (types[slot]) {
+                case STRING:
+                    writer.value(strings[slot]);
+                    break;
+                case DOUBLE:
+                    writer.value(Double.longBitsToDouble(bits[slot]));
+                    break;
+                case INT:
+                    writer.value((int) bits[slot]);
+                    break;
+                default:
+                    writer.value(bits[slot] != 0);
+            }
+        }
+        writer.endObject();
+    }
+
+    /**
+     * Writes the values as one JSON object to a character stream and flushes it.
+     * The stream is left open.
+     *
+     * @param out The target writer
+     * @throws IOException If the writer fails
+     */
+    public void writeTo(Writer out) throws IOException {
+        JsonWriter writer = new JsonWriter(out);
+        writeTo(writer);
+        writer.flush();
+    }
+
+    /**
+     * Writes the values as one UTF-8 JSON object to a byte stream and flushes it.
+     * The stream is left open.
+     *
+     * @param out The target stream
+     * @throws IOException If the stream fails
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        writeTo(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public synchronized String toString() {
+        return toJsonObject().toString();
+    }
+
+    /**
+     * Get the slot of a key, adding the key if it is new
+     */
+    private int slotFor(String key) {
+        if (key == null) {
+            throw new IllegalArgumentException("Flat composition key must not be null");
+        }
+        int hash = spread(key.hashCode());
+        int slot = probe(key, hash);
+        if (keys[slot] != null) {
+            return slot;
+        }
+
+        if ((size + 1) * 4L > keys.length * 3L) {
+            resize();
+            slot = probe(key, hash);
+        }
+        keys[slot] = key;
+        hashes[slot] = hash;
+        if (size == order.length) {
+            int[] grown = new int[order.length * 2];
+            System.arraycopy(order, 0, grown, 0, size);
+            order = grown;
+        }
+        order[size++] = slot;
+        return slot;
+    }
+
+    /**
+     * @return The slot of the key, or -1 if the key is not stored
+     */
+    private int find(String key) {
+        if (key == null) {
+            return -1;
+        }
+        int slot = probe(key, spread(key.hashCode()));
+        return keys[slot] != null ? slot : -1;
+    }
+
+    /**
+     * @return The slot holding the key, or the free slot where it would be added
+     */
+    private int probe(String key, int hash) {
+        int mask = keys.length - 1;
+        int slot = hash & mask;
+        while (true) {
+            String stored = keys[slot];
+            if (stored == null || stored == key || (hashes[slot] == hash && stored.equals(key))) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private Object valueAt(int slot) {
+        switch (types[slot]) {
+            case STRING:
+                return strings[slot];
+            case DOUBLE:
+                return Double.longBitsToDouble(bits[slot]);
+            case INT:
+                return (int) bits[slot];
+            default:
+                return bits[slot] != 0;
+        }
+    }
+
+    private void resize() {
+        String[] oldKeys = keys;
+        int[] oldHashes = hashes;
+        byte[] oldTypes = types;
+        long[] oldBits = bits;
+        String[] oldStrings = strings;
+
+        allocate(oldKeys.length * 2);
+        for (int i = 0; i < size; i++) {
+            int oldSlot = order[i];
+            int slot = probe(oldKeys[oldSlot], oldHashes[oldSlot]);
+            keys[slot] = oldKeys[oldSlot];
+            hashes[slot] = oldHashes[oldSlot];
+            types[slot] = oldTypes[oldSlot];
+            bits[slot] = oldBits[oldSlot];
+            strings[slot] = oldStrings[oldSlot];
+            order[i] = slot;
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new String[capacity];
+        hashes = new int[capacity];
+        types = new byte[capacity];
+        bits = new long[capacity];
+        strings = new String[capacity];
+    }
+
+    /**
+     * Mixes the high bits into the low bits used for the slot, as flat keys often share long prefixes
+     */
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,188 @@
+package com.medblocks.plugins.composition;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.medblocks.plugins.MappingUtils;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Sorted index over the keys of a flat composition, used by the OpenEHR to FHIR direction.
+ * Finding all keys under an openEhrPath prefix in a {@link JsonObject} is a linear scan; with
+ * the keys sorted once, every prefix lookup is a binary search.
+ *
+ * The sorted keys are built once per composition and shared by all reverse mapping calls
+ * against it through a small cache keyed by composition identity ({@link #of(JsonObject)}).
+ * The cache only references compositions weakly. Values are always read from the composition
+ * itself, so the keys only go stale when keys are added or removed. Checking a cached
+ * composition is constant time: a changed number of keys is detected, and code that writes
+ * keys into a composition calls {@link #invalidate(JsonObject)} afterwards, as the mapping
+ * functions do. The keys are then sorted again on the next lookup.
+ *
+ * The cache is lock-free: slots are replaced atomically and readers never block. Keys are
+ * copied and values read under the monitor of the composition, the same lock that guards
+ * the writes of the mapping functions.
+ */
+public final class FlatCompositionIndex {
+
+    private static final int CACHE_SLOTS = 16;
+
+    // Sorted keys of recently indexed compositions
+    private static final AtomicReferenceArray<Slot> CACHE = new AtomicReferenceArray<>(CACHE_SLOTS);
+    private static final AtomicInteger nextSlot = new AtomicInteger();
+
+    private final JsonObject composition;
+    private final String[] keys;
+
+    private FlatCompositionIndex(JsonObject composition, String[] keys) {
+        this.composition = composition;
+        this.keys = keys;
+    }
+
+    /**
+     * Get the index for a flat composition. The keys are only sorted if the composition has
+     * not been indexed yet, has gained or lost keys, or has been invalidated since.
+     *
+     * @param composition The flat composition
+     * @return The index
+     */
+    public static FlatCompositionIndex of(JsonObject composition) {
+        int size;
+        synchronized (composition) {
+            size = composition.size();
+        }
+        int existing = -1;
+        for (int i = 0; i < CACHE_SLOTS; i++) {
+            Slot slot = CACHE.get(i);
+            if (slot != null && slot.composition.get() == composition) {
+                if (slot.keys.length == size) {
+                    return new FlatCompositionIndex(composition, slot.keys);
+                }
+                existing = i;
+                break;
+            }
+        }
+
+        String[] keys;
+        synchronized (composition) {
+            keys = composition.keySet().toArray(new String[0]);
+        }
+        Arrays.sort(keys);
+
+        // Replace the stale entry of this composition, or evict round-robin
+        int target = existing >= 0 ? existing : Math.floorMod(nextSlot.getAndIncrement(), CACHE_SLOTS);
+        CACHE.set(target, new Slot(composition, keys));
+        return new FlatCompositionIndex(composition, keys);
+    }
+
+    /**
+     * Drops the cached keys of a composition, so that the next {@link #of(JsonObject)} sorts
+     * them again. Call after writing keys into a composition that may have been indexed.
+     *
+     * @param composition The flat composition
+     */
+    public static void invalidate(JsonObject composition) {
+        for (int i = 0; i < CACHE_SLOTS; i++) {
+            Slot slot = CACHE.get(i);
+            if (slot != null && slot.composition.get() == composition) {
+                CACHE.compareAndSet(i, slot, null);
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return The indexed composition
+     */
+    public JsonObject getComposition() {
+        return composition;
+    }
+
+    /**
+     * @return The number of indexed keys
+     */
+    public int size() {
+        return keys.length;
+    }
+
+    /**
+     * Checks whether any key starts with the prefix
+     *
+     * @param prefix The key prefix, typically an openEhrPath
+     * @return true if at least one key starts with the prefix
+     */
+    public boolean hasKeysUnder(String prefix) {
+        int start = lowerBound(prefix);
+        return start < keys.length && keys[start].startsWith(prefix);
+    }
+
+    /**
+     * Get the value of a key
+     *
+     * @param key The flat key
+     * @return The value, or null if absent
+     */
+    public JsonElement get(String key) {
+        synchronized (composition) {
+            return composition.get(key);
+        }
+    }
+
+    /**
+     * Get a string value
+     *
+     * @param key The flat key
+     * @return The value as string, or null if absent or not a primitive
+     */
+    public String getString(String key) {
+        JsonElement element = get(key);
+        return element instanceof JsonPrimitive ? element.getAsString() : null;
+    }
+
+    /**
+     * Get a numeric value
+     *
+     * @param key The flat key
+     * @return The number, or null if absent or not numeric
+     */
+    public Double getDouble(String key) {
+        JsonElement element = get(key);
+        if (!(element instanceof JsonPrimitive)) {
+            return null;
+        }
+        JsonPrimitive primitive = (JsonPrimitive) element;
+        if (primitive.isNumber()) {
+            return primitive.getAsDouble();
+        }
+        return primitive.isString() ? MappingUtils.parseDecimal(primitive.getAsString()) : null;
+    }
+
+    // Index of the first key that is not smaller than the prefix
+    private int lowerBound(String prefix) {
+        int low = 0;
+        int high = keys.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid].compareTo(prefix) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static final class Slot {
+        final WeakReference<JsonObject> composition;
+        final String[] keys;
+
+        Slot(JsonObject composition, String[] keys) {
+            this.composition = new WeakReference<>(composition);
+            this.keys = keys;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.medblocks.plugins.composition;
+
+/**
+ * Output target for flat composition values.
+ * The mapping functions write into a Gson {@link com.google.gson.JsonObject} by default; passing
+ * an implementation of this interface as the flat composition lets them write somewhere else,
+ * e.g. directly to a stream with {@link JsonWriterSink}.
+ *
+ * A sink shared by several mapping threads must accept concurrent {@code put} calls.
+ */
+public interface FlatCompositionSink {
+
+    /**
+     * Writes a string value
+     *
+     * @param key The flat path
+     * @param value The value
+     */
+    void put(String key, String value);
+
+    /**
+     * Writes a decimal value
+     *
+     * @param key The flat path
+     * @param value The value
+     */
+    void put(String key, double value);
+
+    /**
+     * Writes an integer value
+     *
+     * @param key The flat path
+     * @param value The value
+     */
+    void put(String key, int value);
+
+    /**
+     * Writes a boolean value
+     *
+     * @param key The flat path
+     * @param value The value
+     */
+    void put(String key, boolean value);
+}
@@ -0,0 +1,113 @@
+package com.medblocks.plugins.composition;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes flat composition values straight to a Gson {@link JsonWriter} as they are produced,
+ * without building a {@link com.google.gson.JsonObject} tree in memory.
+ * The output is a single JSON object; it is opened on construction and closed by {@link #close()}.
+ *
+ * Values cannot be replaced once written, so every key should only be mapped once per composition.
+ * Each key and value pair is written atomically, so several threads may map into one sink;
+ * the order of the keys then depends on the order of the calls.
+ */
+public class JsonWriterSink implements FlatCompositionSink, Closeable {
+
+    private final JsonWriter writer;
+
+    /**
+     * Creates a sink writing to a JSON writer and opens the flat composition object
+     *
+     * @param writer The JSON writer, positioned where the composition object should start
+     */
+    public JsonWriterSink(JsonWriter writer) {
+        this.writer = writer;
+        try {
+            writer.beginObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Creates a sink writing UTF-8 JSON to a character stream
+     *
+     * @param out The target writer
+     * @return The sink
+     */
+    public static JsonWriterSink to(Writer out) {
+        return new JsonWriterSink(new JsonWriter(out));
+    }
+
+    /**
+     * Creates a sink writing UTF-8 JSON to a byte stream, e.g. a {@link java.io.ByteArrayOutputStream}
+     *
+     * @param out The target stream
+     * @return The sink
+     */
+    public static JsonWriterSink to(OutputStream out) {
+        return to(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public synchronized void put(String key, String value) {
+        try {
+            writer.name(key).value(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes a decimal value. JSON has no representation for NaN and infinities, so unless the
+     * writer is lenient they are rejected before anything is written, which keeps the sink usable.
+     *
+     * @throws IllegalArgumentException If the value is not finite and the writer is strict
+     */
+    @Override
+    public synchronized void put(String key, double value) {
+        if (!Double.isFinite(value) && !writer.isLenient()) {
+            throw new IllegalArgumentException("Numeric values must be finite, but was " + value + " for " + key);
+        }
+        try {
+            writer.name(key).value(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public synchronized void put(String key, int value) {
+        try {
+            writer.name(key).value(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public synchronized void put(String key, boolean value) {
+        try {
+            writer.name(key).value(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Closes the composition object and flushes the output. The underlying stream is left open.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        writer.endObject();
+        writer.flush();
+    }
+}
@@ -0,0 +1,89 @@
+package com.medblocks.plugins.diagnostics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder event for one unit conversion or time formatting step, nested within
+ * the {@link MappingEvent} of the call that made it.
+ * Units are only recorded when they are parsed, not when served from the unit cache, and
+ * Timing shapes served from the timing cache are not rendered again, so they produce no events.
+ */
+@Name(ConversionEvent.NAME)
+@Label("Conversion")
+@Description("A unit conversion or time formatting step of the custom mapping plugin")
+@Category({"openFHIR", "Custom Mapping"})
+@StackTrace(false)
+public final class ConversionEvent extends Event {
+
+    public static final String NAME = "com.medblocks.plugins.Conversion";
+
+    private static final EventType TYPE = EventType.getEventType(ConversionEvent.class);
+
+    @Label("Converter")
+    @Description("durationFormat, frequencyUnit, unitCanonicalize or dvTimeFormat")
+    String converter;
+
+    @Label("Input")
+    String input;
+
+    @Label("Output")
+    @Description("The converted value, null if the input could not be converted")
+    String output;
+
+    /**
+     * Starts timing a conversion
+     *
+     * @return The started event, or null if no recording has the event enabled
+     */
+    public static ConversionEvent start() {
+        if (!TYPE.isEnabled()) {
+            return null;
+        }
+        ConversionEvent event = new ConversionEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Ends the event of a conversion and commits it if it passes the recording settings
+     *
+     * @param event The event returned by {@link #start()}, may be null
+     * @param converter The name of the converter
+     * @param input The converted value
+     * @param output The result, null if the value could not be converted
+     */
+    public static void end(ConversionEvent event, String converter, String input, String output) {
+        if (event == null) {
+            return;
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.converter = converter;
+            event.input = input;
+            event.output = output;
+            event.commit();
+        }
+    }
+
+    /**
+     * Ends the event of a conversion of a number with a unit, without boxing the number when
+     * nothing is recorded
+     *
+     * @param event The event returned by {@link #start()}, may be null
+     * @param converter The name of the converter
+     * @param value The converted number
+     * @param unit The unit of the number
+     * @param output The result, null if the value could not be converted
+     */
+    public static void end(ConversionEvent event, String converter, double value, String unit, String output) {
+        if (event != null) {
+            end(event, converter, value + " " + unit, output);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.medblocks.plugins.diagnostics;
+
+import com.medblocks.plugins.PluginSettings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * De-duplicating error log for the mapping functions.
+ * Failures are fingerprinted by operation (usually the mapping code), exception type and the
+ * top stack frame. The first failure with a fingerprint is logged in full with its stack trace;
+ * repeats are only counted and reported as one line per fingerprint with the periodic
+ * mapping summary (see {@link MappingDiagnostics}). A batch of malformed values therefore
+ * costs one stack trace instead of one per value.
+ *
+ * {@link MappingValidationException}s carry no stack trace and are logged with their message only.
+ *
+ * The number of distinct fingerprints is bounded by the setting {@code errors.maxFingerprints}
+ * (default 1024); further fingerprints share one counter and are never logged in full.
+ */
+public final class ErrorReporter {
+
+    private static final Logger log = LoggerFactory.getLogger(ErrorReporter.class);
+
+    private static final int MAX_FINGERPRINTS = PluginSettings.getInt("errors.maxFingerprints", 1024);
+
+    private static final ConcurrentMap<Fingerprint, Occurrences> OCCURRENCES = new ConcurrentHashMap<>();
+
+    // Shared by all fingerprints beyond the limit
+    private static final Fingerprint OVERFLOW = new Fingerprint("<other>", Throwable.class, null);
+
+    private ErrorReporter() {
+    }
+
+    /**
+     * Reports a failure
+     *
+     * @param operation The failed operation, usually the mapping code
+     * @param error The failure
+     */
+    public static void report(String operation, Throwable error) {
+        StackTraceElement[] stackTrace = error instanceof MappingValidationException ? null : error.getStackTrace();
+        Fingerprint fingerprint = new Fingerprint(operation, error.getClass(),
+                                                  stackTrace != null && stackTrace.length > 0 ? stackTrace[0] : null);
+
+        Occurrences occurrences = OCCURRENCES.get(fingerprint);
+        if (occurrences == null) {
+            if (OCCURRENCES.size() >= MAX_FINGERPRINTS) {
+                fingerprint = OVERFLOW;
+            }
+            Occurrences created = new Occurrences();
+            occurrences = OCCURRENCES.putIfAbsent(fingerprint, created);
+            if (occurrences == null) {
+                occurrences = created;
+                if (fingerprint != OVERFLOW) {
+                    logFirst(operation, error);
+                    return;
+                }
+            }
+        }
+        occurrences.suppressed.increment();
+    }
+
+    /**
+     * Get how often a failure was suppressed since it was first logged
+     *
+     * @param operation The failed operation
+     * @param type The exception type
+     * @param topFrame The top stack frame, null for stackless exceptions
+     * @return The number of suppressed repeats
+     */
+    public static long getSuppressed(String operation, Class<? extends Throwable> type, StackTraceElement topFrame) {
+        Occurrences occurrences = OCCURRENCES.get(new Fingerprint(operation, type, topFrame));
+        return occurrences != null ? occurrences.suppressed.sum() : 0;
+    }
+
+    /**
+     * Logs one line for every failure repeated since the previous summary
+     */
+    public static synchronized void logSummary() {
+        OCCURRENCES.forEach((fingerprint, occurrences) -> {
+            long total = occurrences.suppressed.sum();
+            long delta = total - occurrences.reported;
+            if (delta > 0) {
+                occurrences.reported = total;
+                log.warn("Suppressed {} repeated errors in {}: {}{}", delta, fingerprint.operation,
+                         fingerprint.type.getName(), fingerprint.topFrame != null ? " at " + fingerprint.topFrame : "");
+            }
+        });
+    }
+
+    private static void logFirst(String operation, Throwable error) {
+        if (error instanceof MappingValidationException) {
+            log.warn("Validation failed in operation {}: {} (repeats are summarized)", operation, error.getMessage());
+        } else {
+            log.error("Error in operation {}: {} (repeats are summarized)", operation, error.getMessage(), error);
+        }
+    }
+
+    private static final class Fingerprint {
+        final String operation;
+        final Class<?> type;
+        final StackTraceElement topFrame;
+
+        Fingerprint(String operation, Class<?> type, StackTraceElement topFrame) {
+            this.operation = operation;
+            this.type = type;
+            this.topFrame = topFrame;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Fingerprint)) {
+                return false;
+            }
+            Fingerprint other = (Fingerprint) o;
+            return Objects.equals(operation, other.operation) && type == other.type
+                && Objects.equals(topFrame, other.topFrame);
+        }
+
+        @Override
+        public int hashCode() {
+            return (Objects.hashCode(operation) * 31 + type.hashCode()) * 31 + Objects.hashCode(topFrame);
+        }
+    }
+
+    private static final class Occurrences {
+        final LongAdder suppressed = new LongAdder();
+        // Suppressed count at the last summary, guarded by the ErrorReporter class lock
+        long reported;
+    }
+}
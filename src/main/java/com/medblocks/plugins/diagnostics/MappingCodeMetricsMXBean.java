@@ -0,0 +1,59 @@
+package com.medblocks.plugins.diagnostics;
+
+import java.util.Map;
+
+/**
+ * JMX view of the outcome counters and latencies of one mapping code, see {@link MappingMetrics}.
+ * All values are cumulative since the plugin was loaded; latencies are in microseconds.
+ */
+public interface MappingCodeMetricsMXBean {
+
+    String getMappingCode();
+
+    /**
+     * @return Calls that wrote at least one value
+     */
+    long getMapped();
+
+    /**
+     * @return Calls that completed without writing a value
+     */
+    long getNotMapped();
+
+    /**
+     * @return Calls that ended with an exception
+     */
+    long getFailed();
+
+    /**
+     * @return Values, or parts of values, that were skipped, by {@link SkipReason}
+     */
+    Map<String, Long> getSkipped();
+
+    /**
+     * @return Calls answered from the result cache, 0 for mapping codes without a cache
+     */
+    long getCacheHits();
+
+    /**
+     * @return Calls that computed and cached their result, 0 for mapping codes without a cache
+     */
+    long getCacheMisses();
+
+    /**
+     * @return Timed calls, i.e. the sum of mapped, not mapped and failed calls
+     */
+    long getLatencyCount();
+
+    double getLatencyMeanMicros();
+
+    double getLatency50thPercentileMicros();
+
+    double getLatency90thPercentileMicros();
+
+    double getLatency99thPercentileMicros();
+
+    double getLatency999thPercentileMicros();
+
+    double getLatencyMaxMicros();
+}
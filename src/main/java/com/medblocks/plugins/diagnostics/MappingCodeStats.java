@@ -0,0 +1,183 @@
+package com.medblocks.plugins.diagnostics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cumulative outcome counters and latencies for a single mapping code.
+ * Counters are {@link LongAdder}s and latencies go into a lock-free {@link LatencyHistogram},
+ * so that concurrent mapping threads do not contend.
+ */
+public final class MappingCodeStats implements MappingCodeMetricsMXBean {
+
+    private static final SkipReason[] REASONS = SkipReason.values();
+
+    private final String mappingCode;
+    private final LongAdder mapped = new LongAdder();
+    private final LongAdder notMapped = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder[] skipped = new LongAdder[REASONS.length];
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    MappingCodeStats(String mappingCode) {
+        this.mappingCode = mappingCode;
+        for (int i = 0; i < skipped.length; i++) {
+            skipped[i] = new LongAdder();
+        }
+    }
+
+    @Override
+    public String getMappingCode() {
+        return mappingCode;
+    }
+
+    /**
+     * Records a call that wrote at least one value
+     */
+    public void mapped() {
+        mapped.increment();
+    }
+
+    /**
+     * Records a call that completed without writing a value
+     */
+    public void notMapped() {
+        notMapped.increment();
+    }
+
+    /**
+     * Records a call that ended with an exception
+     */
+    public void failed() {
+        failed.increment();
+    }
+
+    /**
+     * Records a value, or part of a value, that was skipped
+     *
+     * @param reason Why the value was skipped
+     */
+    public void skipped(SkipReason reason) {
+        skipped[reason.ordinal()].increment();
+    }
+
+    /**
+     * Records a call answered from the result cache of the mapping code
+     */
+    public void cacheHit() {
+        cacheHits.increment();
+    }
+
+    /**
+     * Records a call that had to compute and cache its result
+     */
+    public void cacheMiss() {
+        cacheMisses.increment();
+    }
+
+    /**
+     * Records the duration of a call
+     *
+     * @param nanos The duration in nanoseconds, from {@link System#nanoTime()}
+     */
+    public void latency(long nanos) {
+        latency.record(nanos);
+    }
+
+    @Override
+    public long getMapped() {
+        return mapped.sum();
+    }
+
+    @Override
+    public long getNotMapped() {
+        return notMapped.sum();
+    }
+
+    @Override
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    public long getSkipped(SkipReason reason) {
+        return skipped[reason.ordinal()].sum();
+    }
+
+    @Override
+    public Map<String, Long> getSkipped() {
+        Map<String, Long> values = new LinkedHashMap<>();
+        for (SkipReason reason : REASONS) {
+            values.put(reason.name(), getSkipped(reason));
+        }
+        return values;
+    }
+
+    @Override
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
+
+    @Override
+    public long getCacheMisses() {
+        return cacheMisses.sum();
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    @Override
+    public long getLatencyCount() {
+        return latency.getCount();
+    }
+
+    @Override
+    public double getLatencyMeanMicros() {
+        return latency.getMeanNanos() / 1000;
+    }
+
+    @Override
+    public double getLatency50thPercentileMicros() {
+        return latency.getPercentileNanos(0.5) / 1000.0;
+    }
+
+    @Override
+    public double getLatency90thPercentileMicros() {
+        return latency.getPercentileNanos(0.9) / 1000.0;
+    }
+
+    @Override
+    public double getLatency99thPercentileMicros() {
+        return latency.getPercentileNanos(0.99) / 1000.0;
+    }
+
+    @Override
+    public double getLatency999thPercentileMicros() {
+        return latency.getPercentileNanos(0.999) / 1000.0;
+    }
+
+    @Override
+    public double getLatencyMaxMicros() {
+        return latency.getMaxNanos() / 1000.0;
+    }
+
+    /**
+     * Takes a snapshot of all counters in a fixed layout:
+     * mapped, not mapped, failed, the skip counters in {@link SkipReason} order, cache hits and cache misses
+     */
+    long[] snapshot() {
+        long[] values = new long[5 + REASONS.length];
+        values[0] = getMapped();
+        values[1] = getNotMapped();
+        values[2] = getFailed();
+        for (int i = 0; i < REASONS.length; i++) {
+            values[3 + i] = skipped[i].sum();
+        }
+        values[3 + REASONS.length] = getCacheHits();
+        values[4 + REASONS.length] = getCacheMisses();
+        return values;
+    }
+}
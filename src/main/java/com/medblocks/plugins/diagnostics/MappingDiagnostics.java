@@ -0,0 +1,209 @@
+package com.medblocks.plugins.diagnostics;
+
+import com.medblocks.plugins.PluginSettings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Aggregated diagnostics for the mapping functions.
+ * Instead of logging every mapped or skipped value, the mapping functions record outcomes in
+ * per-mapping-code counters ({@link MappingCodeStats}). A summary of the counters is logged
+ * periodically while the plugin is running.
+ *
+ * Full per-value logging is only done for a sample of calls, enabled with the setting
+ * {@code diagnostics.debugSampleRate}: a value of N logs roughly one in N calls, 0 disables it.
+ * The summary interval is configured with {@code diagnostics.summaryIntervalSeconds}
+ * (0 disables the periodic summary). See {@link PluginSettings}.
+ * The counters and latencies are also published over JMX by {@link MappingMetrics}.
+ */
+public final class MappingDiagnostics {
+
+    private static final Logger log = LoggerFactory.getLogger(MappingDiagnostics.class);
+
+    /**
+     * Counters for calls with an unregistered mapping code are pooled under this code
+     */
+    public static final String UNKNOWN_CODE = "<unknown>";
+
+    private static final SkipReason[] REASONS = SkipReason.values();
+
+    private static final ConcurrentMap<String, MappingCodeStats> STATS = new ConcurrentHashMap<>();
+
+    // Whether the call currently running on this thread is part of the debug sample
+    private static final ThreadLocal<Boolean> SAMPLED = ThreadLocal.withInitial(() -> Boolean.FALSE);
+
+    private static volatile int sampleRate = PluginSettings.getInt("diagnostics.debugSampleRate", 0);
+
+    // Summary state, guarded by the class lock
+    private static final Map<String, long[]> lastReported = new HashMap<>();
+    private static ScheduledExecutorService summaryExecutor;
+
+    private MappingDiagnostics() {
+    }
+
+    /**
+     * Get the counters for a mapping code, creating them on first use
+     *
+     * @param mappingCode The mapping code
+     * @return The counters for the mapping code
+     */
+    public static MappingCodeStats forCode(String mappingCode) {
+        MappingCodeStats stats = STATS.get(mappingCode);
+        return stats != null ? stats : STATS.computeIfAbsent(mappingCode, MappingDiagnostics::newStats);
+    }
+
+    private static MappingCodeStats newStats(String mappingCode) {
+        MappingCodeStats stats = new MappingCodeStats(mappingCode);
+        MappingMetrics.register(stats);
+        return stats;
+    }
+
+    /**
+     * @return The counters shared by all unregistered mapping codes
+     */
+    public static MappingCodeStats unknownCode() {
+        return forCode(UNKNOWN_CODE);
+    }
+
+    /**
+     * @return The counters of all mapping codes seen so far
+     */
+    public static Collection<MappingCodeStats> getStats() {
+        return STATS.values();
+    }
+
+    /**
+     * Decides whether the call starting on this thread is logged in full.
+     * Must be paired with {@link #endCall(boolean)}.
+     *
+     * @return true if the call is part of the debug sample
+     */
+    public static boolean beginCall() {
+        int rate = sampleRate;
+        if (rate <= 0 || ThreadLocalRandom.current().nextInt(rate) != 0) {
+            return false;
+        }
+        SAMPLED.set(Boolean.TRUE);
+        return true;
+    }
+
+    /**
+     * Ends a call started with {@link #beginCall()}
+     *
+     * @param sampled The value returned by {@link #beginCall()}
+     */
+    public static void endCall(boolean sampled) {
+        if (sampled) {
+            SAMPLED.set(Boolean.FALSE);
+        }
+    }
+
+    /**
+     * Checks whether per-value details of the current call should be logged
+     *
+     * @return true if the call running on this thread is part of the debug sample
+     */
+    public static boolean isSampled() {
+        return sampleRate > 0 && SAMPLED.get();
+    }
+
+    public static int getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * Changes the debug sample rate at runtime
+     *
+     * @param rate Log one in {@code rate} calls in full, 0 to disable
+     */
+    public static void setSampleRate(int rate) {
+        sampleRate = Math.max(0, rate);
+    }
+
+    /**
+     * Starts the periodic summary, if enabled
+     */
+    public static synchronized void start() {
+        int interval = PluginSettings.getInt("diagnostics.summaryIntervalSeconds", 300);
+        if (interval <= 0 || summaryExecutor != null) {
+            return;
+        }
+
+        summaryExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "custom-mapping-diagnostics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        summaryExecutor.scheduleAtFixedRate(MappingDiagnostics::logSummary, interval, interval, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops the periodic summary and logs the counts accumulated since the last summary
+     */
+    public static synchronized void stop() {
+        if (summaryExecutor != null) {
+            summaryExecutor.shutdownNow();
+            summaryExecutor = null;
+        }
+        logSummary();
+    }
+
+    /**
+     * Logs one line per mapping code with the counts recorded since the previous summary,
+     * followed by the errors suppressed by {@link ErrorReporter}
+     */
+    public static synchronized void logSummary() {
+        try {
+            for (MappingCodeStats stats : STATS.values()) {
+                long[] current = stats.snapshot();
+                long[] previous = lastReported.put(stats.getMappingCode(), current);
+
+                boolean changed = false;
+                long[] delta = new long[current.length];
+                for (int i = 0; i < current.length; i++) {
+                    delta[i] = current[i] - (previous != null ? previous[i] : 0);
+                    changed |= delta[i] != 0;
+                }
+
+                if (changed) {
+                    long cacheHits = delta[3 + REASONS.length];
+                    long cacheMisses = delta[4 + REASONS.length];
+                    if (cacheHits + cacheMisses > 0) {
+                        log.info("Mapping summary for {}: mapped={}, notMapped={}, failed={}, skipped={}, cacheHits={}, cacheMisses={}",
+                                 stats.getMappingCode(), delta[0], delta[1], delta[2], formatSkipped(delta),
+                                 cacheHits, cacheMisses);
+                    } else {
+                        log.info("Mapping summary for {}: mapped={}, notMapped={}, failed={}, skipped={}",
+                                 stats.getMappingCode(), delta[0], delta[1], delta[2], formatSkipped(delta));
+                    }
+                }
+            }
+            ErrorReporter.logSummary();
+        } catch (Exception e) {
+            log.error("Error logging mapping summary: {}", e.getMessage(), e);
+        }
+    }
+
+    private static String formatSkipped(long[] delta) {
+        StringBuilder sb = new StringBuilder("{");
+        for (int i = 0; i < REASONS.length; i++) {
+            if (delta[3 + i] != 0) {
+                if (sb.length() > 1) {
+                    sb.append(", ");
+                }
+                sb.append(REASONS[i]).append('=').append(delta[3 + i]);
+            }
+        }
+        return sb.append('}').toString();
+    }
+}
@@ -0,0 +1,123 @@
+package com.medblocks.plugins.diagnostics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import org.hl7.fhir.r4.model.Base;
+
+/**
+ * Java Flight Recorder event for one FHIR to OpenEHR mapping call, including the calls of a batch.
+ * The event duration is the time spent in the mapping function; the conversions made within it
+ * are recorded as nested {@link ConversionEvent}s on the same thread.
+ *
+ * Events are only created while a recording has the event enabled, so the cost without a
+ * recording is one flag check per call. Enable the events with
+ * {@code -XX:StartFlightRecording} or in JDK Mission Control; they are listed under
+ * "openFHIR / Custom Mapping".
+ */
+@Name(MappingEvent.NAME)
+@Label("Mapping")
+@Description("A FHIR to OpenEHR mapping call of the custom mapping plugin")
+@Category({"openFHIR", "Custom Mapping"})
+@StackTrace(false)
+public final class MappingEvent extends Event {
+
+    public static final String NAME = "com.medblocks.plugins.Mapping";
+
+    /**
+     * Outcome of a call that wrote at least one value
+     */
+    public static final String MAPPED = "MAPPED";
+
+    /**
+     * Outcome of a call that completed without writing a value
+     */
+    public static final String NOT_MAPPED = "NOT_MAPPED";
+
+    /**
+     * Outcome of a call that ended with an exception
+     */
+    public static final String FAILED = "FAILED";
+
+    /**
+     * Outcome of a call with an unregistered mapping code
+     */
+    public static final String UNKNOWN_CODE = "UNKNOWN_CODE";
+
+    private static final EventType TYPE = EventType.getEventType(MappingEvent.class);
+
+    @Label("Mapping Code")
+    String mappingCode;
+
+    @Label("OpenEHR Path")
+    String openEhrPath;
+
+    @Label("FHIR Type")
+    @Description("The FHIR type of the mapped value, e.g. Timing")
+    String fhirType;
+
+    @Label("OpenEHR Type")
+    String openEhrType;
+
+    @Label("Outcome")
+    @Description("MAPPED, NOT_MAPPED, FAILED or UNKNOWN_CODE")
+    String outcome;
+
+    /**
+     * @return true if a running recording has the event enabled
+     */
+    public static boolean isRecording() {
+        return TYPE.isEnabled();
+    }
+
+    /**
+     * Starts timing a mapping call
+     *
+     * @return The started event, or null if no recording has the event enabled
+     */
+    public static MappingEvent start() {
+        if (!TYPE.isEnabled()) {
+            return null;
+        }
+        MappingEvent event = new MappingEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Ends the event of a mapping call and commits it if it passes the recording settings
+     *
+     * @param event The event returned by {@link #start()}, may be null
+     * @param mappingCode The mapping code
+     * @param openEhrPath The OpenEHR path
+     * @param fhirValue The mapped FHIR value
+     * @param openEhrType The OpenEHR type
+     * @param outcome One of the outcome constants
+     */
+    public static void end(MappingEvent event, String mappingCode, String openEhrPath, Object fhirValue,
+                           String openEhrType, String outcome) {
+        if (event == null) {
+            return;
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.mappingCode = mappingCode;
+            event.openEhrPath = openEhrPath;
+            event.fhirType = typeOf(fhirValue);
+            event.openEhrType = openEhrType;
+            event.outcome = outcome;
+            event.commit();
+        }
+    }
+
+    private static String typeOf(Object fhirValue) {
+        if (fhirValue instanceof Base) {
+            return ((Base) fhirValue).fhirType();
+        }
+        return fhirValue != null ? fhirValue.getClass().getName() : null;
+    }
+}
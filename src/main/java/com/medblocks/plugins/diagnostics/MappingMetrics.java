@@ -0,0 +1,95 @@
+package com.medblocks.plugins.diagnostics;
+
+import com.medblocks.plugins.PluginSettings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Publishes the {@link MappingCodeStats} of every mapping code as an MXBean on the platform
+ * MBean server, named {@code com.medblocks.plugins:type=MappingMetrics,mappingCode="<code>"}.
+ * Each bean has flat numeric attributes (outcome counts and latency percentiles), so they can
+ * be scraped by a JMX exporter without further configuration.
+ *
+ * Beans are registered while the plugin is running, including those of mapping codes seen for
+ * the first time after the start. Registration can be disabled with the setting
+ * {@code metrics.jmxEnabled}.
+ */
+public final class MappingMetrics {
+
+    private static final Logger log = LoggerFactory.getLogger(MappingMetrics.class);
+
+    public static final String DOMAIN = "com.medblocks.plugins";
+
+    // Set while the beans are registered, guarded by the class lock
+    private static MBeanServer server;
+
+    private MappingMetrics() {
+    }
+
+    /**
+     * Registers the beans of all mapping codes, if enabled
+     */
+    public static synchronized void start() {
+        if (server != null || !PluginSettings.getBoolean("metrics.jmxEnabled", true)) {
+            return;
+        }
+        server = ManagementFactory.getPlatformMBeanServer();
+        for (MappingCodeStats stats : MappingDiagnostics.getStats()) {
+            register(stats);
+        }
+    }
+
+    /**
+     * Unregisters all beans
+     */
+    public static synchronized void stop() {
+        if (server == null) {
+            return;
+        }
+        for (MappingCodeStats stats : MappingDiagnostics.getStats()) {
+            try {
+                server.unregisterMBean(objectName(stats.getMappingCode()));
+            } catch (InstanceNotFoundException e) {
+                // Never registered
+            } catch (JMException e) {
+                log.warn("Could not unregister metrics of mapping code {}: {}", stats.getMappingCode(), e.getMessage());
+            }
+        }
+        server = null;
+    }
+
+    /**
+     * Get the name of the bean of a mapping code
+     *
+     * @param mappingCode The mapping code
+     * @return The object name
+     * @throws MalformedObjectNameException If the name cannot be built
+     */
+    public static ObjectName objectName(String mappingCode) throws MalformedObjectNameException {
+        return new ObjectName(DOMAIN + ":type=MappingMetrics,mappingCode=" + ObjectName.quote(mappingCode));
+    }
+
+    /**
+     * Registers the bean of a mapping code while the metrics are started
+     */
+    static synchronized void register(MappingCodeStats stats) {
+        if (server == null) {
+            return;
+        }
+        try {
+            server.registerMBean(stats, objectName(stats.getMappingCode()));
+        } catch (InstanceAlreadyExistsException e) {
+            // Registered by an earlier start that was not stopped, e.g. another plugin instance
+        } catch (JMException e) {
+            log.warn("Could not register metrics of mapping code {}: {}", stats.getMappingCode(), e.getMessage());
+        }
+    }
+}
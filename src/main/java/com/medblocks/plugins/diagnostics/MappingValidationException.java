@@ -0,0 +1,37 @@
+package com.medblocks.plugins.diagnostics;
+
+/**
+ * Signals an expected validation failure, such as an unsupported flat composition type.
+ * Validation failures are caused by the input rather than by a bug, so the exception does not
+ * capture a stack trace and cannot be suppressed; creating and throwing it is cheap even when
+ * a whole batch of malformed values fails.
+ *
+ * Extends {@link IllegalArgumentException}, which was thrown for these cases before.
+ */
+public class MappingValidationException extends IllegalArgumentException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final SkipReason reason;
+
+    /**
+     * @param reason Why the value cannot be mapped
+     * @param message The detail message
+     */
+    public MappingValidationException(SkipReason reason, String message) {
+        super(message);
+        this.reason = reason;
+    }
+
+    public SkipReason getReason() {
+        return reason;
+    }
+
+    /**
+     * Skips capturing the stack trace, which dominates the cost of an exception
+     */
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+}
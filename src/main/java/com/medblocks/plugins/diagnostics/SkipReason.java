@@ -0,0 +1,19 @@
+package com.medblocks.plugins.diagnostics;
+
+/**
+ * Reasons why a FHIR value, or part of it, was not mapped
+ */
+public enum SkipReason {
+    /** The mapping code is not registered */
+    UNKNOWN_MAPPING_CODE,
+    /** The FHIR value is null or not of the type the mapping expects */
+    UNEXPECTED_TYPE,
+    /** A value required by the mapping is absent */
+    MISSING_VALUE,
+    /** The unit is absent or not supported by the target */
+    UNSUPPORTED_UNIT,
+    /** A time of day does not conform to DV_TIME */
+    INVALID_TIME,
+    /** The FHIR value could not be converted to the target format */
+    CONVERSION_FAILED
+}
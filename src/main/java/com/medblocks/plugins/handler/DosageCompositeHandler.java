@@ -0,0 +1,196 @@
+package com.medblocks.plugins.handler;
+
+import org.hl7.fhir.r4.model.Base;
+import org.hl7.fhir.r4.model.Dosage;
+import org.hl7.fhir.r4.model.Ratio;
+import org.hl7.fhir.r4.model.Resource;
+import org.hl7.fhir.r4.model.Timing;
+import org.hl7.fhir.r4.model.Type;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.medblocks.plugins.composition.FlatCompositionIndex;
+import com.medblocks.plugins.diagnostics.MappingCodeStats;
+import com.medblocks.plugins.diagnostics.MappingDiagnostics;
+import com.medblocks.plugins.diagnostics.SkipReason;
+import com.medblocks.plugins.path.PathKeyCache;
+import com.medblocks.plugins.path.PathKeyCache.PathKeys;
+import com.medblocks.plugins.path.PathSuffix;
+
+import static com.medblocks.plugins.diagnostics.MappingDiagnostics.isSampled;
+
+/**
+ * Maps a whole FHIR Dosage in one call, instead of one call per part.
+ * The parts are written under the openEhrPath of the Dosage by the handlers of the single
+ * mapping codes:
+ * - timing to {@link PathSuffix#DOSAGE_TIMING} ({@link TimingToDailyHandler})
+ * - timing.repeat duration to {@link PathSuffix#DOSAGE_DURATION} ({@link DosageDurationHandler})
+ * - doseAndRate dose to {@link PathSuffix#DOSAGE_DOSE} ({@link DosageQuantityToRangeHandler})
+ * - doseAndRate rateRatio to {@link PathSuffix#DOSAGE_RATE} ({@link RatioToDvQuantityHandler})
+ *
+ * The parts are mapped with the OpenEHR type of the Dosage, so they use the path template selected
+ * for the Dosage (see {@link com.medblocks.plugins.path.PathTemplates}).
+ * Only the first doseAndRate is mapped, as the flat paths have no index for further ones.
+ * Values skipped within a part are counted under the mapping code of that part.
+ *
+ * The parts are looked up without {@code Dosage.hasTiming()} and {@code hasDoseAndRate()}, which
+ * walk the whole HAPI tree through {@code isEmpty()}; each part handler checks what it reads.
+ */
+public class DosageCompositeHandler implements MappingHandler {
+
+    public static final String MAPPING_CODE = "dosageComposite";
+
+    private static final Logger log = LoggerFactory.getLogger(DosageCompositeHandler.class);
+
+    private static final MappingCodeStats stats = MappingDiagnostics.forCode(MAPPING_CODE);
+
+    // Property hashes for Base.getProperty, which reads a child without creating it
+    private static final int TIMING = "timing".hashCode();
+    private static final int REPEAT = "repeat".hashCode();
+    private static final int DOSE_AND_RATE = "doseAndRate".hashCode();
+
+    private final TimingToDailyHandler timingHandler = new TimingToDailyHandler();
+    private final DosageDurationHandler durationHandler = new DosageDurationHandler();
+    private final DosageQuantityToRangeHandler doseHandler = new DosageQuantityToRangeHandler();
+    private final RatioToDvQuantityHandler rateHandler = new RatioToDvQuantityHandler();
+
+    @Override
+    public String getMappingCode() {
+        return MAPPING_CODE;
+    }
+
+    @Override
+    public boolean apply(String openEhrPath, Object fhirValue, String openEhrType, Object flatComposition) {
+        if (isSampled()) {
+            log.info("Converting FHIR Dosage to OpenEHR dosage");
+        }
+
+        if (!(fhirValue instanceof Dosage)) {
+            stats.skipped(SkipReason.UNEXPECTED_TYPE);
+            if (isSampled()) {
+                log.warn("Expected Dosage type but got: {}", fhirValue != null ? fhirValue.getClass().getName() : "null");
+            }
+            return false;
+        }
+
+        Dosage dosage = (Dosage) fhirValue;
+        PathKeys keys = PathKeyCache.keysFor(openEhrPath, openEhrType);
+        boolean success = false;
+
+        Timing timing = (Timing) first(dosage.getProperty(TIMING, "timing", false));
+        if (timing != null) {
+            success |= timingHandler.apply(keys.get(PathSuffix.DOSAGE_TIMING), timing, openEhrType, flatComposition);
+
+            Timing.TimingRepeatComponent repeat = (Timing.TimingRepeatComponent) first(
+                timing.getProperty(REPEAT, "repeat", false));
+            if (repeat != null && repeat.hasDuration()) {
+                success |= durationHandler.apply(keys.get(PathSuffix.DOSAGE_DURATION), repeat,
+                                                 openEhrType, flatComposition);
+            }
+        }
+
+        Dosage.DosageDoseAndRateComponent doseAndRate = (Dosage.DosageDoseAndRateComponent) first(
+            dosage.getProperty(DOSE_AND_RATE, "doseAndRate", false));
+        if (doseAndRate != null) {
+            if (doseAndRate.getDose() != null) {
+                success |= doseHandler.apply(keys.get(PathSuffix.DOSAGE_DOSE), doseAndRate.getDose(),
+                                             openEhrType, flatComposition);
+            }
+
+            if (doseAndRate.hasRateRatio()) {
+                success |= rateHandler.apply(keys.get(PathSuffix.DOSAGE_RATE), doseAndRate,
+                                             openEhrType, flatComposition);
+            } else if (doseAndRate.getRate() != null) {
+                stats.skipped(SkipReason.UNEXPECTED_TYPE);
+                if (isSampled()) {
+                    log.warn("Only rateRatio is supported for the administration rate, got: {}",
+                             doseAndRate.getRate().fhirType());
+                }
+            }
+        }
+
+        if (isSampled()) {
+            log.info("Mapped Dosage under {}: {}", openEhrPath, success);
+        }
+        return success;
+    }
+
+    private static Base first(Base[] property) {
+        return property.length > 0 ? property[0] : null;
+    }
+
+    /**
+     * Rebuilds a Dosage from the parts written under the openEhrPath
+     */
+    @Override
+    public Object applyReverse(String openEhrPath, FlatCompositionIndex index, String fhirPath,
+                               Resource targetResource) {
+        PathKeys keys = PathKeyCache.keysFor(openEhrPath);
+        if (!index.hasKeysUnder(keys.getPath())) {
+            stats.skipped(SkipReason.MISSING_VALUE);
+            return null;
+        }
+
+        Dosage dosage = new Dosage();
+        boolean found = false;
+
+        // Timing, with the administration duration merged into its repeat
+        Timing timing = null;
+        String timingPath = keys.get(PathSuffix.DOSAGE_TIMING);
+        if (index.hasKeysUnder(timingPath)) {
+            timing = (Timing) timingHandler.applyReverse(timingPath, index, fhirPath, targetResource);
+        }
+        String durationPath = keys.get(PathSuffix.DOSAGE_DURATION);
+        if (index.hasKeysUnder(durationPath)) {
+            Timing.TimingRepeatComponent duration = (Timing.TimingRepeatComponent) durationHandler.applyReverse(
+                durationPath, index, fhirPath, targetResource);
+            if (duration != null) {
+                if (timing == null) {
+                    timing = new Timing();
+                }
+                Timing.TimingRepeatComponent repeat = timing.getRepeat();
+                repeat.setDurationElement(duration.getDurationElement());
+                repeat.setDurationMaxElement(duration.getDurationMaxElement());
+                repeat.setDurationUnitElement(duration.getDurationUnitElement());
+            }
+        }
+        if (timing != null) {
+            dosage.setTiming(timing);
+            found = true;
+        }
+
+        // First doseAndRate, rebuilt from the rate and the dose
+        Dosage.DosageDoseAndRateComponent doseAndRate = null;
+        String ratePath = keys.get(PathSuffix.DOSAGE_RATE);
+        if (index.hasKeysUnder(ratePath)) {
+            // A formatted rate written directly on the path comes back as a plain Ratio
+            Object rate = rateHandler.applyReverse(ratePath, index, fhirPath, targetResource);
+            if (rate instanceof Dosage.DosageDoseAndRateComponent) {
+                doseAndRate = (Dosage.DosageDoseAndRateComponent) rate;
+            } else if (rate instanceof Ratio) {
+                doseAndRate = new Dosage.DosageDoseAndRateComponent();
+                doseAndRate.setRate((Ratio) rate);
+            }
+        }
+        String dosePath = keys.get(PathSuffix.DOSAGE_DOSE);
+        if (index.hasKeysUnder(dosePath)) {
+            Type dose = (Type) doseHandler.applyReverse(dosePath, index, fhirPath, targetResource);
+            if (dose != null) {
+                if (doseAndRate == null) {
+                    doseAndRate = new Dosage.DosageDoseAndRateComponent();
+                }
+                doseAndRate.setDose(dose);
+            }
+        }
+        if (doseAndRate != null) {
+            dosage.addDoseAndRate(doseAndRate);
+            found = true;
+        }
+
+        if (!found) {
+            stats.skipped(SkipReason.MISSING_VALUE);
+            return null;
+        }
+        return dosage;
+    }
+}
@@ -0,0 +1,173 @@
+package com.medblocks.plugins.handler;
+
+import org.hl7.fhir.r4.model.Resource;
+import org.hl7.fhir.r4.model.Timing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.medblocks.plugins.composition.FlatCompositionIndex;
+import com.medblocks.plugins.diagnostics.MappingCodeStats;
+import com.medblocks.plugins.diagnostics.MappingDiagnostics;
+import com.medblocks.plugins.diagnostics.SkipReason;
+import com.medblocks.plugins.path.PathKeyCache;
+import com.medblocks.plugins.path.PathKeyCache.PathKeys;
+import com.medblocks.plugins.path.PathSuffix;
+
+import com.medblocks.plugins.unit.TimeUnitConverterFactory;
+
+import static com.medblocks.plugins.MappingUtils.*;
+import static com.medblocks.plugins.diagnostics.MappingDiagnostics.isSampled;
+
+/**
+ * Converts FHIR dosage duration to OpenEHR administration duration
+ */
+public class DosageDurationHandler implements MappingHandler {
+
+    public static final String MAPPING_CODE = "dosageDurationToAdministrationDuration";
+
+    private static final Logger log = LoggerFactory.getLogger(DosageDurationHandler.class);
+
+    private static final MappingCodeStats stats = MappingDiagnostics.forCode(MAPPING_CODE);
+
+    @Override
+    public String getMappingCode() {
+        return MAPPING_CODE;
+    }
+
+    @Override
+    public boolean apply(String openEhrPath, Object fhirValue, String openEhrType, Object flatComposition) {
+        if (isSampled()) {
+            log.info("Converting timing repeat to administration duration");
+        }
+        
+        if (!(fhirValue instanceof Timing.TimingRepeatComponent)) {
+            stats.skipped(SkipReason.UNEXPECTED_TYPE);
+            if (isSampled()) {
+                log.warn("Expected TimingRepeatComponent but got: {}", 
+                       fhirValue != null ? fhirValue.getClass().getName() : "null");
+            }
+            return false;
+        }
+        
+        Timing.TimingRepeatComponent repeat = (Timing.TimingRepeatComponent) fhirValue;
+        PathKeys keys = PathKeyCache.keysFor(openEhrPath, openEhrType);
+        
+        // Check if duration exists
+        if (!repeat.hasDuration()) {
+            stats.skipped(SkipReason.MISSING_VALUE);
+            if (isSampled()) {
+                log.info("No duration found in timing repeat");
+            }
+            return false;
+        }
+        
+        double duration = repeat.getDuration().doubleValue();
+        
+        // Check if durationUnit exists
+        if (!repeat.hasDurationUnit()) {
+            stats.skipped(SkipReason.UNSUPPORTED_UNIT);
+            if (isSampled()) {
+                log.warn("No duration unit found in timing repeat");
+            }
+            return false;
+        }
+        
+        Timing.UnitsOfTime durationUnit = repeat.getDurationUnit();
+        
+        // Validate duration unit using our new converter
+        if (!TimeUnitConverterFactory.getDurationConverter().isValidUnit(durationUnit)) {
+            stats.skipped(SkipReason.UNSUPPORTED_UNIT);
+            if (isSampled()) {
+                log.warn("Invalid duration unit: {}", durationUnit);
+            }
+            return false;
+        }
+        
+        // Check if we have both duration and durationMax (range case)
+        if (repeat.hasDurationMax()) {
+            double durationMax = repeat.getDurationMax().doubleValue();
+            
+            // Convert duration to ISO 8601 format using our new converter
+            String lowerDuration = TimeUnitConverterFactory.getDurationConverter()
+                .formatDuration(duration, durationUnit);
+            String upperDuration = TimeUnitConverterFactory.getDurationConverter()
+                .formatDuration(durationMax, durationUnit);
+            
+            if (lowerDuration == null || upperDuration == null) {
+                stats.skipped(SkipReason.CONVERSION_FAILED);
+                if (isSampled()) {
+                    log.warn("Could not convert duration to ISO 8601 format");
+                }
+                return false;
+            }
+            
+            // Set lower and upper values
+            setValueInJson(flatComposition, keys.get(PathSuffix.DURATION_LOWER), lowerDuration);
+            setValueInJson(flatComposition, keys.get(PathSuffix.DURATION_UPPER), upperDuration);
+            
+            if (isSampled()) {
+                log.info("Mapped administration duration range: {} to {}", lowerDuration, upperDuration);
+            }
+        } else {
+            // Convert single duration to ISO 8601 format using our new converter
+            String durationStr = TimeUnitConverterFactory.getDurationConverter()
+                .formatDuration(duration, durationUnit);
+            
+            if (durationStr == null) {
+                stats.skipped(SkipReason.CONVERSION_FAILED);
+                if (isSampled()) {
+                    log.warn("Could not convert duration to ISO 8601 format");
+                }
+                return false;
+            }
+            
+            // Set single duration value
+            setValueInJson(flatComposition, keys.get(PathSuffix.DURATION), durationStr);
+            
+            if (isSampled()) {
+                log.info("Mapped administration duration: {}", durationStr);
+            }
+        }
+        
+        return true;
+    }
+
+    /**
+     * Rebuilds the duration of Timing.repeat from the administration duration
+     */
+    @Override
+    public Object applyReverse(String openEhrPath, FlatCompositionIndex index, String fhirPath, 
+                               Resource targetResource) {
+        PathKeys keys = PathKeyCache.keysFor(openEhrPath);
+        if (!index.hasKeysUnder(keys.getPath())) {
+            stats.skipped(SkipReason.MISSING_VALUE);
+            return null;
+        }
+        
+        String duration = index.getString(keys.get(PathSuffix.DURATION));
+        String durationMax = null;
+        if (duration == null) {
+            duration = index.getString(keys.get(PathSuffix.DURATION_LOWER));
+            durationMax = index.getString(keys.get(PathSuffix.DURATION_UPPER));
+        }
+        if (duration == null) {
+            stats.skipped(SkipReason.MISSING_VALUE);
+            return null;
+        }
+        
+        Timing.UnitsOfTime durationUnit = TimeUnitConverterFactory.getDurationConverter().toTimeUnit(duration);
+        if (durationUnit == null) {
+            stats.skipped(SkipReason.UNSUPPORTED_UNIT);
+            return null;
+        }
+        
+        Timing.TimingRepeatComponent repeat = new Timing.TimingRepeatComponent();
+        repeat.setDuration(durationToValue(duration, durationUnit));
+        repeat.setDurationUnit(durationUnit);
+        if (durationMax != null && TimeUnitConverterFactory.getDurationConverter().toTimeUnit(durationMax) != null) {
+            // The upper bound may be written in another unit, e.g. "PT45M" to "PT1H30M"
+            repeat.setDurationMax(durationToValue(durationMax, durationUnit));
+        }
+        return repeat;
+    }
+}
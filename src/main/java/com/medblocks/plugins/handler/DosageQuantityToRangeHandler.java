@@ -0,0 +1,168 @@
+package com.medblocks.plugins.handler;
+
+import org.hl7.fhir.r4.model.Quantity;
+import org.hl7.fhir.r4.model.Range;
+import org.hl7.fhir.r4.model.Resource;
+import org.hl7.fhir.r4.model.SimpleQuantity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.medblocks.plugins.composition.FlatCompositionIndex;
+import com.medblocks.plugins.diagnostics.MappingCodeStats;
+import com.medblocks.plugins.diagnostics.MappingDiagnostics;
+import com.medblocks.plugins.diagnostics.SkipReason;
+import com.medblocks.plugins.path.PathKeyCache;
+import com.medblocks.plugins.path.PathKeyCache.PathKeys;
+import com.medblocks.plugins.path.PathSuffix;
+
+import static com.medblocks.plugins.MappingUtils.*;
+import static com.medblocks.plugins.diagnostics.MappingDiagnostics.isSampled;
+
+/**
+ * Converts FHIR Dosage dose (Quantity or Range) to OpenEHR Range
+ * This specifically handles the dose component from Dosage.DosageAndRate.dose,
+ * which can be either a Range or Quantity.
+ */
+public class DosageQuantityToRangeHandler implements MappingHandler {
+
+    public static final String MAPPING_CODE = "dosageQuantityToRange";
+
+    private static final Logger log = LoggerFactory.getLogger(DosageQuantityToRangeHandler.class);
+
+    private static final MappingCodeStats stats = MappingDiagnostics.forCode(MAPPING_CODE);
+
+    @Override
+    public String getMappingCode() {
+        return MAPPING_CODE;
+    }
+
+    @Override
+    public boolean apply(String openEhrPath, Object fhirValue, String openEhrType, Object flatComposition) {
+        if (isSampled()) {
+            log.info("Converting FHIR Dosage dose to OpenEHR Range/Quantity");
+        }
+        
+        PathKeys keys = PathKeyCache.keysFor(openEhrPath, openEhrType);
+        
+        // The fhirValue should directly be the dose, which is either a Range or Quantity
+        // Check if the dose is a Range
+        if (fhirValue instanceof Range) {
+            Range doseRange = (Range) fhirValue;
+            
+            // Check if we have a valid low value
+            if (doseRange.hasLow() && doseRange.getLow().hasValue()) {
+                setValueInJson(flatComposition, keys.get(PathSuffix.QUANTITY_LOWER_MAGNITUDE), 
+                             doseRange.getLow().getValue().doubleValue());
+                
+                // Set the unit if present
+                if (doseRange.getLow().hasUnit()) {
+                    setValueInJson(flatComposition, keys.get(PathSuffix.QUANTITY_LOWER_UNIT), 
+                                 doseRange.getLow().getUnit());
+                }
+            } else {
+                stats.skipped(SkipReason.MISSING_VALUE);
+                if (isSampled()) {
+                    log.warn("DoseRange is missing required low value");
+                }
+                return false;
+            }
+            
+            // Check if we have a valid high value
+            if (doseRange.hasHigh() && doseRange.getHigh().hasValue()) {
+                setValueInJson(flatComposition, keys.get(PathSuffix.QUANTITY_UPPER_MAGNITUDE), 
+                             doseRange.getHigh().getValue().doubleValue());
+                
+                // Set the unit if present
+                if (doseRange.getHigh().hasUnit()) {
+                    setValueInJson(flatComposition, keys.get(PathSuffix.QUANTITY_UPPER_UNIT), 
+                                 doseRange.getHigh().getUnit());
+                }
+            } else {
+                stats.skipped(SkipReason.MISSING_VALUE);
+                if (isSampled()) {
+                    log.warn("DoseRange is missing required high value");
+                }
+                return false;
+            }
+            
+            if (isSampled()) {
+                log.info("Mapped DoseRange to OpenEHR Range");
+            }
+            return true;
+        }
+        // Check if the dose is a Quantity
+        else if (fhirValue instanceof Quantity) {
+            Quantity doseQuantity = (Quantity) fhirValue;
+            
+            // Check if we have a valid value
+            if (doseQuantity.hasValue()) {
+                setValueInJson(flatComposition, keys.get(PathSuffix.QUANTITY_MAGNITUDE), 
+                             doseQuantity.getValue().doubleValue());
+                
+                // Set the unit if present
+                if (doseQuantity.hasUnit()) {
+                    setValueInJson(flatComposition, keys.get(PathSuffix.QUANTITY_UNIT), 
+                                 doseQuantity.getUnit());
+                }
+                
+                if (isSampled()) {
+                    log.info("Mapped DoseQuantity to OpenEHR Quantity");
+                }
+                return true;
+            } else {
+                stats.skipped(SkipReason.MISSING_VALUE);
+                if (isSampled()) {
+                    log.warn("DoseQuantity is missing required value");
+                }
+                return false;
+            }
+        } else {
+            stats.skipped(SkipReason.UNEXPECTED_TYPE);
+            if (isSampled()) {
+                log.warn("Expected Range or Quantity type for dose but got: {}", 
+                       fhirValue != null ? fhirValue.getClass().getName() : "null");
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Rebuilds the dose as a Range when lower/upper values exist, otherwise as a Quantity
+     */
+    @Override
+    public Object applyReverse(String openEhrPath, FlatCompositionIndex index, String fhirPath, 
+                               Resource targetResource) {
+        PathKeys keys = PathKeyCache.keysFor(openEhrPath);
+        if (!index.hasKeysUnder(keys.getPath())) {
+            stats.skipped(SkipReason.MISSING_VALUE);
+            return null;
+        }
+        
+        Double lower = index.getDouble(keys.get(PathSuffix.QUANTITY_LOWER_MAGNITUDE));
+        Double upper = index.getDouble(keys.get(PathSuffix.QUANTITY_UPPER_MAGNITUDE));
+        if (lower != null && upper != null) {
+            Range doseRange = new Range();
+            doseRange.setLow(toQuantity(new SimpleQuantity(), lower, 
+                                        index.getString(keys.get(PathSuffix.QUANTITY_LOWER_UNIT))));
+            doseRange.setHigh(toQuantity(new SimpleQuantity(), upper, 
+                                         index.getString(keys.get(PathSuffix.QUANTITY_UPPER_UNIT))));
+            return doseRange;
+        }
+        
+        Double magnitude = index.getDouble(keys.get(PathSuffix.QUANTITY_MAGNITUDE));
+        if (magnitude != null) {
+            return toQuantity(new Quantity(), magnitude, index.getString(keys.get(PathSuffix.QUANTITY_UNIT)));
+        }
+        
+        stats.skipped(SkipReason.MISSING_VALUE);
+        return null;
+    }
+    
+    private static <T extends Quantity> T toQuantity(T quantity, double value, String unit) {
+        quantity.setValue(value);
+        if (unit != null) {
+            quantity.setUnit(unit);
+        }
+        return quantity;
+    }
+}
@@ -0,0 +1,51 @@
+package com.medblocks.plugins.handler;
+
+import com.medblocks.plugins.composition.FlatCompositionIndex;
+import org.hl7.fhir.r4.model.Resource;
+import org.pf4j.ExtensionPoint;
+
+/**
+ * A single FHIR to OpenEHR mapping function, resolved by its mapping code.
+ * The built-in handlers are registered by the plugin itself; other plugins can contribute
+ * additional handlers by implementing this interface and annotating the class with
+ * {@link org.pf4j.Extension}. Contributed handlers are picked up when the plugin starts.
+ * Implementations are shared between threads and must be stateless.
+ */
+public interface MappingHandler extends ExtensionPoint {
+
+    /**
+     * The mapping code used in the openFHIR mapping definitions
+     *
+     * @return The mapping code handled by this handler
+     */
+    String getMappingCode();
+
+    /**
+     * Maps a FHIR value into the flat composition.
+     * Exceptions are handled by the caller, which treats them as a failed mapping.
+     *
+     * @param openEhrPath The OpenEHR path the value is mapped to
+     * @param fhirValue The FHIR value to map
+     * @param openEhrType The OpenEHR type of the target
+     * @param flatComposition The flat composition to write into
+     * @return true if at least one value was written, false otherwise
+     */
+    boolean apply(String openEhrPath, Object fhirValue, String openEhrType, Object flatComposition);
+
+    /**
+     * Reads the values written by {@link #apply} back from the flat composition and rebuilds
+     * the FHIR value. Handlers that only support the FHIR to OpenEHR direction keep the default,
+     * which returns null. No OpenEHR type is known in this direction, so the keys are found
+     * with the path template of the template id only (see {@link com.medblocks.plugins.path.PathKeyCache#keysFor(String)}).
+     *
+     * @param openEhrPath The OpenEHR path the value was mapped to
+     * @param index The sorted key index of the flat composition
+     * @param fhirPath The FHIR path of the target element
+     * @param targetResource The resource being built
+     * @return The FHIR value, or null if nothing could be read
+     */
+    default Object applyReverse(String openEhrPath, FlatCompositionIndex index, String fhirPath,
+                                Resource targetResource) {
+        return null;
+    }
+}
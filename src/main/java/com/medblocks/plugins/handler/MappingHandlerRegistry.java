@@ -0,0 +1,122 @@
+package com.medblocks.plugins.handler;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable lookup of mapping handlers by mapping code.
+ * The registry is built once when the plugin starts and then shared by all converter
+ * instances and threads. Lookups go through an immutable hash map keyed by the mapping
+ * code; since openFHIR passes the same code instances from its parsed mapping definitions,
+ * the string hash is computed once per instance and cached by the String itself.
+ */
+public final class MappingHandlerRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(MappingHandlerRegistry.class);
+
+    private static final MappingHandlerRegistry BUILT_IN = build(List.of());
+
+    // Registry used by the converters, replaced as a whole on plugin start/stop
+    private static volatile MappingHandlerRegistry current = BUILT_IN;
+
+    private final Map<String, MappingHandler> handlers;
+
+    private MappingHandlerRegistry(Map<String, MappingHandler> handlers) {
+        this.handlers = Map.copyOf(handlers);
+    }
+
+    /**
+     * Creates the handlers shipped with this plugin
+     *
+     * @return The built-in handlers
+     */
+    public static List<MappingHandler> builtInHandlers() {
+        return List.of(
+            new TimingToDailyHandler(),
+            new DosageDurationHandler(),
+            new RatioToDvQuantityHandler(),
+            new DosageQuantityToRangeHandler(),
+            new DosageCompositeHandler()
+        );
+    }
+
+    /**
+     * Builds a registry from the built-in handlers and the handlers contributed by other plugins.
+     * Built-in handlers take precedence; a contributed handler reusing a built-in or already
+     * registered mapping code is ignored with a warning.
+     *
+     * @param contributed Handlers contributed through the {@link MappingHandler} extension point
+     * @return The immutable registry
+     */
+    public static MappingHandlerRegistry build(Collection<? extends MappingHandler> contributed) {
+        Map<String, MappingHandler> handlers = new LinkedHashMap<>();
+        for (MappingHandler handler : builtInHandlers()) {
+            handlers.put(handler.getMappingCode(), handler);
+        }
+
+        for (MappingHandler handler : contributed) {
+            String code = handler.getMappingCode();
+            if (code == null) {
+                log.warn("Ignoring mapping handler {} without mapping code", handler.getClass().getName());
+                continue;
+            }
+            MappingHandler existing = handlers.putIfAbsent(code, handler);
+            if (existing != null) {
+                log.warn("Ignoring mapping handler {} for code {}, already handled by {}",
+                         handler.getClass().getName(), code, existing.getClass().getName());
+            }
+        }
+
+        return new MappingHandlerRegistry(handlers);
+    }
+
+    /**
+     * Get the registry containing only the built-in handlers
+     *
+     * @return The built-in registry
+     */
+    public static MappingHandlerRegistry builtIn() {
+        return BUILT_IN;
+    }
+
+    /**
+     * Get the registry currently used by the converters
+     *
+     * @return The current registry
+     */
+    public static MappingHandlerRegistry current() {
+        return current;
+    }
+
+    /**
+     * Makes the given registry the one used by the converters
+     *
+     * @param registry The registry to install
+     */
+    public static void install(MappingHandlerRegistry registry) {
+        current = registry;
+    }
+
+    /**
+     * Resolves the handler for a mapping code
+     *
+     * @param mappingCode The mapping code
+     * @return The handler, or null if no handler is registered for the code
+     */
+    public MappingHandler get(String mappingCode) {
+        return mappingCode != null ? handlers.get(mappingCode) : null;
+    }
+
+    /**
+     * @return The registered mapping codes
+     */
+    public Set<String> getMappingCodes() {
+        return handlers.keySet();
+    }
+}
@@ -0,0 +1,204 @@
+package com.medblocks.plugins.handler;
+
+import org.hl7.fhir.r4.model.Dosage;
+import org.hl7.fhir.r4.model.Quantity;
+import org.hl7.fhir.r4.model.Ratio;
+import org.hl7.fhir.r4.model.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.medblocks.plugins.composition.FlatCompositionIndex;
+import com.medblocks.plugins.diagnostics.MappingCodeStats;
+import com.medblocks.plugins.diagnostics.MappingDiagnostics;
+import com.medblocks.plugins.diagnostics.SkipReason;
+import com.medblocks.plugins.path.PathKeyCache;
+import com.medblocks.plugins.path.PathKeyCache.PathKeys;
+import com.medblocks.plugins.path.PathSuffix;
+import com.medblocks.plugins.unit.CanonicalUnit;
+import com.medblocks.plugins.unit.RateConversion;
+import com.medblocks.plugins.unit.UnitCanonicalizer;
+
+import static com.medblocks.plugins.MappingUtils.*;
+import static com.medblocks.plugins.diagnostics.MappingDiagnostics.isSampled;
+
+/**
+ * Converts FHIR Ratio to OpenEHR DV_QUANTITY
+ * Also handles Dosage.DosageAndRate.rate.rateRatio for verabreichungsrate
+ */
+public class RatioToDvQuantityHandler implements MappingHandler {
+
+    public static final String MAPPING_CODE = "ratio_to_dv_quantity";
+
+    private static final Logger log = LoggerFactory.getLogger(RatioToDvQuantityHandler.class);
+
+    private static final MappingCodeStats stats = MappingDiagnostics.forCode(MAPPING_CODE);
+
+    @Override
+    public String getMappingCode() {
+        return MAPPING_CODE;
+    }
+
+    @Override
+    public boolean apply(String openEhrPath, Object fhirValue, String openEhrType, Object flatComposition) {
+        if (isSampled()) {
+            log.info("Converting FHIR Ratio to OpenEHR Administration Rate");
+        }
+        
+        Object ratioValue = fhirValue;
+        boolean isRateRatio = false;
+        
+        // Check if the value is Dosage.DosageDoseAndRateComponent
+        if (fhirValue instanceof Dosage.DosageDoseAndRateComponent) {
+            Dosage.DosageDoseAndRateComponent doseAndRate = 
+                (Dosage.DosageDoseAndRateComponent) fhirValue;
+            
+            // Check if it has rateRatio
+            if (doseAndRate.hasRateRatio()) {
+                ratioValue = doseAndRate.getRateRatio();
+                isRateRatio = true;
+                if (isSampled()) {
+                    log.info("Found rateRatio in DosageDoseAndRateComponent");
+                }
+            } else if (isSampled()) {
+                log.info("DosageDoseAndRateComponent doesn't have rateRatio, using value directly");
+            }
+        }
+        
+        // Validate the ratio (either direct ratio or rateRatio); read inline rather than through
+        // validateRatio so that the hot path does not allocate a ValidationResult
+        if (!(ratioValue instanceof Ratio)) {
+            stats.skipped(SkipReason.UNEXPECTED_TYPE);
+            if (isSampled()) {
+                log.warn("Invalid ratio structure for conversion");
+            }
+            return false;
+        }
+        Ratio ratio = (Ratio) ratioValue;
+        Quantity numerator = ratio.getNumerator();
+        Quantity denominator = ratio.getDenominator();
+        if (numerator.getValue() == null || denominator.getValue() == null) {
+            stats.skipped(SkipReason.MISSING_VALUE);
+            if (isSampled()) {
+                log.warn("Invalid ratio structure for conversion");
+            }
+            return false;
+        }
+        double numeratorValue = numerator.getValue().doubleValue();
+        double denominatorValue = denominator.getValue().doubleValue();
+        String numeratorUnit = numerator.getUnit() != null ? numerator.getUnit() : numerator.getCode();
+        String denominatorUnit = denominator.getUnit() != null ? denominator.getUnit() : denominator.getCode();
+        
+        PathKeys keys = PathKeyCache.keysFor(openEhrPath, openEhrType);
+        
+        // For rateRatio handling (verabreichungsrate)
+        if (isRateRatio) {
+            // Calculate magnitude (numerator value / denominator value)
+            double magnitude = numeratorValue / denominatorValue;
+            
+            // Canonicalize numerator.unit / denominator.unit, e.g. "milliliter/hour" -> "ml/h";
+            // the denominator is grouped so that compound units such as "kg.h" divide as a whole
+            CanonicalUnit unit = UnitCanonicalizer.canonicalizeRatio(numeratorUnit, denominatorUnit);
+            
+            // Rescale to the nearest allowed unit (l/h, ml/min, ml/s, ml/h), e.g. 1 l/min -> 1000 ml/min
+            RateConversion conversion = unit.getRateConversion();
+            if (conversion == null) {
+                stats.skipped(SkipReason.UNSUPPORTED_UNIT);
+                if (isSampled()) {
+                    log.warn("Unit '{}' cannot be converted to an allowed unit for verabreichungsrate", unit.getCanonical());
+                }
+                return false;
+            }
+            magnitude *= conversion.getFactor();
+            String normalizedUnit = conversion.getUnit();
+            
+            // A zero denominator or values beyond the double range have no magnitude to write
+            if (denominatorValue == 0 || !Double.isFinite(magnitude)) {
+                stats.skipped(SkipReason.CONVERSION_FAILED);
+                if (isSampled()) {
+                    log.warn("Rate {}/{} has no finite magnitude", numeratorValue, denominatorValue);
+                }
+                return false;
+            }
+            
+            // Set magnitude and unit
+            setValueInJson(flatComposition, keys.get(PathSuffix.QUANTITY_MAGNITUDE), magnitude);
+            setValueInJson(flatComposition, keys.get(PathSuffix.QUANTITY_UNIT), normalizedUnit);
+            
+            if (isSampled()) {
+                log.info("Mapped rateRatio to verabreichungsrate: magnitude={}, unit={}", 
+                         magnitude, normalizedUnit);
+            }
+            return true;
+        }
+        // Standard ratio handling (for other cases)
+        else {
+            // Format as numerator/denominator (e.g., "600 mg/h")
+            String formattedRate = numeratorValue + " " + numeratorUnit + "/" + denominatorUnit;
+            
+            // Set the formatted rate directly on the path
+            setValueInJson(flatComposition, openEhrPath, formattedRate);
+            
+            if (isSampled()) {
+                log.info("Mapped Ratio to Administration Rate: path={}, value={}", 
+                         openEhrPath, formattedRate);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Rebuilds Dosage.doseAndRate.rateRatio from verabreichungsrate, or a Ratio from a
+     * formatted rate such as "600.0 mg/h"
+     */
+    @Override
+    public Object applyReverse(String openEhrPath, FlatCompositionIndex index, String fhirPath, 
+                               Resource targetResource) {
+        PathKeys keys = PathKeyCache.keysFor(openEhrPath);
+        if (!index.hasKeysUnder(keys.getPath())) {
+            stats.skipped(SkipReason.MISSING_VALUE);
+            return null;
+        }
+        
+        // Administration rate written as DV_QUANTITY
+        Double magnitude = index.getDouble(keys.get(PathSuffix.QUANTITY_MAGNITUDE));
+        if (magnitude != null) {
+            Ratio ratio = toRatio(magnitude, index.getString(keys.get(PathSuffix.QUANTITY_UNIT)));
+            if (ratio == null) {
+                return null;
+            }
+            Dosage.DosageDoseAndRateComponent doseAndRate = new Dosage.DosageDoseAndRateComponent();
+            doseAndRate.setRate(ratio);
+            return doseAndRate;
+        }
+        
+        // Formatted rate written directly on the path
+        String formattedRate = index.getString(keys.getPath());
+        int space = formattedRate != null ? formattedRate.indexOf(' ') : -1;
+        if (space <= 0) {
+            stats.skipped(SkipReason.MISSING_VALUE);
+            return null;
+        }
+        Double numeratorValue = parseDecimal(formattedRate.substring(0, space));
+        if (numeratorValue == null) {
+            stats.skipped(SkipReason.CONVERSION_FAILED);
+            return null;
+        }
+        return toRatio(numeratorValue, formattedRate.substring(space + 1));
+    }
+    
+    /**
+     * Creates a Ratio with the magnitude per one unit of the denominator
+     */
+    private Ratio toRatio(double magnitude, String unit) {
+        int slash = unit != null ? unit.indexOf('/') : -1;
+        if (slash <= 0) {
+            stats.skipped(SkipReason.UNSUPPORTED_UNIT);
+            return null;
+        }
+        
+        Ratio ratio = new Ratio();
+        ratio.setNumerator(new Quantity().setValue(magnitude).setUnit(unit.substring(0, slash)));
+        ratio.setDenominator(new Quantity().setValue(1).setUnit(unit.substring(slash + 1)));
+        return ratio;
+    }
+}
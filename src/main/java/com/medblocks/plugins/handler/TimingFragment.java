@@ -0,0 +1,106 @@
+package com.medblocks.plugins.handler;
+
+import com.medblocks.plugins.diagnostics.MappingCodeStats;
+import com.medblocks.plugins.diagnostics.SkipReason;
+import com.medblocks.plugins.path.PathKeyCache.PathKeys;
+import com.medblocks.plugins.path.PathSuffix;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.medblocks.plugins.MappingUtils.setValueInJson;
+
+/**
+ * The flat values rendered from one {@link TimingShape}, as (suffix, value) pairs relative to
+ * the openEhrPath, together with the parts that were skipped.
+ * Fragments are immutable and independent of the openEhrPath, so one fragment is written under
+ * every path that maps a Timing of the same shape.
+ */
+public final class TimingFragment {
+
+    private static final SkipReason[] NO_SKIPS = new SkipReason[0];
+
+    private final PathSuffix[] suffixes;
+    // String or Integer, in the order the values were rendered
+    private final Object[] values;
+    private final SkipReason[] skipped;
+
+    private TimingFragment(List<PathSuffix> suffixes, List<Object> values, List<SkipReason> skipped) {
+        this.suffixes = suffixes.toArray(new PathSuffix[0]);
+        this.values = values.toArray();
+        this.skipped = skipped.isEmpty() ? NO_SKIPS : skipped.toArray(NO_SKIPS);
+    }
+
+    /**
+     * Writes the values under an openEhrPath and records the skipped parts
+     *
+     * @param flatComposition The flat composition to write to
+     * @param keys The keys of the openEhrPath
+     * @param stats The counters to record the skipped parts in
+     * @return true if at least one value was written
+     */
+    public boolean writeTo(Object flatComposition, PathKeys keys, MappingCodeStats stats) {
+        for (int i = 0; i < suffixes.length; i++) {
+            Object value = values[i];
+            if (value instanceof Integer) {
+                setValueInJson(flatComposition, keys.get(suffixes[i]), (int) (Integer) value);
+            } else {
+                setValueInJson(flatComposition, keys.get(suffixes[i]), value);
+            }
+        }
+        for (SkipReason reason : skipped) {
+            stats.skipped(reason);
+        }
+        return suffixes.length > 0;
+    }
+
+    /**
+     * @return The number of values in the fragment
+     */
+    public int size() {
+        return suffixes.length;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        for (int i = 0; i < suffixes.length; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(suffixes[i].getSuffix()).append('=').append(values[i]);
+        }
+        return sb.append('}').toString();
+    }
+
+    /**
+     * Collects the values of a fragment while a shape is rendered
+     */
+    static final class Builder {
+
+        private final List<PathSuffix> suffixes = new ArrayList<>();
+        private final List<Object> values = new ArrayList<>();
+        private final List<SkipReason> skipped = new ArrayList<>(2);
+
+        Builder put(PathSuffix suffix, String value) {
+            suffixes.add(suffix);
+            values.add(value);
+            return this;
+        }
+
+        Builder put(PathSuffix suffix, int value) {
+            suffixes.add(suffix);
+            values.add(value);
+            return this;
+        }
+
+        Builder skip(SkipReason reason) {
+            skipped.add(reason);
+            return this;
+        }
+
+        TimingFragment build() {
+            return new TimingFragment(suffixes, values, skipped);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package com.medblocks.plugins.handler;
+
+import org.hl7.fhir.r4.model.Timing;
+
+/**
+ * Structural key of a Timing.repeat, made of exactly the fields read by {@link TimingToDailyHandler}:
+ * the first timeOfDay, frequency, frequencyMax, period, periodMax, periodUnit and count.
+ * Two repeats with the same shape map to the same flat values, so the rendered
+ * {@link TimingFragment} can be cached under the shape.
+ *
+ * Shapes are mutable so that a lookup can reuse one probe per thread; a shape used as a cache
+ * key must be a {@link #copy()} that is never changed afterwards.
+ */
+public final class TimingShape {
+
+    private static final int FREQUENCY = 1;
+    private static final int FREQUENCY_MAX = 1 << 1;
+    private static final int PERIOD = 1 << 2;
+    private static final int PERIOD_MAX = 1 << 3;
+    private static final int COUNT = 1 << 4;
+
+    private String timeOfDay;
+    private int present;
+    private int frequency;
+    private int frequencyMax;
+    private double period;
+    private double periodMax;
+    private Timing.UnitsOfTime periodUnit;
+    private int count;
+    private int hash;
+
+    /**
+     * Reads the shape of a repeat, replacing the current values
+     *
+     * @param repeat The repeat component
+     * @return This shape
+     */
+    public TimingShape set(Timing.TimingRepeatComponent repeat) {
+        timeOfDay = repeat.hasTimeOfDay() ? repeat.getTimeOfDay().get(0).getValue() : null;
+        present = 0;
+        frequency = 0;
+        frequencyMax = 0;
+        period = 0;
+        periodMax = 0;
+        count = 0;
+        if (repeat.hasFrequency()) {
+            present |= FREQUENCY;
+            frequency = repeat.getFrequency();
+        }
+        if (repeat.hasFrequencyMax()) {
+            present |= FREQUENCY_MAX;
+            frequencyMax = repeat.getFrequencyMax();
+        }
+        if (repeat.hasPeriod()) {
+            present |= PERIOD;
+            period = repeat.getPeriod().doubleValue();
+        }
+        if (repeat.hasPeriodMax()) {
+            present |= PERIOD_MAX;
+            periodMax = repeat.getPeriodMax().doubleValue();
+        }
+        periodUnit = repeat.hasPeriodUnit() ? repeat.getPeriodUnit() : null;
+        if (repeat.hasCount()) {
+            present |= COUNT;
+            count = repeat.getCount();
+        }
+        hash = computeHash();
+        return this;
+    }
+
+    /**
+     * @return An independent copy of this shape, suitable as a cache key
+     */
+    public TimingShape copy() {
+        TimingShape copy = new TimingShape();
+        copy.timeOfDay = timeOfDay;
+        copy.present = present;
+        copy.frequency = frequency;
+        copy.frequencyMax = frequencyMax;
+        copy.period = period;
+        copy.periodMax = periodMax;
+        copy.periodUnit = periodUnit;
+        copy.count = count;
+        copy.hash = hash;
+        return copy;
+    }
+
+    /**
+     * @return The value of the first timeOfDay, null if there is none
+     */
+    public String getTimeOfDay() {
+        return timeOfDay;
+    }
+
+    public boolean hasFrequency() {
+        return (present & FREQUENCY) != 0;
+    }
+
+    public int getFrequency() {
+        return frequency;
+    }
+
+    public boolean hasFrequencyMax() {
+        return (present & FREQUENCY_MAX) != 0;
+    }
+
+    public int getFrequencyMax() {
+        return frequencyMax;
+    }
+
+    public boolean hasPeriod() {
+        return (present & PERIOD) != 0;
+    }
+
+    public double getPeriod() {
+        return period;
+    }
+
+    public boolean hasPeriodMax() {
+        return (present & PERIOD_MAX) != 0;
+    }
+
+    public double getPeriodMax() {
+        return periodMax;
+    }
+
+    /**
+     * @return The period unit, null if there is none
+     */
+    public Timing.UnitsOfTime getPeriodUnit() {
+        return periodUnit;
+    }
+
+    public boolean hasCount() {
+        return (present & COUNT) != 0;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    private int computeHash() {
+        int result = timeOfDay != null ? timeOfDay.hashCode() : 0;
+        result = 31 * result + present;
+        result = 31 * result + frequency;
+        result = 31 * result + frequencyMax;
+        result = 31 * result + Double.hashCode(period);
+        result = 31 * result + Double.hashCode(periodMax);
+        result = 31 * result + (periodUnit != null ? periodUnit.ordinal() + 1 : 0);
+        result = 31 * result + count;
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof TimingShape)) {
+            return false;
+        }
+        TimingShape other = (TimingShape) o;
+        return hash == other.hash
+            && present == other.present
+            && frequency == other.frequency
+            && frequencyMax == other.frequencyMax
+            && Double.compare(period, other.period) == 0
+            && Double.compare(periodMax, other.periodMax) == 0
+            && periodUnit == other.periodUnit
+            && count == other.count
+            && (timeOfDay != null ? timeOfDay.equals(other.timeOfDay) : other.timeOfDay == null);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return "TimingShape[timeOfDay=" + timeOfDay
+            + ", frequency=" + (hasFrequency() ? frequency : null)
+            + ", frequencyMax=" + (hasFrequencyMax() ? frequencyMax : null)
+            + ", period=" + (hasPeriod() ? period : null)
+            + ", periodMax=" + (hasPeriodMax() ? periodMax : null)
+            + ", periodUnit=" + periodUnit
+            + ", count=" + (hasCount() ? count : null) + "]";
+    }
+}
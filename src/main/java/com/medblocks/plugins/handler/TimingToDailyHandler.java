@@ -0,0 +1,300 @@
+package com.medblocks.plugins.handler;
+
+import org.hl7.fhir.r4.model.Resource;
+import org.hl7.fhir.r4.model.Timing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.medblocks.plugins.PluginSettings;
+import com.medblocks.plugins.cache.LruCache;
+import com.medblocks.plugins.composition.FlatCompositionIndex;
+import com.medblocks.plugins.diagnostics.MappingCodeStats;
+import com.medblocks.plugins.diagnostics.MappingDiagnostics;
+import com.medblocks.plugins.diagnostics.SkipReason;
+import com.medblocks.plugins.path.PathKeyCache;
+import com.medblocks.plugins.path.PathKeyCache.PathKeys;
+import com.medblocks.plugins.path.PathSuffix;
+
+import com.medblocks.plugins.unit.TimeUnitConverterFactory;
+
+import static com.medblocks.plugins.MappingUtils.*;
+import static com.medblocks.plugins.diagnostics.MappingDiagnostics.isSampled;
+
+/**
+ * Mapping function for FHIR Timing to OpenEHR timing_daily cluster.
+ * Most timings share a few shapes (BID, TID, q8h, ...), so the values rendered for a
+ * {@link TimingShape} are kept in an LRU cache bounded by the setting {@code timingCache.maxEntries}
+ * (default 512); a cache hit only writes the cached values under the openEhrPath.
+ */
+public class TimingToDailyHandler implements MappingHandler {
+
+    public static final String MAPPING_CODE = "timingToDaily_NonDaily";
+
+    private static final Logger log = LoggerFactory.getLogger(TimingToDailyHandler.class);
+
+    private static final MappingCodeStats stats = MappingDiagnostics.forCode(MAPPING_CODE);
+
+    private static final LruCache<TimingShape, TimingFragment> CACHE =
+        new LruCache<>(PluginSettings.getInt("timingCache.maxEntries", 512));
+
+    // Reused per thread so that a cache hit does not allocate a key
+    private static final ThreadLocal<TimingShape> SHAPE_PROBE = ThreadLocal.withInitial(TimingShape::new);
+
+    @Override
+    public String getMappingCode() {
+        return MAPPING_CODE;
+    }
+
+    @Override
+    public boolean apply(String openEhrPath, Object fhirValue, String openEhrType, Object flatComposition) {
+        if (isSampled()) {
+            log.info("Converting FHIR Timing to OpenEHR timing_daily");
+        }
+        
+        if (!(fhirValue instanceof Timing)) {
+            stats.skipped(SkipReason.UNEXPECTED_TYPE);
+            if (isSampled()) {
+                log.warn("Expected Timing type but got: {}", fhirValue != null ? fhirValue.getClass().getName() : "null");
+            }
+            return false;
+        }
+        
+        Timing timing = (Timing) fhirValue;
+        
+        // Only proceed if timing has repeat component
+        if (!timing.hasRepeat()) {
+            return false;
+        }
+        
+        // Timings of the same shape render the same values, so most calls are a cache hit
+        TimingShape shape = SHAPE_PROBE.get().set(timing.getRepeat());
+        TimingFragment fragment = CACHE.get(shape);
+        if (fragment != null) {
+            stats.cacheHit();
+            if (isSampled()) {
+                log.info("Mapped timing from cache: {}", fragment);
+            }
+        } else {
+            stats.cacheMiss();
+            fragment = render(shape);
+            CACHE.put(shape.copy(), fragment);
+        }
+        
+        return fragment.writeTo(flatComposition, PathKeyCache.keysFor(openEhrPath, openEhrType), stats);
+    }
+    
+    /**
+     * @return The cache of rendered fragments by Timing shape
+     */
+    public static LruCache<TimingShape, TimingFragment> getCache() {
+        return CACHE;
+    }
+    
+    /**
+     * Validates and formats the values of a Timing shape
+     */
+    private TimingFragment render(TimingShape shape) {
+        TimingFragment.Builder fragment = new TimingFragment.Builder();
+        
+        // Map specific time (timeOfDay)
+        String timeOfDay = shape.getTimeOfDay();
+        if (timeOfDay != null) {
+            // Validate and format timeOfDay to match DV_TIME ISO 8601 format
+            String formattedTime = validateAndFormatDvTime(timeOfDay);
+            if (formattedTime != null) {
+                fragment.put(PathSuffix.TIME_OF_DAY, formattedTime);
+                if (isSampled()) {
+                    log.info("Mapped specific time: {}", formattedTime);
+                }
+            } else {
+                fragment.skip(SkipReason.INVALID_TIME);
+                if (isSampled()) {
+                    log.warn("Time value '{}' does not conform to DV_TIME format", timeOfDay);
+                }
+            }
+        }
+        
+        Timing.UnitsOfTime periodUnit = shape.getPeriodUnit();
+        
+        // Map frequency
+        if (shape.hasFrequency()) {
+            int frequency = shape.getFrequency();
+            
+            // Validate and get the frequency unit using our new converter
+            String unit = periodUnit != null && TimeUnitConverterFactory.getFrequencyConverter().isValidUnit(periodUnit)
+                ? TimeUnitConverterFactory.getFrequencyConverter().convertUnit(periodUnit)
+                : null;
+            
+            // Only proceed if we have a valid unit
+            if (unit != null) {
+                // Check if frequencyMax exists for range notation
+                if (shape.hasFrequencyMax()) {
+                    int frequencyMax = shape.getFrequencyMax();
+                    
+                    // Set the lower and upper value and unit
+                    fragment.put(PathSuffix.FREQUENCY_LOWER_MAGNITUDE, frequency)
+                            .put(PathSuffix.FREQUENCY_LOWER_UNIT, unit)
+                            .put(PathSuffix.FREQUENCY_UPPER_MAGNITUDE, frequencyMax)
+                            .put(PathSuffix.FREQUENCY_UPPER_UNIT, unit);
+                    
+                    if (isSampled()) {
+                        log.info("Mapped frequency range: {}-{} {}", frequency, frequencyMax, unit);
+                    }
+                } else {
+                    // Set single value and unit
+                    fragment.put(PathSuffix.FREQUENCY_MAGNITUDE, frequency)
+                            .put(PathSuffix.FREQUENCY_UNIT, unit);
+                    
+                    if (isSampled()) {
+                        log.info("Mapped frequency: {} {}", frequency, unit);
+                    }
+                }
+            } else {
+                fragment.skip(SkipReason.UNSUPPORTED_UNIT);
+                if (isSampled()) {
+                    log.warn("Skipping frequency mapping due to missing or unsupported period unit");
+                }
+            }
+        }
+        
+        // Map interval (period)
+        if (shape.hasPeriod()) {
+            // Validate period unit using our new converter
+            if (periodUnit != null && TimeUnitConverterFactory.getDurationConverter().isValidUnit(periodUnit)) {
+                String durationValue = TimeUnitConverterFactory.getDurationConverter()
+                    .formatDuration(shape.getPeriod(), periodUnit);
+                
+                // Check if periodMax exists for range notation
+                if (shape.hasPeriodMax()) {
+                    String durationMaxValue = TimeUnitConverterFactory.getDurationConverter()
+                        .formatDuration(shape.getPeriodMax(), periodUnit);
+                    
+                    // Set the lower and upper duration values
+                    fragment.put(PathSuffix.INTERVAL_LOWER, durationValue)
+                            .put(PathSuffix.INTERVAL_UPPER, durationMaxValue);
+                    
+                    if (isSampled()) {
+                        log.info("Mapped interval range: {} to {}", durationValue, durationMaxValue);
+                    }
+                } else {
+                    // Set single duration value
+                    fragment.put(PathSuffix.INTERVAL, durationValue);
+                    
+                    if (isSampled()) {
+                        log.info("Mapped interval: {}", durationValue);
+                    }
+                }
+            } else {
+                fragment.skip(SkipReason.UNSUPPORTED_UNIT);
+                if (isSampled()) {
+                    log.warn("Skipping interval mapping due to missing or unsupported period unit");
+                }
+            }
+        }
+        
+        // Map repeat count to dosierungsreihenfolge
+        if (shape.hasCount()) {
+            int count = shape.getCount();
+            fragment.put(PathSuffix.REPEAT_COUNT, count);
+            
+            if (isSampled()) {
+                log.info("Mapped repeat count to dosierungsreihenfolge: {}", count);
+            }
+        }
+        
+        return fragment.build();
+    }
+
+    /**
+     * Rebuilds Timing.repeat from the timing_daily cluster
+     */
+    @Override
+    public Object applyReverse(String openEhrPath, FlatCompositionIndex index, String fhirPath, 
+                               Resource targetResource) {
+        PathKeys keys = PathKeyCache.keysFor(openEhrPath);
+        if (!index.hasKeysUnder(keys.getPath())) {
+            stats.skipped(SkipReason.MISSING_VALUE);
+            return null;
+        }
+        
+        Timing timing = new Timing();
+        Timing.TimingRepeatComponent repeat = timing.getRepeat();
+        boolean found = false;
+        
+        // Map specific time (zeitpunkt)
+        String timeOfDay = index.getString(keys.get(PathSuffix.TIME_OF_DAY));
+        if (timeOfDay != null) {
+            repeat.addTimeOfDay(timeOfDay);
+            found = true;
+        }
+        
+        // Map interval first, it determines period and periodUnit
+        String interval = index.getString(keys.get(PathSuffix.INTERVAL));
+        if (interval != null) {
+            found |= setPeriod(repeat, interval, null);
+        } else {
+            String intervalLower = index.getString(keys.get(PathSuffix.INTERVAL_LOWER));
+            if (intervalLower != null) {
+                found |= setPeriod(repeat, intervalLower, index.getString(keys.get(PathSuffix.INTERVAL_UPPER)));
+            }
+        }
+        
+        // Map frequency, either a single value or a range
+        Double frequency = index.getDouble(keys.get(PathSuffix.FREQUENCY_MAGNITUDE));
+        String frequencyUnit = index.getString(keys.get(PathSuffix.FREQUENCY_UNIT));
+        Double frequencyMax = null;
+        if (frequency == null) {
+            frequency = index.getDouble(keys.get(PathSuffix.FREQUENCY_LOWER_MAGNITUDE));
+            frequencyUnit = index.getString(keys.get(PathSuffix.FREQUENCY_LOWER_UNIT));
+            frequencyMax = index.getDouble(keys.get(PathSuffix.FREQUENCY_UPPER_MAGNITUDE));
+        }
+        if (frequency != null) {
+            repeat.setFrequency(frequency.intValue());
+            if (frequencyMax != null) {
+                repeat.setFrequencyMax(frequencyMax.intValue());
+            }
+            
+            // Without an interval the frequency is per one unit of time
+            Timing.UnitsOfTime periodUnit = TimeUnitConverterFactory.getFrequencyConverter().toTimeUnit(frequencyUnit);
+            if (periodUnit == null) {
+                stats.skipped(SkipReason.UNSUPPORTED_UNIT);
+            } else if (!repeat.hasPeriod()) {
+                repeat.setPeriod(1);
+                repeat.setPeriodUnit(periodUnit);
+            }
+            found = true;
+        }
+        
+        // Map dosierungsreihenfolge to repeat count
+        Double count = index.getDouble(keys.get(PathSuffix.REPEAT_COUNT));
+        if (count != null) {
+            repeat.setCount(count.intValue());
+            found = true;
+        }
+        
+        if (!found) {
+            stats.skipped(SkipReason.MISSING_VALUE);
+            return null;
+        }
+        return timing;
+    }
+    
+    /**
+     * Sets period, periodMax and periodUnit from ISO 8601 durations
+     */
+    private boolean setPeriod(Timing.TimingRepeatComponent repeat, String duration, String durationMax) {
+        Timing.UnitsOfTime unit = TimeUnitConverterFactory.getDurationConverter().toTimeUnit(duration);
+        if (unit == null) {
+            stats.skipped(SkipReason.UNSUPPORTED_UNIT);
+            return false;
+        }
+        
+        repeat.setPeriod(durationToValue(duration, unit));
+        repeat.setPeriodUnit(unit);
+        if (durationMax != null && TimeUnitConverterFactory.getDurationConverter().toTimeUnit(durationMax) != null) {
+            // The upper bound may be written in another unit, e.g. "PT45M" to "PT1H30M"
+            repeat.setPeriodMax(durationToValue(durationMax, unit));
+        }
+        return true;
+    }
+}
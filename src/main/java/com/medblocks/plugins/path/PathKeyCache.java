@@ -0,0 +1,206 @@
+package com.medblocks.plugins.path;
+
+import com.medblocks.plugins.PluginSettings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Cache of the flat composition keys built from an openEhrPath and the suffixes of a
+ * {@link PathTemplate}. The openEhrPath values come from the mapping definitions and form a
+ * small, fixed set, so each key of a (template, openEhrPath) is concatenated and interned on
+ * first use and then reused by every mapping call. Besides saving the concatenation, this lets
+ * all compositions share the same key instances.
+ *
+ * The template of a path is resolved once, when the path is first seen; after that, selecting
+ * a template by OpenEHR type is one map lookup and no string is built per call.
+ * {@link #install(PathTemplates)} replaces the templates together with the cached keys.
+ *
+ * The number of cached paths is bounded by the setting {@code pathKeyCache.maxPaths}
+ * (default 4096); keys for paths beyond that are still built, but neither interned nor retained.
+ */
+public final class PathKeyCache {
+
+    private static final Logger log = LoggerFactory.getLogger(PathKeyCache.class);
+
+    private static final int MAX_PATHS = PluginSettings.getInt("pathKeyCache.maxPaths", 4096);
+
+    // Replaced as a whole, so that the keys always match the templates they were built from
+    private static volatile State state = new State(PathTemplates.defaults());
+
+    private PathKeyCache() {
+    }
+
+    /**
+     * Makes the given templates the ones used by the mapping functions and drops the cached keys
+     *
+     * @param templates The templates to install
+     */
+    public static void install(PathTemplates templates) {
+        state = new State(templates);
+        if (templates.size() > 1) {
+            log.info("Installed {} path templates from {}", templates.size() - 1, templates.getSource());
+        }
+    }
+
+    /**
+     * @return The templates in use
+     */
+    public static PathTemplates templates() {
+        return state.templates;
+    }
+
+    /**
+     * Get the keys for an openEhrPath, with the template of its template id or the default.
+     * Used by the reverse mappings, which are not given an OpenEHR type: templates selected by
+     * OpenEHR type only apply to the FHIR to OpenEHR direction.
+     *
+     * @param openEhrPath The openEhrPath of the mapping
+     * @return The keys for every suffix under the path
+     */
+    public static PathKeys keysFor(String openEhrPath) {
+        return keysFor(openEhrPath, null);
+    }
+
+    /**
+     * Get the keys for an openEhrPath, with the template of its template id or OpenEHR type
+     *
+     * @param openEhrPath The openEhrPath of the mapping
+     * @param openEhrType The OpenEHR type of the mapping, may be null
+     * @return The keys for every suffix under the path
+     */
+    public static PathKeys keysFor(String openEhrPath, String openEhrType) {
+        State current = state;
+        String path = String.valueOf(openEhrPath);
+        PathEntry entry = current.paths.get(path);
+        if (entry == null) {
+            if (current.paths.size() >= MAX_PATHS) {
+                int index = templateIndex(templateIdIndex(path, current.templates), openEhrType, current.templates);
+                return new PathKeys(path, current.templates.get(index), false);
+            }
+            entry = new PathEntry(path, current.templates);
+            PathEntry previous = current.paths.putIfAbsent(path, entry);
+            if (previous != null) {
+                entry = previous;
+            }
+        }
+        return entry.keysFor(openEhrType, current.templates);
+    }
+
+    /**
+     * Get a single key
+     *
+     * @param openEhrPath The openEhrPath of the mapping
+     * @param suffix The suffix under the path
+     * @return The key, interned unless the path is beyond the cache bound
+     */
+    public static String key(String openEhrPath, PathSuffix suffix) {
+        return keysFor(openEhrPath).get(suffix);
+    }
+
+    // Index of the template selected by the template id of the path, -1 if there is none
+    private static int templateIdIndex(String path, PathTemplates templates) {
+        int slash = path.indexOf('/');
+        return templates.indexForTemplateId(slash >= 0 ? path.substring(0, slash) : path);
+    }
+
+    private static int templateIndex(int templateIdIndex, String openEhrType, PathTemplates templates) {
+        return templateIdIndex >= 0 ? templateIdIndex : templates.indexForOpenEhrType(openEhrType);
+    }
+
+    /**
+     * The templates in use and the keys built from them
+     */
+    private static final class State {
+
+        final PathTemplates templates;
+        final ConcurrentMap<String, PathEntry> paths = new ConcurrentHashMap<>();
+
+        State(PathTemplates templates) {
+            this.templates = templates;
+        }
+    }
+
+    /**
+     * The keys of one openEhrPath for each template it is used with
+     */
+    private static final class PathEntry {
+
+        private final String path;
+        // Index of the template selected by the template id of the path, -1 if there is none
+        private final int templateIdIndex;
+        // Racy lazy initialisation is safe: PathKeys is immutable and rebuilding yields equal keys
+        private final PathKeys[] keys;
+
+        PathEntry(String path, PathTemplates templates) {
+            this.path = path;
+            this.templateIdIndex = templateIdIndex(path, templates);
+            this.keys = new PathKeys[templates.size()];
+        }
+
+        PathKeys keysFor(String openEhrType, PathTemplates templates) {
+            int index = templateIndex(templateIdIndex, openEhrType, templates);
+            PathKeys result = keys[index];
+            if (result == null) {
+                result = new PathKeys(path, templates.get(index), true);
+                keys[index] = result;
+            }
+            return result;
+        }
+    }
+
+    /**
+     * The keys of all suffixes under one openEhrPath with one template, built on first use
+     */
+    public static final class PathKeys {
+
+        private static final int SUFFIXES = PathSuffix.values().length;
+
+        private final String path;
+        private final PathTemplate template;
+        // Racy lazy initialisation is safe: Strings are immutable and recomputing yields the same
+        // interned key. Null for paths beyond the cache bound, whose keys are built per call.
+        private final String[] keys;
+
+        PathKeys(String path, PathTemplate template, boolean retained) {
+            this.path = path;
+            this.template = template;
+            this.keys = retained ? new String[SUFFIXES] : null;
+        }
+
+        /**
+         * @return The openEhrPath the keys are built from
+         */
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * @return The template the keys are built from
+         */
+        public PathTemplate getTemplate() {
+            return template;
+        }
+
+        /**
+         * Get the key for a suffix under this path
+         *
+         * @param suffix The suffix
+         * @return The key, interned unless the path is beyond the cache bound
+         */
+        public String get(PathSuffix suffix) {
+            if (keys == null) {
+                return path + template.getSuffix(suffix);
+            }
+            int index = suffix.ordinal();
+            String key = keys[index];
+            if (key == null) {
+                key = (path + template.getSuffix(suffix)).intern();
+                keys[index] = key;
+            }
+            return key;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.medblocks.plugins.path;
+
+/**
+ * Flat path suffixes written by the mapping functions, relative to the openEhrPath of the mapping.
+ * The suffixes given here fit the German medication templates; a {@link PathTemplate} can replace
+ * them for other templates.
+ */
+public enum PathSuffix {
+    // timing_daily cluster
+    TIME_OF_DAY("/zeitpunkt"),
+    FREQUENCY_MAGNITUDE("/frequenz/quantity_value|magnitude"),
+    FREQUENCY_UNIT("/frequenz/quantity_value|unit"),
+    FREQUENCY_LOWER_MAGNITUDE("/frequenz/quantity_value/lower|magnitude"),
+    FREQUENCY_LOWER_UNIT("/frequenz/quantity_value/lower|unit"),
+    FREQUENCY_UPPER_MAGNITUDE("/frequenz/quantity_value/upper|magnitude"),
+    FREQUENCY_UPPER_UNIT("/frequenz/quantity_value/upper|unit"),
+    INTERVAL("/intervall/duration_value"),
+    INTERVAL_LOWER("/intervall/duration_value/lower|value"),
+    INTERVAL_UPPER("/intervall/duration_value/upper|value"),
+    REPEAT_COUNT("/dosierungsreihenfolge"),
+
+    // Administration duration
+    DURATION("/duration_value|value"),
+    DURATION_LOWER("/duration_value/lower|value"),
+    DURATION_UPPER("/duration_value/upper|value"),
+
+    // DV_QUANTITY and quantity ranges
+    QUANTITY_MAGNITUDE("/quantity_value|magnitude"),
+    QUANTITY_UNIT("/quantity_value|unit"),
+    QUANTITY_LOWER_MAGNITUDE("/quantity_value/lower|magnitude"),
+    QUANTITY_LOWER_UNIT("/quantity_value/lower|unit"),
+    QUANTITY_UPPER_MAGNITUDE("/quantity_value/upper|magnitude"),
+    QUANTITY_UPPER_UNIT("/quantity_value/upper|unit"),
+
+    // Parts of a whole Dosage, each the openEhrPath of the mapping function for that part
+    DOSAGE_TIMING("/timing_daily"),
+    DOSAGE_DOSE("/dosis"),
+    DOSAGE_RATE("/verabreichungsrate"),
+    DOSAGE_DURATION("/verabreichungsdauer");
+
+    private final String suffix;
+
+    PathSuffix(String suffix) {
+        this.suffix = suffix;
+    }
+
+    /**
+     * @return The suffix appended to the openEhrPath, starting with '/'
+     */
+    public String getSuffix() {
+        return suffix;
+    }
+}
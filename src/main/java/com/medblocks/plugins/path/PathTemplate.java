@@ -0,0 +1,63 @@
+package com.medblocks.plugins.path;
+
+import java.util.Map;
+
+/**
+ * The flat path suffixes of one OpenEHR template, e.g. the English names of the timing_daily
+ * cluster elements. Suffixes the template does not override keep the built-in ones of
+ * {@link PathSuffix}. Instances are immutable.
+ */
+public final class PathTemplate {
+
+    /**
+     * The built-in suffixes of {@link PathSuffix}
+     */
+    public static final PathTemplate DEFAULT = new PathTemplate("default", Map.of());
+
+    private final String name;
+    // Indexed by the ordinal of the PathSuffix
+    private final String[] suffixes;
+
+    /**
+     * Creates a template
+     *
+     * @param name The name of the template, used in log messages
+     * @param overrides The suffixes that differ from the built-in ones
+     * @throws IllegalArgumentException If a suffix does not start with '/'
+     */
+    public PathTemplate(String name, Map<PathSuffix, String> overrides) {
+        this.name = name;
+        PathSuffix[] values = PathSuffix.values();
+        this.suffixes = new String[values.length];
+        for (PathSuffix suffix : values) {
+            String value = overrides.getOrDefault(suffix, suffix.getSuffix());
+            if (value == null || !value.startsWith("/")) {
+                throw new IllegalArgumentException("Suffix " + suffix + " of path template " + name
+                                                   + " must start with '/': " + value);
+            }
+            suffixes[suffix.ordinal()] = value;
+        }
+    }
+
+    /**
+     * @return The name of the template
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get the suffix written by the mapping functions
+     *
+     * @param suffix The suffix
+     * @return The suffix of this template, starting with '/'
+     */
+    public String getSuffix(PathSuffix suffix) {
+        return suffixes[suffix.ordinal()];
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
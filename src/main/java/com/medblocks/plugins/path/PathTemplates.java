@@ -0,0 +1,229 @@
+package com.medblocks.plugins.path;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.medblocks.plugins.PluginSettings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The path templates in use and how they are selected, compiled from the JSON file configured
+ * with the setting {@code pathTemplates.file}:
+ *
+ * <pre>
+ * {
+ *   "templates": {
+ *     "english": { "TIME_OF_DAY": "/time_of_day", "INTERVAL": "/interval/duration_value" }
+ *   },
+ *   "templateIds": { "medication_list": "english" },
+ *   "openEhrTypes": { "CLUSTER": "english" }
+ * }
+ * </pre>
+ *
+ * Templates are keyed by {@link PathSuffix} name. A mapping uses the template of the template id,
+ * the first segment of its openEhrPath, if one is configured, else the template of its OpenEHR
+ * type, else {@link PathTemplate#DEFAULT}, which can also be referenced as "default".
+ * Reverse mappings have no OpenEHR type, so templates selected by type are only used for the
+ * FHIR to OpenEHR direction; use a template id for templates that must round-trip.
+ * Instances are immutable.
+ */
+public final class PathTemplates {
+
+    private static final Logger log = LoggerFactory.getLogger(PathTemplates.class);
+
+    private static final Gson GSON = new Gson();
+
+    private static final PathTemplates DEFAULTS =
+        new PathTemplates(new PathTemplate[] {PathTemplate.DEFAULT}, Map.of(), Map.of(), "built-in");
+
+    // The default template first; selections hold indexes into this array
+    private final PathTemplate[] templates;
+    private final Map<String, Integer> byTemplateId;
+    private final Map<String, Integer> byOpenEhrType;
+    private final String source;
+
+    private PathTemplates(PathTemplate[] templates, Map<String, Integer> byTemplateId,
+                          Map<String, Integer> byOpenEhrType, String source) {
+        this.templates = templates;
+        this.byTemplateId = byTemplateId;
+        this.byOpenEhrType = byOpenEhrType;
+        this.source = source;
+    }
+
+    /**
+     * @return The built-in suffixes only
+     */
+    public static PathTemplates defaults() {
+        return DEFAULTS;
+    }
+
+    /**
+     * Loads the file configured with {@code pathTemplates.file}. An invalid file is logged and
+     * the built-in suffixes are used instead.
+     *
+     * @return The configured templates, or the defaults if no file is configured
+     */
+    public static PathTemplates configured() {
+        String file = PluginSettings.getString("pathTemplates.file", null);
+        if (file == null) {
+            return DEFAULTS;
+        }
+        try {
+            return compile(Path.of(file));
+        } catch (IOException | IllegalArgumentException e) {
+            log.error("Could not load path templates from {}, using the built-in paths: {}", file, e.getMessage());
+            return DEFAULTS;
+        }
+    }
+
+    /**
+     * Compiles a path template file
+     *
+     * @param file The path template file
+     * @return The compiled templates
+     * @throws IOException If the file cannot be read
+     * @throws IllegalArgumentException If the file is not a valid path template file
+     */
+    public static PathTemplates compile(Path file) throws IOException {
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return compile(reader, file.toString());
+        }
+    }
+
+    /**
+     * Compiles path templates read from JSON
+     *
+     * @param reader The JSON object of templates and selections
+     * @param source The name of the source, used in error messages
+     * @return The compiled templates
+     * @throws IllegalArgumentException If the JSON is not a valid path template file
+     */
+    public static PathTemplates compile(Reader reader, String source) {
+        Definition definition;
+        try {
+            definition = GSON.fromJson(reader, Definition.class);
+        } catch (JsonParseException e) {
+            throw new IllegalArgumentException("Invalid path template file " + source + ": " + e.getMessage(), e);
+        }
+        if (definition == null) {
+            return DEFAULTS;
+        }
+
+        List<PathTemplate> templates = new ArrayList<>();
+        Map<String, Integer> indexes = new HashMap<>();
+        templates.add(PathTemplate.DEFAULT);
+        indexes.put(PathTemplate.DEFAULT.getName(), 0);
+        if (definition.templates != null) {
+            for (Map.Entry<String, Map<String, String>> entry : definition.templates.entrySet()) {
+                String name = entry.getKey();
+                if (indexes.containsKey(name)) {
+                    throw new IllegalArgumentException("Path template " + name + " in " + source + " is reserved");
+                }
+                indexes.put(name, templates.size());
+                templates.add(new PathTemplate(name, suffixes(name, entry.getValue(), source)));
+            }
+        }
+
+        return new PathTemplates(templates.toArray(new PathTemplate[0]),
+                                 select(definition.templateIds, indexes, "template id", source),
+                                 select(definition.openEhrTypes, indexes, "OpenEHR type", source),
+                                 source);
+    }
+
+    /**
+     * @return The file the templates were compiled from, or "built-in"
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * @return The number of templates, including the default
+     */
+    public int size() {
+        return templates.length;
+    }
+
+    /**
+     * @param index The index of a template, 0 for the default
+     * @return The template
+     */
+    PathTemplate get(int index) {
+        return templates[index];
+    }
+
+    /**
+     * @param templateId The first segment of an openEhrPath
+     * @return The index of the template configured for the template id, or -1 if there is none
+     */
+    int indexForTemplateId(String templateId) {
+        Integer index = byTemplateId.get(templateId);
+        return index != null ? index : -1;
+    }
+
+    /**
+     * @param openEhrType The OpenEHR type of a mapping, may be null
+     * @return The index of the template configured for the type, or 0 for the default
+     */
+    int indexForOpenEhrType(String openEhrType) {
+        if (openEhrType == null || byOpenEhrType.isEmpty()) {
+            return 0;
+        }
+        Integer index = byOpenEhrType.get(openEhrType);
+        return index != null ? index : 0;
+    }
+
+    private static Map<PathSuffix, String> suffixes(String name, Map<String, String> values, String source) {
+        Map<PathSuffix, String> suffixes = new EnumMap<>(PathSuffix.class);
+        if (values == null) {
+            return suffixes;
+        }
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            try {
+                suffixes.put(PathSuffix.valueOf(entry.getKey()), entry.getValue());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown suffix " + entry.getKey() + " in path template "
+                                                   + name + " in " + source);
+            }
+        }
+        return suffixes;
+    }
+
+    private static Map<String, Integer> select(Map<String, String> selections, Map<String, Integer> indexes,
+                                               String kind, String source) {
+        if (selections == null || selections.isEmpty()) {
+            return Map.of();
+        }
+        Map<String, Integer> selected = new HashMap<>();
+        for (Map.Entry<String, String> entry : selections.entrySet()) {
+            Integer index = indexes.get(entry.getValue());
+            if (index == null) {
+                throw new IllegalArgumentException("Unknown path template " + entry.getValue() + " for " + kind
+                                                   + " " + entry.getKey() + " in " + source);
+            }
+            selected.put(entry.getKey(), index);
+        }
+        return Map.copyOf(selected);
+    }
+
+    /**
+     * The JSON form of a path template file
+     */
+    private static final class Definition {
+        LinkedHashMap<String, Map<String, String>> templates;
+        Map<String, String> templateIds;
+        Map<String, String> openEhrTypes;
+    }
+}
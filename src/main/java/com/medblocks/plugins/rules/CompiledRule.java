@@ -0,0 +1,238 @@
+package com.medblocks.plugins.rules;
+
+import com.medblocks.plugins.PluginSettings;
+import com.medblocks.plugins.diagnostics.MappingCodeStats;
+import com.medblocks.plugins.diagnostics.MappingDiagnostics;
+import com.medblocks.plugins.diagnostics.SkipReason;
+import com.medblocks.plugins.handler.MappingHandler;
+import org.hl7.fhir.r4.model.Base;
+import org.hl7.fhir.r4.model.DecimalType;
+import org.hl7.fhir.r4.model.IntegerType;
+import org.hl7.fhir.r4.model.PrimitiveType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.medblocks.plugins.MappingUtils.setValueInJson;
+import static com.medblocks.plugins.diagnostics.MappingDiagnostics.isSampled;
+
+/**
+ * A mapping rule compiled by {@link RuleCompiler}.
+ * Source paths are split into child names with their hashes and converters are resolved when
+ * the rule is compiled, so a call only walks the FHIR value and writes the converted values.
+ * The flat keys of every target are built once per openEhrPath, for at most as many paths as the
+ * setting {@code rules.maxPaths} allows (default 4096).
+ *
+ * The counters of the mapping code are only registered once the rule is installed
+ * ({@link #register()}), so compiling a file that is then rejected leaves no trace in the
+ * diagnostics or over JMX.
+ *
+ * Absent sources are not written. Rules only map from FHIR to OpenEHR; the reverse direction
+ * returns null.
+ */
+public final class CompiledRule implements MappingHandler {
+
+    private static final Logger log = LoggerFactory.getLogger(CompiledRule.class);
+
+    private static final int MAX_PATHS = PluginSettings.getInt("rules.maxPaths", 4096);
+
+    private final String mappingCode;
+    private final String fhirType;
+    private final Target[] targets;
+    // Set when the rule is installed
+    private volatile MappingCodeStats stats;
+
+    // Flat keys of all targets by openEhrPath, in target order
+    private final ConcurrentMap<String, String[]> keys = new ConcurrentHashMap<>();
+
+    CompiledRule(String mappingCode, String fhirType, List<Target> targets) {
+        this.mappingCode = mappingCode;
+        this.fhirType = fhirType;
+        this.targets = targets.toArray(new Target[0]);
+    }
+
+    /**
+     * Registers the counters of the mapping code, called when the rule is installed
+     */
+    void register() {
+        stats = MappingDiagnostics.forCode(mappingCode);
+    }
+
+    @Override
+    public String getMappingCode() {
+        return mappingCode;
+    }
+
+    /**
+     * @return The FHIR type the rule maps, null for any type
+     */
+    public String getFhirType() {
+        return fhirType;
+    }
+
+    /**
+     * @return The number of values written by the rule
+     */
+    public int getTargetCount() {
+        return targets.length;
+    }
+
+    @Override
+    public boolean apply(String openEhrPath, Object fhirValue, String openEhrType, Object flatComposition) {
+        if (!(fhirValue instanceof Base) || (fhirType != null && !fhirType.equals(((Base) fhirValue).fhirType()))) {
+            stats().skipped(SkipReason.UNEXPECTED_TYPE);
+            if (isSampled()) {
+                log.warn("Rule {} expects {} but got: {}", mappingCode, fhirType != null ? fhirType : "a FHIR element",
+                         fhirValue != null ? fhirValue.getClass().getName() : "null");
+            }
+            return false;
+        }
+
+        Base base = (Base) fhirValue;
+        String[] pathKeys = keysFor(openEhrPath);
+        boolean success = false;
+
+        for (int i = 0; i < targets.length; i++) {
+            Target target = targets[i];
+            Object value = target.source.read(base);
+            if (value == null) {
+                continue;
+            }
+
+            if (target.converter != RuleConverter.NONE) {
+                Object unit = target.unitSource != null ? target.unitSource.read(base) : null;
+                value = target.converter.convert(value, unit);
+                if (value == null) {
+                    stats().skipped(target.converter.getFailure());
+                    if (isSampled()) {
+                        log.warn("Rule {} could not convert {} with {}", mappingCode, target.source,
+                                 target.converter.getName());
+                    }
+                    continue;
+                }
+            }
+
+            if (value instanceof Integer) {
+                setValueInJson(flatComposition, pathKeys[i], (int) (Integer) value);
+            } else if (value instanceof Double) {
+                setValueInJson(flatComposition, pathKeys[i], (double) (Double) value);
+            } else {
+                setValueInJson(flatComposition, pathKeys[i], value);
+            }
+            success = true;
+
+            if (isSampled()) {
+                log.info("Rule {} set {} = {}", mappingCode, pathKeys[i], value);
+            }
+        }
+        return success;
+    }
+
+    // A rule applied without being installed registers its counters on first use
+    private MappingCodeStats stats() {
+        MappingCodeStats current = stats;
+        if (current == null) {
+            register();
+            current = stats;
+        }
+        return current;
+    }
+
+    private String[] keysFor(String openEhrPath) {
+        String path = String.valueOf(openEhrPath);
+        String[] cached = keys.get(path);
+        if (cached != null) {
+            return cached;
+        }
+
+        String[] built = new String[targets.length];
+        for (int i = 0; i < targets.length; i++) {
+            built[i] = (path + targets[i].suffix).intern();
+        }
+        if (keys.size() < MAX_PATHS) {
+            keys.putIfAbsent(path, built);
+        }
+        return built;
+    }
+
+    @Override
+    public String toString() {
+        return "CompiledRule[" + mappingCode + ", " + targets.length + " targets]";
+    }
+
+    /**
+     * One value of a compiled rule
+     */
+    static final class Target {
+        final SourcePath source;
+        final SourcePath unitSource;
+        final String suffix;
+        final RuleConverter converter;
+
+        Target(SourcePath source, SourcePath unitSource, String suffix, RuleConverter converter) {
+            this.source = source;
+            this.unitSource = unitSource;
+            this.suffix = suffix;
+            this.converter = converter;
+        }
+    }
+
+    /**
+     * A dot-separated path of child names, with the name hashes HAPI dispatches on
+     */
+    static final class SourcePath {
+        private final String path;
+        private final String[] names;
+        private final int[] hashes;
+
+        SourcePath(String path) {
+            this.path = path;
+            this.names = path.split("\\.");
+            this.hashes = new int[names.length];
+            for (int i = 0; i < names.length; i++) {
+                hashes[i] = names[i].hashCode();
+            }
+        }
+
+        String[] getNames() {
+            return names;
+        }
+
+        /**
+         * Reads the primitive at the end of the path. Unlike the HAPI getters, this does not
+         * create missing children.
+         *
+         * @param base The mapped FHIR value
+         * @return An Integer, a Double or a String, or null if the path has no value
+         */
+        Object read(Base base) {
+            Base current = base;
+            for (int i = 0; i < names.length; i++) {
+                Base[] children = current.getProperty(hashes[i], names[i], false);
+                if (children == null || children.length == 0 || children[0] == null) {
+                    return null;
+                }
+                current = children[0];
+            }
+
+            if (!(current instanceof PrimitiveType) || ((PrimitiveType<?>) current).getValue() == null) {
+                return null;
+            }
+            if (current instanceof IntegerType) {
+                return ((IntegerType) current).getValue();
+            }
+            if (current instanceof DecimalType) {
+                return ((DecimalType) current).getValue().doubleValue();
+            }
+            return ((PrimitiveType<?>) current).getValueAsString();
+        }
+
+        @Override
+        public String toString() {
+            return path;
+        }
+    }
+}
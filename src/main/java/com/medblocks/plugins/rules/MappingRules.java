@@ -0,0 +1,186 @@
+package com.medblocks.plugins.rules;
+
+import com.medblocks.plugins.PluginSettings;
+import com.medblocks.plugins.diagnostics.MappingMetrics;
+import com.medblocks.plugins.handler.MappingHandlerRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Holds the declarative mapping rules compiled from the rule file configured with the setting
+ * {@code rules.file}.
+ *
+ * The converters read the rules in use with {@link #current()}. A reload compiles the whole
+ * file into a new {@link RuleSet} and swaps it in atomically, so a call sees either the old or
+ * the new rules, never a mix. If the file cannot be read or compiled, the previous rules stay
+ * in use and the error is kept for {@link MappingRulesMXBean#getLastError()}.
+ *
+ * While the plugin is running, reloads can be triggered through the MXBean
+ * {@code com.medblocks.plugins:type=MappingRules}.
+ */
+public final class MappingRules implements MappingRulesMXBean {
+
+    private static final Logger log = LoggerFactory.getLogger(MappingRules.class);
+
+    private static final MappingRules INSTANCE = new MappingRules();
+
+    private static final AtomicReference<RuleSet> current = new AtomicReference<>(RuleSet.empty());
+
+    // Set while the bean is registered, guarded by the class lock
+    private static MBeanServer server;
+
+    private final AtomicLong reloads = new AtomicLong();
+    private final AtomicLong failedReloads = new AtomicLong();
+    private volatile String lastError;
+
+    private MappingRules() {
+    }
+
+    /**
+     * @return The rules used by the converters
+     */
+    public static RuleSet current() {
+        return current.get();
+    }
+
+    /**
+     * @return The bean holding the reload state
+     */
+    public static MappingRules getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Loads the configured rule file and registers the MXBean, if enabled
+     */
+    public static synchronized void start() {
+        INSTANCE.reload();
+        if (server != null || !PluginSettings.getBoolean("metrics.jmxEnabled", true)) {
+            return;
+        }
+        server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.registerMBean(INSTANCE, objectName());
+        } catch (InstanceAlreadyExistsException e) {
+            // Registered by an earlier start that was not stopped, e.g. another plugin instance
+        } catch (JMException e) {
+            log.warn("Could not register mapping rules bean: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Unregisters the MXBean and drops the rules
+     */
+    public static synchronized void stop() {
+        if (server != null) {
+            try {
+                server.unregisterMBean(objectName());
+            } catch (InstanceNotFoundException e) {
+                // Never registered
+            } catch (JMException e) {
+                log.warn("Could not unregister mapping rules bean: {}", e.getMessage());
+            }
+            server = null;
+        }
+        current.set(RuleSet.empty());
+    }
+
+    /**
+     * Get the name of the bean
+     *
+     * @return The object name
+     * @throws MalformedObjectNameException If the name cannot be built
+     */
+    public static ObjectName objectName() throws MalformedObjectNameException {
+        return new ObjectName(MappingMetrics.DOMAIN + ":type=MappingRules");
+    }
+
+    /**
+     * Makes the given rules the ones used by the converters
+     *
+     * @param rules The rules to install
+     */
+    public static void install(RuleSet rules) {
+        RuleSet previous = current.getAndSet(rules);
+        rules.register();
+        warnShadowed(rules);
+        log.info("Installed {} mapping rules from {}, replacing {}", rules.size(), rules.getSource(), previous.size());
+    }
+
+    @Override
+    public String getRuleFile() {
+        return PluginSettings.getString("rules.file", null);
+    }
+
+    @Override
+    public List<String> getMappingCodes() {
+        return new ArrayList<>(current().getMappingCodes());
+    }
+
+    @Override
+    public long getReloadCount() {
+        return reloads.get();
+    }
+
+    @Override
+    public long getFailedReloadCount() {
+        return failedReloads.get();
+    }
+
+    @Override
+    public String getLastError() {
+        return lastError;
+    }
+
+    @Override
+    public synchronized boolean reload() {
+        String file = getRuleFile();
+        if (file == null) {
+            current.set(RuleSet.empty());
+            lastError = null;
+            return true;
+        }
+
+        RuleSet rules;
+        try {
+            rules = RuleCompiler.compile(Path.of(file));
+        } catch (Exception e) {
+            failedReloads.incrementAndGet();
+            lastError = e.getMessage();
+            log.error("Could not load mapping rules from {}, keeping {} rules in use: {}",
+                      file, current().size(), e.getMessage());
+            return false;
+        }
+
+        install(rules);
+        reloads.incrementAndGet();
+        lastError = null;
+        return true;
+    }
+
+    /**
+     * Handlers take precedence over rules, so a rule for a registered mapping code is never used
+     */
+    private static void warnShadowed(RuleSet rules) {
+        MappingHandlerRegistry registry = MappingHandlerRegistry.current();
+        for (String code : rules.getMappingCodes()) {
+            if (registry.get(code) != null) {
+                log.warn("Mapping rule {} is not used, the mapping code is already handled by {}",
+                         code, registry.get(code).getClass().getName());
+            }
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.medblocks.plugins.rules;
+
+import java.util.List;
+
+/**
+ * JMX view and reload operation of the declarative mapping rules, see {@link MappingRules}
+ */
+public interface MappingRulesMXBean {
+
+    /**
+     * @return The configured rule file, null if none is configured
+     */
+    String getRuleFile();
+
+    /**
+     * @return The mapping codes of the rules in use
+     */
+    List<String> getMappingCodes();
+
+    /**
+     * @return Reloads that replaced the rules in use
+     */
+    long getReloadCount();
+
+    /**
+     * @return Reloads that failed and kept the previous rules
+     */
+    long getFailedReloadCount();
+
+    /**
+     * @return The error of the last failed reload, null if the last reload succeeded
+     */
+    String getLastError();
+
+    /**
+     * Compiles the rule file again and replaces the rules in use
+     *
+     * @return true if the rules were replaced, false if the file is invalid and the previous rules are kept
+     */
+    boolean reload();
+}
@@ -0,0 +1,172 @@
+package com.medblocks.plugins.rules;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+import org.hl7.fhir.r4.model.Base;
+import org.hl7.fhir.r4.model.PrimitiveType;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Compiles the rule file, a JSON array of {@link RuleDefinition}s, into a {@link RuleSet}.
+ * A rule file is compiled as a whole: any invalid rule fails the compilation, so a rule set
+ * never contains part of a file.
+ *
+ * When a rule names its FHIR type, the source paths are checked against the HAPI R4 model.
+ * Paths through choice elements, e.g. "dose", are checked up to the choice.
+ */
+public final class RuleCompiler {
+
+    private static final Gson GSON = new Gson();
+
+    private static final String MODEL_PACKAGE = "org.hl7.fhir.r4.model.";
+
+    private RuleCompiler() {
+    }
+
+    /**
+     * Compiles a rule file
+     *
+     * @param file The rule file
+     * @return The compiled rules
+     * @throws IOException If the file cannot be read
+     * @throws IllegalArgumentException If the file is not a valid rule file
+     */
+    public static RuleSet compile(Path file) throws IOException {
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return compile(reader, file.toString());
+        }
+    }
+
+    /**
+     * Compiles rules read from JSON
+     *
+     * @param reader The JSON array of rules
+     * @param source The name of the source, used in error messages
+     * @return The compiled rules
+     * @throws IllegalArgumentException If the JSON is not a valid rule file
+     */
+    public static RuleSet compile(Reader reader, String source) {
+        List<RuleDefinition> definitions;
+        try {
+            definitions = GSON.fromJson(reader, new TypeToken<List<RuleDefinition>>() { }.getType());
+        } catch (JsonParseException e) {
+            throw new IllegalArgumentException("Invalid rule file " + source + ": " + e.getMessage(), e);
+        }
+        if (definitions == null) {
+            definitions = List.of();
+        }
+
+        List<CompiledRule> rules = new ArrayList<>(definitions.size());
+        Set<String> codes = new HashSet<>();
+        for (int i = 0; i < definitions.size(); i++) {
+            RuleDefinition definition = definitions.get(i);
+            if (definition == null) {
+                throw new IllegalArgumentException("Rule " + i + " in " + source + " is null");
+            }
+            String code = definition.mappingCode;
+            if (code == null || code.isBlank()) {
+                throw new IllegalArgumentException("Rule " + i + " in " + source + " has no mappingCode");
+            }
+            if (!codes.add(code)) {
+                throw new IllegalArgumentException("Duplicate mappingCode " + code + " in " + source);
+            }
+            rules.add(compile(definition, "Rule " + code + " in " + source));
+        }
+        return new RuleSet(rules, source);
+    }
+
+    private static CompiledRule compile(RuleDefinition definition, String context) {
+        if (definition.targets == null || definition.targets.isEmpty()) {
+            throw new IllegalArgumentException(context + " has no targets");
+        }
+        Base prototype = definition.fhirType != null ? prototype(definition.fhirType, context) : null;
+
+        List<CompiledRule.Target> targets = new ArrayList<>(definition.targets.size());
+        for (RuleDefinition.Target target : definition.targets) {
+            if (target == null) {
+                throw new IllegalArgumentException(context + " has a null target");
+            }
+            if (target.suffix == null || !(target.suffix.startsWith("/") || target.suffix.startsWith("|"))) {
+                throw new IllegalArgumentException(context + ": suffix must start with '/' or '|', got " + target.suffix);
+            }
+
+            RuleConverter converter = RuleConverter.forName(target.converter);
+            if (converter == null) {
+                throw new IllegalArgumentException(context + ": unknown converter " + target.converter);
+            }
+            if (converter == RuleConverter.ISO_DURATION && target.unitSource == null) {
+                throw new IllegalArgumentException(context + ": converter " + converter.getName() + " needs a unitSource");
+            }
+
+            CompiledRule.SourcePath source = sourcePath(target.source, prototype, context);
+            CompiledRule.SourcePath unitSource = target.unitSource != null
+                ? sourcePath(target.unitSource, prototype, context) : null;
+            targets.add(new CompiledRule.Target(source, unitSource, target.suffix, converter));
+        }
+        return new CompiledRule(definition.mappingCode, definition.fhirType, targets);
+    }
+
+    private static CompiledRule.SourcePath sourcePath(String path, Base prototype, String context) {
+        if (path == null || path.isEmpty() || path.startsWith(".") || path.endsWith(".") || path.contains("..")) {
+            throw new IllegalArgumentException(context + ": invalid source path " + path);
+        }
+        CompiledRule.SourcePath sourcePath = new CompiledRule.SourcePath(path);
+
+        if (prototype != null) {
+            Base current = prototype;
+            for (String name : sourcePath.getNames()) {
+                if (current == null) {
+                    // Below a choice element, whose type is only known at runtime
+                    return sourcePath;
+                }
+                current = child(current, name, context + ": invalid source path " + path);
+            }
+            if (current != null && !(current instanceof PrimitiveType)) {
+                throw new IllegalArgumentException(context + ": source path " + path + " does not end at a primitive, but at "
+                                                   + current.fhirType());
+            }
+        }
+        return sourcePath;
+    }
+
+    /**
+     * Creates an empty element of a FHIR type, e.g. "Timing" or "Timing.repeat"
+     */
+    private static Base prototype(String fhirType, String context) {
+        String[] names = fhirType.split("\\.");
+        Base current;
+        try {
+            current = (Base) Class.forName(MODEL_PACKAGE + names[0]).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            throw new IllegalArgumentException(context + ": unknown fhirType " + fhirType, e);
+        }
+        for (int i = 1; i < names.length && current != null; i++) {
+            current = child(current, names[i], context + ": unknown fhirType " + fhirType);
+        }
+        if (current == null) {
+            throw new IllegalArgumentException(context + ": fhirType " + fhirType + " is a choice element");
+        }
+        return current;
+    }
+
+    /**
+     * @return The child element, or null for a choice element
+     */
+    private static Base child(Base parent, String name, String message) {
+        try {
+            return parent.makeProperty(name.hashCode(), name);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException(message, e);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.medblocks.plugins.rules;
+
+import com.medblocks.plugins.diagnostics.SkipReason;
+import com.medblocks.plugins.time.DvTimeFormatter;
+import com.medblocks.plugins.unit.TimeUnitConverterFactory;
+import com.medblocks.plugins.unit.UnitCanonicalizer;
+import org.hl7.fhir.r4.model.Timing.UnitsOfTime;
+
+/**
+ * Converters that can be named in a rule target, backed by the converters of the built-in handlers
+ */
+public enum RuleConverter {
+
+    /**
+     * Writes the value as read
+     */
+    NONE("none", SkipReason.CONVERSION_FAILED) {
+        @Override
+        Object convert(Object value, Object unit) {
+            return value;
+        }
+    },
+
+    /**
+     * Formats a time as DV_TIME, e.g. "08:00" to "08:00:00"
+     */
+    DV_TIME("dvTime", SkipReason.INVALID_TIME) {
+        @Override
+        Object convert(Object value, Object unit) {
+            return value instanceof String ? DvTimeFormatter.format((String) value) : null;
+        }
+    },
+
+    /**
+     * Formats a number and the unit of time from the unitSource as an ISO 8601 duration, e.g. 8 and "h" to "PT8H"
+     */
+    ISO_DURATION("isoDuration", SkipReason.UNSUPPORTED_UNIT) {
+        @Override
+        Object convert(Object value, Object unit) {
+            UnitsOfTime timeUnit = timeUnit(unit);
+            if (!(value instanceof Number) || timeUnit == null) {
+                return null;
+            }
+            return TimeUnitConverterFactory.getDurationConverter().formatDuration(((Number) value).doubleValue(), timeUnit);
+        }
+    },
+
+    /**
+     * Converts a unit of time to a frequency unit, e.g. "d" to "1/d"
+     */
+    FREQUENCY_UNIT("frequencyUnit", SkipReason.UNSUPPORTED_UNIT) {
+        @Override
+        Object convert(Object value, Object unit) {
+            return TimeUnitConverterFactory.getFrequencyConverter().convertUnit(timeUnit(value));
+        }
+    },
+
+    /**
+     * Canonicalizes a unit expression, e.g. "mL/h" to "ml/h"
+     */
+    UCUM("ucum", SkipReason.UNSUPPORTED_UNIT) {
+        @Override
+        Object convert(Object value, Object unit) {
+            return value instanceof String ? UnitCanonicalizer.normalize((String) value) : null;
+        }
+    };
+
+    private static final UnitsOfTime[] UNITS = UnitsOfTime.values();
+
+    private final String name;
+    private final SkipReason failure;
+
+    RuleConverter(String name, SkipReason failure) {
+        this.name = name;
+        this.failure = failure;
+    }
+
+    /**
+     * Converts a value
+     *
+     * @param value The value read from the source, a String, Integer or Double
+     * @param unit The value read from the unitSource, null if the target has none
+     * @return The converted value, or null if the value cannot be converted
+     */
+    abstract Object convert(Object value, Object unit);
+
+    /**
+     * @return The name used in the rule file
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return Why a value is skipped when it cannot be converted
+     */
+    public SkipReason getFailure() {
+        return failure;
+    }
+
+    /**
+     * Get a converter by the name used in the rule file
+     *
+     * @param name The name, null for {@link #NONE}
+     * @return The converter, or null if there is none with that name
+     */
+    public static RuleConverter forName(String name) {
+        if (name == null) {
+            return NONE;
+        }
+        for (RuleConverter converter : values()) {
+            if (converter.name.equals(name)) {
+                return converter;
+            }
+        }
+        return null;
+    }
+
+    private static UnitsOfTime timeUnit(Object code) {
+        if (code instanceof String) {
+            for (UnitsOfTime unit : UNITS) {
+                if (unit != UnitsOfTime.NULL && unit.toCode().equals(code)) {
+                    return unit;
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,64 @@
+package com.medblocks.plugins.rules;
+
+import java.util.List;
+
+/**
+ * A mapping rule as written in the rule file, before it is compiled by {@link RuleCompiler}.
+ * The fields are bound by Gson:
+ *
+ * <pre>
+ * {
+ *   "mappingCode": "timingRepeatCount",
+ *   "fhirType": "Timing",
+ *   "targets": [
+ *     { "source": "repeat.count", "suffix": "/dosierungsreihenfolge" },
+ *     { "source": "repeat.period", "unitSource": "repeat.periodUnit",
+ *       "suffix": "/intervall/duration_value", "converter": "isoDuration" }
+ *   ]
+ * }
+ * </pre>
+ */
+public class RuleDefinition {
+
+    /**
+     * The mapping code used in the openFHIR mapping definitions
+     */
+    public String mappingCode;
+
+    /**
+     * The FHIR type of the mapped value, e.g. "Timing"; any type if absent
+     */
+    public String fhirType;
+
+    /**
+     * The values written for the rule
+     */
+    public List<Target> targets;
+
+    /**
+     * One value read from the FHIR value and written under the openEhrPath
+     */
+    public static class Target {
+
+        /**
+         * Dot-separated child names from the mapped value to a primitive, e.g. "repeat.count".
+         * Repeating children are read at their first repetition.
+         */
+        public String source;
+
+        /**
+         * The suffix appended to the openEhrPath, starting with '/' or '|'
+         */
+        public String suffix;
+
+        /**
+         * The name of a {@link RuleConverter}; the value is written as read if absent
+         */
+        public String converter;
+
+        /**
+         * Path of the unit of time for the converter "isoDuration", e.g. "repeat.periodUnit"
+         */
+        public String unitSource;
+    }
+}
@@ -0,0 +1,74 @@
+package com.medblocks.plugins.rules;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable lookup of compiled rules by mapping code, replaced as a whole when the rule file
+ * is reloaded
+ */
+public final class RuleSet {
+
+    private static final RuleSet EMPTY = new RuleSet(List.of(), null);
+
+    private final Map<String, CompiledRule> rules;
+    private final String source;
+
+    RuleSet(List<CompiledRule> rules, String source) {
+        Map<String, CompiledRule> byCode = new LinkedHashMap<>();
+        for (CompiledRule rule : rules) {
+            byCode.put(rule.getMappingCode(), rule);
+        }
+        this.rules = Map.copyOf(byCode);
+        this.source = source;
+    }
+
+    /**
+     * @return The rule set without rules
+     */
+    public static RuleSet empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Resolves the rule for a mapping code
+     *
+     * @param mappingCode The mapping code
+     * @return The rule, or null if there is no rule for the code
+     */
+    public CompiledRule get(String mappingCode) {
+        return mappingCode != null ? rules.get(mappingCode) : null;
+    }
+
+    /**
+     * Registers the counters of every rule, once the rule set is installed
+     */
+    void register() {
+        for (CompiledRule rule : rules.values()) {
+            rule.register();
+        }
+    }
+
+    /**
+     * @return The mapping codes of the rules
+     */
+    public Set<String> getMappingCodes() {
+        return rules.keySet();
+    }
+
+    /**
+     * @return The file the rules were compiled from, null for rules not read from a file
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * @return The number of rules
+     */
+    public int size() {
+        return rules.size();
+    }
+}
@@ -0,0 +1,225 @@
+package com.medblocks.plugins.time;
+
+import com.medblocks.plugins.diagnostics.ConversionEvent;
+
+/**
+ * Single-pass scanner that validates time strings against the DV_TIME ISO 8601 forms
+ * and rewrites them into the extended format.
+ * Accepted inputs are:
+ * - Extended (preferred): hh:mm:ss[(,|.)sss][Z|±hh[:mm]] - returned as-is
+ * - Compact: hhmmss[(,|.)sss][Z|±hh[mm]] - rewritten to extended
+ * - hh:mm - seconds are appended
+ * - hh - minutes and seconds are appended
+ *
+ * No regular expressions are used and the only allocation is the result string.
+ * Rewritten results are kept in a small direct-mapped cache, so repeated values such as
+ * "0800" or "08:00" are produced once and shared afterwards.
+ */
+public final class DvTimeFormatter {
+
+    // Must be a power of two
+    private static final int CACHE_SIZE = 256;
+
+    /**
+     * Immutable cache entry. Final fields make entries safe to publish through the
+     * plain array below without further synchronization.
+     */
+    private static final class Entry {
+        final String input;
+        final String result;
+
+        Entry(String input, String result) {
+            this.input = input;
+            this.result = result;
+        }
+    }
+
+    private static final Entry[] CACHE = new Entry[CACHE_SIZE];
+
+    private DvTimeFormatter() {
+    }
+
+    /**
+     * Validates and formats a time string to the extended DV_TIME format
+     *
+     * @param timeStr The time string to validate
+     * @return The extended format time string, or null if the input is not a valid time
+     */
+    public static String format(String timeStr) {
+        ConversionEvent event = ConversionEvent.start();
+        String time = formatTime(timeStr);
+        ConversionEvent.end(event, "dvTimeFormat", timeStr, time);
+        return time;
+    }
+
+    private static String formatTime(String timeStr) {
+        if (timeStr == null) {
+            return null;
+        }
+
+        int len = timeStr.length();
+        if (!isHour(timeStr, 0, len)) {
+            return null;
+        }
+
+        // "hh"
+        if (len == 2) {
+            return rewrite(timeStr);
+        }
+
+        if (timeStr.charAt(2) == ':') {
+            if (!isMinuteOrSecond(timeStr, 3, len)) {
+                return null;
+            }
+            // "hh:mm"
+            if (len == 5) {
+                return rewrite(timeStr);
+            }
+            if (timeStr.charAt(5) != ':' || !isMinuteOrSecond(timeStr, 6, len)) {
+                return null;
+            }
+            // Extended format is already canonical
+            return isValidTail(timeStr, 8, len, true) ? timeStr : null;
+        }
+
+        // Compact format
+        if (!isMinuteOrSecond(timeStr, 2, len) || !isMinuteOrSecond(timeStr, 4, len)
+                || !isValidTail(timeStr, 6, len, false)) {
+            return null;
+        }
+        return rewrite(timeStr);
+    }
+
+    /**
+     * Returns the extended form of an already validated short or compact time,
+     * consulting the cache first
+     */
+    private static String rewrite(String timeStr) {
+        int index = timeStr.hashCode() & (CACHE_SIZE - 1);
+        Entry entry = CACHE[index];
+        if (entry != null && entry.input.equals(timeStr)) {
+            return entry.result;
+        }
+
+        String result = toExtended(timeStr);
+        CACHE[index] = new Entry(timeStr, result);
+        return result;
+    }
+
+    private static String toExtended(String timeStr) {
+        int len = timeStr.length();
+        if (len == 2) {
+            return timeStr.concat(":00:00");
+        }
+        if (len == 5) {
+            return timeStr.concat(":00");
+        }
+
+        char h1 = timeStr.charAt(0);
+        char h2 = timeStr.charAt(1);
+        char m1 = timeStr.charAt(2);
+        char m2 = timeStr.charAt(3);
+        char s1 = timeStr.charAt(4);
+        char s2 = timeStr.charAt(5);
+        if (len == 6) {
+            return "" + h1 + h2 + ':' + m1 + m2 + ':' + s1 + s2;
+        }
+
+        // Fraction and/or timezone follow; the tail is copied verbatim except for
+        // a colon inserted between timezone hours and minutes
+        StringBuilder sb = new StringBuilder(len + 3);
+        sb.append(h1).append(h2).append(':').append(m1).append(m2).append(':').append(s1).append(s2);
+
+        int pos = 6;
+        char c = timeStr.charAt(pos);
+        if (c == ',' || c == '.') {
+            int start = pos;
+            pos++;
+            while (pos < len && isDigit(timeStr.charAt(pos))) {
+                pos++;
+            }
+            sb.append(timeStr, start, pos);
+        }
+
+        if (pos < len) {
+            c = timeStr.charAt(pos);
+            if (c == 'Z') {
+                sb.append('Z');
+            } else {
+                sb.append(c).append(timeStr, pos + 1, pos + 3);
+                if (pos + 3 < len) {
+                    sb.append(':').append(timeStr, pos + 3, pos + 5);
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Checks the optional fraction and timezone that may follow hh:mm:ss or hhmmss.
+     * In extended format the timezone may separate hours and minutes with a colon.
+     */
+    private static boolean isValidTail(String s, int pos, int len, boolean extended) {
+        if (pos < len) {
+            char c = s.charAt(pos);
+            if (c == ',' || c == '.') {
+                int start = ++pos;
+                while (pos < len && isDigit(s.charAt(pos))) {
+                    pos++;
+                }
+                if (pos == start) {
+                    return false;
+                }
+            }
+        }
+
+        if (pos == len) {
+            return true;
+        }
+
+        char c = s.charAt(pos);
+        if (c == 'Z') {
+            return pos + 1 == len;
+        }
+        if (c != '+' && c != '-') {
+            return false;
+        }
+
+        pos++;
+        if (!isHour(s, pos, len)) {
+            return false;
+        }
+        pos += 2;
+        if (pos == len) {
+            return true;
+        }
+
+        if (extended && s.charAt(pos) == ':') {
+            pos++;
+        }
+        return isMinuteOrSecond(s, pos, len) && pos + 2 == len;
+    }
+
+    // [01]\d|2[0-3]
+    private static boolean isHour(String s, int pos, int len) {
+        if (pos + 2 > len) {
+            return false;
+        }
+        char c1 = s.charAt(pos);
+        char c2 = s.charAt(pos + 1);
+        return ((c1 == '0' || c1 == '1') && isDigit(c2)) || (c1 == '2' && c2 >= '0' && c2 <= '3');
+    }
+
+    // [0-5]\d
+    private static boolean isMinuteOrSecond(String s, int pos, int len) {
+        if (pos + 2 > len) {
+            return false;
+        }
+        char c1 = s.charAt(pos);
+        return c1 >= '0' && c1 <= '5' && isDigit(s.charAt(pos + 1));
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
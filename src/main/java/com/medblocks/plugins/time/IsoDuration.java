@@ -0,0 +1,278 @@
+package com.medblocks.plugins.time;
+
+import org.hl7.fhir.r4.model.Timing.UnitsOfTime;
+
+/**
+ * An ISO 8601 duration decomposed into years, months, weeks, days and seconds plus nanos.
+ *
+ * {@link #parse(CharSequence)} reads the duration in a single pass, without regular expressions,
+ * and accepts every form written by {@link com.medblocks.plugins.unit.DurationUnitConverter}:
+ * - Multiple components: "P1DT12H", "PT1H30M"
+ * - Fractions with '.' or ',': "PT1.5S", "P1.5M"
+ * - Signed durations and components: "-P2D", "PT-2H"
+ *
+ * Hours and minutes are folded into seconds. Fractions of the date components have no exact
+ * representation in the larger fields and are added to the seconds as well, using the mean
+ * UCUM month (30.4375 days) for years and months.
+ */
+public final class IsoDuration {
+
+    /**
+     * Seconds in a mean month, a twelfth of the mean Julian year of 365.25 days
+     */
+    public static final long MEAN_MONTH_SECONDS = 2_629_800;
+
+    private static final long SECONDS_PER_WEEK = 604_800;
+    private static final long SECONDS_PER_DAY = 86_400;
+    private static final long NANOS_PER_SECOND = 1_000_000_000;
+
+    // Designators in the order they must appear; time designators follow 'T'
+    private static final String DATE_DESIGNATORS = "YMWD";
+    private static final String TIME_DESIGNATORS = "HMS";
+    private static final UnitsOfTime[] UNITS = {
+        UnitsOfTime.A, UnitsOfTime.MO, UnitsOfTime.WK, UnitsOfTime.D,
+        UnitsOfTime.H, UnitsOfTime.MIN, UnitsOfTime.S
+    };
+    private static final long[] SECONDS_PER_UNIT = {
+        12 * MEAN_MONTH_SECONDS, MEAN_MONTH_SECONDS, SECONDS_PER_WEEK, SECONDS_PER_DAY, 3600, 60, 1
+    };
+
+    private final long years;
+    private final long months;
+    private final long weeks;
+    private final long days;
+    private final long seconds;
+    private final int nanos;
+    private final UnitsOfTime largestUnit;
+
+    private IsoDuration(long years, long months, long weeks, long days, long seconds, int nanos,
+                        UnitsOfTime largestUnit) {
+        this.years = years;
+        this.months = months;
+        this.weeks = weeks;
+        this.days = days;
+        this.seconds = seconds;
+        this.nanos = nanos;
+        this.largestUnit = largestUnit;
+    }
+
+    /**
+     * Parses an ISO 8601 duration
+     *
+     * @param text The duration, e.g. "P1DT12H"
+     * @return The duration, or null if the text is not a valid ISO 8601 duration
+     */
+    public static IsoDuration parse(CharSequence text) {
+        if (text == null) {
+            return null;
+        }
+
+        int len = text.length();
+        int i = 0;
+        int sign = 1;
+        if (i < len && (text.charAt(i) == '-' || text.charAt(i) == '+')) {
+            sign = text.charAt(i) == '-' ? -1 : 1;
+            i++;
+        }
+        if (i >= len || text.charAt(i) != 'P') {
+            return null;
+        }
+        i++;
+
+        long[] whole = new long[UNITS.length];
+        double fractionSeconds = 0;
+        int firstOrder = -1;
+        int lastOrder = -1;
+        boolean timePart = false;
+        boolean componentSinceT = false;
+
+        while (i < len) {
+            char c = text.charAt(i);
+            if (c == 'T') {
+                if (timePart) {
+                    return null;
+                }
+                timePart = true;
+                i++;
+                continue;
+            }
+
+            // Number: [sign] digits [(.|,) digits]
+            int componentSign = 1;
+            if (c == '-' || c == '+') {
+                componentSign = c == '-' ? -1 : 1;
+                i++;
+            }
+            int digitsStart = i;
+            long value = 0;
+            while (i < len && isDigit(text.charAt(i))) {
+                if (value > (Long.MAX_VALUE - 9) / 10) {
+                    return null;
+                }
+                value = value * 10 + (text.charAt(i) - '0');
+                i++;
+            }
+            boolean hasWhole = i > digitsStart;
+            double fraction = 0;
+            if (i < len && (text.charAt(i) == '.' || text.charAt(i) == ',')) {
+                i++;
+                double scale = 0.1;
+                int fractionStart = i;
+                while (i < len && isDigit(text.charAt(i))) {
+                    fraction += (text.charAt(i) - '0') * scale;
+                    scale /= 10;
+                    i++;
+                }
+                if (i == fractionStart) {
+                    return null;
+                }
+            } else if (!hasWhole) {
+                return null;
+            }
+            if (i >= len) {
+                return null;
+            }
+
+            // Designator, which must follow the previous one
+            int order = timePart ? TIME_DESIGNATORS.indexOf(text.charAt(i)) : DATE_DESIGNATORS.indexOf(text.charAt(i));
+            if (order < 0) {
+                return null;
+            }
+            if (timePart) {
+                order += DATE_DESIGNATORS.length();
+            }
+            if (order <= lastOrder) {
+                return null;
+            }
+            if (firstOrder < 0) {
+                firstOrder = order;
+            }
+            lastOrder = order;
+            componentSinceT = timePart;
+            i++;
+
+            whole[order] = componentSign * value;
+            if (fraction != 0) {
+                fractionSeconds += componentSign * fraction * SECONDS_PER_UNIT[order];
+            }
+        }
+
+        if (lastOrder < 0 || (timePart && !componentSinceT)) {
+            return null;
+        }
+
+        // Fold hours, minutes and fractions into seconds plus nanos
+        long seconds;
+        try {
+            seconds = Math.addExact(Math.addExact(Math.multiplyExact(whole[4], 3600), Math.multiplyExact(whole[5], 60)), whole[6]);
+        } catch (ArithmeticException e) {
+            return null;
+        }
+        long fractionWhole = (long) Math.floor(fractionSeconds);
+        long nanos = Math.round((fractionSeconds - fractionWhole) * NANOS_PER_SECOND);
+        if (nanos == NANOS_PER_SECOND) {
+            fractionWhole++;
+            nanos = 0;
+        }
+        seconds += fractionWhole;
+
+        UnitsOfTime largestUnit = UNITS[firstOrder];
+        if (sign < 0) {
+            // Keep nanos in [0, 1e9) like java.time.Duration
+            if (nanos != 0) {
+                seconds++;
+                nanos = NANOS_PER_SECOND - nanos;
+            }
+            return new IsoDuration(-whole[0], -whole[1], -whole[2], -whole[3], -seconds, (int) nanos, largestUnit);
+        }
+        return new IsoDuration(whole[0], whole[1], whole[2], whole[3], seconds, (int) nanos, largestUnit);
+    }
+
+    public long getYears() {
+        return years;
+    }
+
+    public long getMonths() {
+        return months;
+    }
+
+    public long getWeeks() {
+        return weeks;
+    }
+
+    public long getDays() {
+        return days;
+    }
+
+    /**
+     * @return The seconds, including the hours, minutes and fractions of the date components
+     */
+    public long getSeconds() {
+        return seconds;
+    }
+
+    /**
+     * @return The nano-of-second adjustment, always between 0 and 999,999,999
+     */
+    public int getNanos() {
+        return nanos;
+    }
+
+    /**
+     * @return The unit of the largest component written, e.g. H for "PT1H30M"
+     */
+    public UnitsOfTime getLargestUnit() {
+        return largestUnit;
+    }
+
+    /**
+     * @return true if the duration has year or month components
+     */
+    public boolean hasCalendarComponents() {
+        return years != 0 || months != 0;
+    }
+
+    /**
+     * Expresses the whole duration in one unit, e.g. 1.5 for "PT1H30M" in hours.
+     * Years and months are converted using the mean UCUM month.
+     *
+     * @param unit The target unit
+     * @return The duration in that unit, or NaN if the unit is null or {@link UnitsOfTime#NULL}
+     */
+    public double toValue(UnitsOfTime unit) {
+        int index = indexOf(unit);
+        if (index < 0) {
+            return Double.NaN;
+        }
+
+        double totalMonths = years * 12 + months;
+        double totalSeconds = weeks * SECONDS_PER_WEEK + days * SECONDS_PER_DAY + seconds + nanos / (double) NANOS_PER_SECOND;
+        switch (unit) {
+            case A:
+                return (totalMonths + totalSeconds / MEAN_MONTH_SECONDS) / 12;
+            case MO:
+                return totalMonths + totalSeconds / MEAN_MONTH_SECONDS;
+            default:
+                return (totalMonths * MEAN_MONTH_SECONDS + totalSeconds) / SECONDS_PER_UNIT[index];
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "IsoDuration[years=" + years + ", months=" + months + ", weeks=" + weeks + ", days=" + days
+            + ", seconds=" + seconds + ", nanos=" + nanos + "]";
+    }
+
+    private static int indexOf(UnitsOfTime unit) {
+        for (int i = 0; i < UNITS.length; i++) {
+            if (UNITS[i] == unit) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
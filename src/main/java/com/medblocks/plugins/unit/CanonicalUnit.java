@@ -0,0 +1,146 @@
+package com.medblocks.plugins.unit;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A parsed unit expression, see {@link UnitCanonicalizer}.
+ * Holds the canonical lowercase form (e.g. "ml/h") and the terms it is made of.
+ * Instances are immutable and shared through the canonicalizer cache.
+ */
+public final class CanonicalUnit {
+
+    // Quotients are keyed by denominator identity, which is stable for cached units
+    private static final int MAX_QUOTIENTS = 16;
+
+    private final String canonical;
+    private final List<Term> terms;
+    private final boolean recognized;
+    private final ConcurrentMap<CanonicalUnit, CanonicalUnit> quotients = new ConcurrentHashMap<>();
+    // Racy lazy initialisation is safe: conversions are immutable and resolving again yields an equal one
+    private RateConversion rateConversion;
+
+    CanonicalUnit(String canonical, List<Term> terms) {
+        this.canonical = canonical;
+        this.terms = Collections.unmodifiableList(terms);
+        boolean allKnown = true;
+        for (Term term : terms) {
+            allKnown &= term.getKind() != UnitKind.UNKNOWN;
+        }
+        this.recognized = allKnown;
+    }
+
+    /**
+     * @return The canonical form, e.g. "ml/h" for "mL/h", "milliliter/hour" or "ml.h-1"
+     */
+    public String getCanonical() {
+        return canonical;
+    }
+
+    /**
+     * @return The terms in input order, with the exponents of divided terms negated
+     */
+    public List<Term> getTerms() {
+        return terms;
+    }
+
+    /**
+     * @return true if every atom was found in the token table and the expression was well formed
+     */
+    public boolean isRecognized() {
+        return recognized;
+    }
+
+    /**
+     * Get the conversion of this unit to the nearest unit allowed for an administration rate
+     *
+     * @return The conversion, or null if this unit is not a volume per time
+     */
+    public RateConversion getRateConversion() {
+        RateConversion conversion = rateConversion;
+        if (conversion == null) {
+            conversion = RateConversion.resolve(this);
+            rateConversion = conversion;
+        }
+        return conversion != RateConversion.NONE ? conversion : null;
+    }
+
+    /**
+     * Get this unit divided by another, with the denominator grouped as a whole
+     */
+    CanonicalUnit per(CanonicalUnit denominator) {
+        CanonicalUnit quotient = quotients.get(denominator);
+        if (quotient == null) {
+            quotient = UnitCanonicalizer.canonicalize(canonical + "/(" + denominator.canonical + ")");
+            if (quotients.size() < MAX_QUOTIENTS) {
+                quotients.putIfAbsent(denominator, quotient);
+            }
+        }
+        return quotient;
+    }
+
+    @Override
+    public String toString() {
+        return canonical;
+    }
+
+    /**
+     * A single unit atom with its prefix and exponent, e.g. "ml" or "h-1"
+     */
+    public static final class Term {
+
+        private final String symbol;
+        private final String atom;
+        private final UnitKind kind;
+        private final double factor;
+        private final int exponent;
+
+        Term(String symbol, String atom, UnitKind kind, double factor, int exponent) {
+            this.symbol = symbol;
+            this.atom = atom;
+            this.kind = kind;
+            this.factor = factor;
+            this.exponent = exponent;
+        }
+
+        /**
+         * @return The canonical symbol including the prefix, e.g. "ml"
+         */
+        public String getSymbol() {
+            return symbol;
+        }
+
+        /**
+         * @return The canonical symbol without the prefix, e.g. "l"
+         */
+        public String getAtom() {
+            return atom;
+        }
+
+        public UnitKind getKind() {
+            return kind;
+        }
+
+        /**
+         * @return The size of one unit in the base unit of its kind (0.001 for ml, 3600 for h),
+         *         or NaN for unknown atoms
+         */
+        public double getFactor() {
+            return factor;
+        }
+
+        /**
+         * @return The exponent, negative for terms in the denominator
+         */
+        public int getExponent() {
+            return exponent;
+        }
+
+        @Override
+        public String toString() {
+            return exponent == 1 ? symbol : symbol + exponent;
+        }
+    }
+}
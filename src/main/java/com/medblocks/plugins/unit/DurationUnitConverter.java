@@ -4,6 +4,11 @@ import org.hl7.fhir.r4.model.Timing.UnitsOfTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.medblocks.plugins.diagnostics.ConversionEvent;
+import com.medblocks.plugins.time.IsoDuration;
+
+import java.math.BigDecimal;
+
 /**
  * Converter for mapping FHIR time units to ISO 8601 duration format
  */
@@ -11,6 +16,45 @@ public class DurationUnitConverter implements TimeUnitConverter {
     
     private static final Logger log = LoggerFactory.getLogger(DurationUnitConverter.class);
     
+    /**
+     * Largest whole value served from the precomputed table
+     */
+    public static final int TABLE_MAX = 120;
+    
+    // Whole doubles beyond 2^53 are not exact
+    private static final double MAX_EXACT_LONG = 0x1p53;
+    
+    private static final BigDecimal SECONDS_PER_MINUTE = BigDecimal.valueOf(60);
+    private static final BigDecimal SECONDS_PER_HOUR = BigDecimal.valueOf(3600);
+    private static final BigDecimal SECONDS_PER_DAY = BigDecimal.valueOf(86400);
+    
+    // Per UnitsOfTime ordinal: duration prefix, designator and exact length in seconds (0 if variable)
+    private static final String[] PREFIXES = new String[UnitsOfTime.values().length];
+    private static final String[] DESIGNATORS = new String[UnitsOfTime.values().length];
+    private static final long[] SECONDS_PER_UNIT = new long[UnitsOfTime.values().length];
+    private static final String[][] TABLE = new String[UnitsOfTime.values().length][];
+    
+    static {
+        unit(UnitsOfTime.S, "PT", "S", 1);
+        unit(UnitsOfTime.MIN, "PT", "M", 60);
+        unit(UnitsOfTime.H, "PT", "H", 3600);
+        unit(UnitsOfTime.D, "P", "D", 86400);
+        unit(UnitsOfTime.WK, "P", "W", 604800);
+        unit(UnitsOfTime.MO, "P", "M", 0);
+        unit(UnitsOfTime.A, "P", "Y", 0);
+    }
+    
+    private static void unit(UnitsOfTime timeUnit, String prefix, String designator, long seconds) {
+        int unit = timeUnit.ordinal();
+        PREFIXES[unit] = prefix;
+        DESIGNATORS[unit] = designator;
+        SECONDS_PER_UNIT[unit] = seconds;
+        TABLE[unit] = new String[TABLE_MAX + 1];
+        for (int value = 0; value <= TABLE_MAX; value++) {
+            TABLE[unit][value] = prefix + value + designator;
+        }
+    }
+    
     @Override
     public boolean isValidUnit(UnitsOfTime timeUnit) {
         return timeUnit != null; // All standard time units are valid for ISO 8601 duration
@@ -46,29 +90,96 @@ public class DurationUnitConverter implements TimeUnitConverter {
     }
     
     /**
-     * Formats a value with the time unit into an ISO 8601 duration string
+     * Formats a value with the time unit into an ISO 8601 duration string.
+     * Whole values from 0 to {@value #TABLE_MAX} come from a precomputed table and other whole
+     * values only allocate the result string. Fractional values are not rounded: they are
+     * expressed exactly in smaller units, e.g. 1.5 h becomes "PT1H30M" and 1.5 d becomes "P1DT12H".
+     * Fractional months and years have no fixed length and keep a decimal fraction ("P1.5M").
      * 
      * @param value The numeric value
      * @param timeUnit The time unit
-     * @return Formatted ISO 8601 duration string
+     * @return Formatted ISO 8601 duration string, or null for an invalid unit or a value that is not finite
      */
     public String formatDuration(double value, UnitsOfTime timeUnit) {
+        ConversionEvent event = ConversionEvent.start();
+        String duration = format(value, timeUnit);
+        ConversionEvent.end(event, "durationFormat", value, timeUnit != null ? timeUnit.toCode() : null, duration);
+        return duration;
+    }
+    
+    private String format(double value, UnitsOfTime timeUnit) {
         if (!isValidUnit(timeUnit)) {
             return null;
         }
         
-        switch (timeUnit) {
-            case S:
-            case MIN:
-            case H:
-                return String.format("PT%.0f%s", value, convertUnit(timeUnit));
-            case D:
-            case WK:
-            case MO:
-            case A:
-                return String.format("P%.0f%s", value, convertUnit(timeUnit));
-            default:
-                return null;
+        int unit = timeUnit.ordinal();
+        String prefix = PREFIXES[unit];
+        if (prefix == null || Double.isNaN(value) || Double.isInfinite(value)) {
+            return null;
+        }
+        
+        // Whole values
+        if (value == Math.rint(value) && Math.abs(value) < MAX_EXACT_LONG) {
+            long whole = (long) value;
+            if (whole >= 0 && whole <= TABLE_MAX) {
+                return TABLE[unit][(int) whole];
+            }
+            return prefix + whole + DESIGNATORS[unit];
+        }
+        
+        return formatFraction(value, timeUnit);
+    }
+    
+    /**
+     * Formats a fractional value exactly by carrying the fraction into smaller units
+     */
+    private String formatFraction(double value, UnitsOfTime timeUnit) {
+        BigDecimal decimal = BigDecimal.valueOf(value);
+        int unit = timeUnit.ordinal();
+        if (decimal.signum() < 0 || SECONDS_PER_UNIT[unit] == 0) {
+            return PREFIXES[unit] + decimal.stripTrailingZeros().toPlainString() + DESIGNATORS[unit];
         }
+        
+        StringBuilder sb = new StringBuilder("P");
+        BigDecimal seconds = decimal.multiply(BigDecimal.valueOf(SECONDS_PER_UNIT[unit]));
+        
+        // Whole days only for date units, time units are expressed in hours and below
+        if (timeUnit == UnitsOfTime.D || timeUnit == UnitsOfTime.WK) {
+            BigDecimal[] days = seconds.divideAndRemainder(SECONDS_PER_DAY);
+            if (days[0].signum() > 0) {
+                sb.append(days[0].toBigInteger()).append('D');
+            }
+            seconds = days[1];
+        }
+        if (seconds.signum() == 0) {
+            return sb.toString();
+        }
+        
+        sb.append('T');
+        BigDecimal[] hours = seconds.divideAndRemainder(SECONDS_PER_HOUR);
+        if (hours[0].signum() > 0) {
+            sb.append(hours[0].toBigInteger()).append('H');
+        }
+        BigDecimal[] minutes = hours[1].divideAndRemainder(SECONDS_PER_MINUTE);
+        if (minutes[0].signum() > 0) {
+            sb.append(minutes[0].toBigInteger()).append('M');
+        }
+        if (minutes[1].signum() > 0) {
+            sb.append(minutes[1].stripTrailingZeros().toPlainString()).append('S');
+        }
+        return sb.toString();
+    }
+    
+    /**
+     * Determines the FHIR time unit of an ISO 8601 duration from its largest component,
+     * so that durations written by {@link #formatDuration} map back to their original unit,
+     * e.g. "PT1H30M" to hours.
+     * 
+     * @param duration The ISO 8601 duration string, e.g. "PT30M"
+     * @return The time unit of the largest component, or null if the string is not a duration
+     */
+    public UnitsOfTime toTimeUnit(String duration) {
+        IsoDuration parsed = IsoDuration.parse(duration);
+        return parsed != null ? parsed.getLargestUnit() : null;
     }
-} 
\ No newline at end of file
+}
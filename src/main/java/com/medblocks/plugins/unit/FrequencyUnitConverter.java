@@ -4,6 +4,8 @@ import org.hl7.fhir.r4.model.Timing.UnitsOfTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.medblocks.plugins.diagnostics.ConversionEvent;
+
 /**
  * Converter for mapping FHIR time units to OpenEHR frequency units (1/d, 1/h, etc.)
  */
@@ -24,13 +26,20 @@ public class FrequencyUnitConverter implements TimeUnitConverter {
             case D:
                 return true;
             default:
-                log.warn("Unsupported time unit for frequency conversion: {}", timeUnit);
+                log.debug("Unsupported time unit for frequency conversion: {}", timeUnit);
                 return false;
         }
     }
     
     @Override
     public String convertUnit(UnitsOfTime timeUnit) {
+        ConversionEvent event = ConversionEvent.start();
+        String unit = convert(timeUnit);
+        ConversionEvent.end(event, "frequencyUnit", timeUnit != null ? timeUnit.toCode() : null, unit);
+        return unit;
+    }
+    
+    private String convert(UnitsOfTime timeUnit) {
         if (!isValidUnit(timeUnit)) {
             return null;
         }
@@ -48,4 +57,29 @@ public class FrequencyUnitConverter implements TimeUnitConverter {
                 return null; // This shouldn't happen due to isValidUnit check
         }
     }
-} 
\ No newline at end of file
+    
+    /**
+     * Converts an OpenEHR frequency unit back to the FHIR period unit
+     * 
+     * @param unit The OpenEHR frequency unit (1/d, 1/h, 1/min, 1/s)
+     * @return The FHIR time unit, or null if the unit is not supported
+     */
+    public UnitsOfTime toTimeUnit(String unit) {
+        if (unit == null) {
+            return null;
+        }
+        
+        switch (unit) {
+            case "1/s":
+                return UnitsOfTime.S;
+            case "1/min":
+                return UnitsOfTime.MIN;
+            case "1/h":
+                return UnitsOfTime.H;
+            case "1/d":
+                return UnitsOfTime.D;
+            default:
+                return null;
+        }
+    }
+}
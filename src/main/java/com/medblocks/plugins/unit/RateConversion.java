@@ -0,0 +1,135 @@
+package com.medblocks.plugins.unit;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Rescales an administration rate to the nearest unit allowed for verabreichungsrate
+ * ("l/h", "ml/min", "ml/s" or "ml/h"), e.g. 1 l/min to 1000 ml/min or 240 ml/d to 10 ml/h.
+ *
+ * The factors between all volume units (kl to nl) and time units (s to a) are computed once
+ * into a matrix. The conversion of a unit is resolved from its terms on first use and kept by
+ * the {@link CanonicalUnit}, so a mapping call only reads a field and multiplies.
+ *
+ * The nearest unit keeps the time unit if it is s, min or h; longer time units become h.
+ * Rates per hour in liters or more are given in l/h, all others in ml.
+ */
+public final class RateConversion {
+
+    // Volume units with their size in ml, time units with their length in s (UCUM mean month and year)
+    private static final String[] VOLUMES = {"kl", "l", "dl", "cl", "ml", "ul", "nl"};
+    private static final String[] VOLUME_ML = {"1000000", "1000", "100", "10", "1", "0.001", "0.000001"};
+    private static final String[] TIMES = {"s", "min", "h", "d", "wk", "mo", "a"};
+    private static final String[] TIME_S = {"1", "60", "3600", "86400", "604800", "2629800", "31557600"};
+
+    // Resolved conversion of units that are not a volume per time
+    static final RateConversion NONE = new RateConversion(null, Double.NaN);
+
+    private static final Map<String, Integer> VOLUME_INDEX = index(VOLUMES);
+    private static final Map<String, Integer> TIME_INDEX = index(TIMES);
+
+    // Conversion of every volume unit per time unit, [volume][time]
+    private static final RateConversion[][] MATRIX = new RateConversion[VOLUMES.length][TIMES.length];
+
+    static {
+        int liter = VOLUME_INDEX.get("l");
+        int milliliter = VOLUME_INDEX.get("ml");
+        int hour = TIME_INDEX.get("h");
+        for (int v = 0; v < VOLUMES.length; v++) {
+            for (int t = 0; t < TIMES.length; t++) {
+                int targetTime = Math.min(t, hour);
+                int targetVolume = targetTime == hour && v <= liter ? liter : milliliter;
+                BigDecimal factor = new BigDecimal(VOLUME_ML[v])
+                    .divide(new BigDecimal(VOLUME_ML[targetVolume]), MathContext.DECIMAL64)
+                    .multiply(new BigDecimal(TIME_S[targetTime]))
+                    .divide(new BigDecimal(TIME_S[t]), MathContext.DECIMAL64);
+                MATRIX[v][t] = new RateConversion(VOLUMES[targetVolume] + "/" + TIMES[targetTime], factor.doubleValue());
+            }
+        }
+    }
+
+    private final String unit;
+    private final double factor;
+
+    private RateConversion(String unit, double factor) {
+        this.unit = unit;
+        this.factor = factor;
+    }
+
+    /**
+     * @return The allowed unit the rate is rescaled to, e.g. "ml/h"
+     */
+    public String getUnit() {
+        return unit;
+    }
+
+    /**
+     * @return The factor the magnitude is multiplied with, 1 for allowed units
+     */
+    public double getFactor() {
+        return factor;
+    }
+
+    /**
+     * Get the conversion of a rate unit to the nearest allowed unit
+     *
+     * @param volume The volume unit, e.g. "ml"
+     * @param time The time unit, e.g. "d"
+     * @return The conversion, or null if either unit is not in the matrix
+     */
+    public static RateConversion of(String volume, String time) {
+        Integer v = VOLUME_INDEX.get(volume);
+        Integer t = TIME_INDEX.get(time);
+        return v != null && t != null ? MATRIX[v][t] : null;
+    }
+
+    /**
+     * Resolves the conversion of a unit from its terms: a volume, divided by a time and
+     * optionally scaled by plain numbers, e.g. "ml/(10.min)"
+     *
+     * @return The conversion, or {@link #NONE} if the unit is not a volume per time
+     */
+    static RateConversion resolve(CanonicalUnit unit) {
+        if (!unit.isRecognized()) {
+            return NONE;
+        }
+        String volume = null;
+        String time = null;
+        double scale = 1;
+        for (CanonicalUnit.Term term : unit.getTerms()) {
+            if (term.getKind() == UnitKind.VOLUME && term.getExponent() == 1 && volume == null) {
+                volume = term.getSymbol();
+            } else if (term.getKind() == UnitKind.TIME && term.getExponent() == -1 && time == null) {
+                time = term.getSymbol();
+            } else if (term.getKind() == UnitKind.DIMENSIONLESS) {
+                scale *= Math.pow(term.getFactor(), term.getExponent());
+            } else {
+                return NONE;
+            }
+        }
+
+        RateConversion conversion = of(volume, time);
+        if (conversion == null) {
+            return NONE;
+        }
+        if (scale == 1) {
+            return conversion;
+        }
+        return new RateConversion(conversion.unit, conversion.factor * scale);
+    }
+
+    private static Map<String, Integer> index(String[] symbols) {
+        Map<String, Integer> index = new HashMap<>();
+        for (int i = 0; i < symbols.length; i++) {
+            index.put(symbols[i], i);
+        }
+        return index;
+    }
+
+    @Override
+    public String toString() {
+        return "x" + factor + " " + unit;
+    }
+}
@@ -0,0 +1,341 @@
+package com.medblocks.plugins.unit;
+
+import com.medblocks.plugins.PluginSettings;
+import com.medblocks.plugins.diagnostics.ConversionEvent;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Canonicalizes UCUM style unit expressions for comparison, so that "mL/h", "milliliter/hour",
+ * "ml / hour" and "ml.h-1" all become "ml/h".
+ *
+ * The expression is read in a single pass. Terms are separated by '/', '.', '*', whitespace or
+ * the word "per", may carry an exponent ("h-1", "m2"), may be grouped with parentheses and may
+ * be followed by a UCUM annotation in curly braces, which is ignored. Each term is looked up in
+ * a table of atoms and their full names, optionally behind a metric prefix ("m", "milli").
+ * As in UCUM, '/' only divides by the term that follows it.
+ *
+ * The canonical form is lowercase for compatibility with the units written so far: numerator
+ * terms joined with '.', each denominator term preceded by '/'. Terms missing from the table are
+ * kept as written (lowercased) and mark the unit as not recognized.
+ *
+ * Results are cached per input. The cache is bounded by the setting {@code unitCache.maxEntries}
+ * (default 1024); units beyond that are still canonicalized, but not retained.
+ */
+public final class UnitCanonicalizer {
+
+    private static final int MAX_ENTRIES = PluginSettings.getInt("unitCache.maxEntries", 1024);
+
+    private static final int MAX_DEPTH = 8;
+
+    private static final ConcurrentMap<String, CanonicalUnit> CACHE = new ConcurrentHashMap<>();
+
+    // Atoms by lowercase symbol, alias and full name
+    private static final Map<String, Atom> ATOMS = new HashMap<>();
+    // Prefixes by lowercase symbol and full name, longest first
+    private static final Prefix[] PREFIXES;
+
+    static {
+        atom("l", UnitKind.VOLUME, 1, true, "liter", "litre", "liters", "litres");
+        atom("g", UnitKind.MASS, 1, true, "gram", "gramme", "grams", "grammes");
+        atom("mol", UnitKind.AMOUNT, 1, true, "mole", "moles");
+        atom("s", UnitKind.TIME, 1, true, "sec", "second", "seconds");
+        atom("min", UnitKind.TIME, 60, false, "minute", "minutes");
+        atom("h", UnitKind.TIME, 3600, false, "hr", "hour", "hours");
+        atom("d", UnitKind.TIME, 86400, false, "day", "days");
+        atom("wk", UnitKind.TIME, 604800, false, "week", "weeks");
+        // Mean Julian month and year, as defined by UCUM
+        atom("mo", UnitKind.TIME, 2629800, false, "month", "months");
+        atom("a", UnitKind.TIME, 31557600, false, "year", "years");
+
+        List<Prefix> prefixes = new ArrayList<>();
+        prefix(prefixes, "k", 1e3, "kilo");
+        prefix(prefixes, "d", 1e-1, "deci");
+        prefix(prefixes, "c", 1e-2, "centi");
+        prefix(prefixes, "m", 1e-3, "milli");
+        prefix(prefixes, "u", 1e-6, "micro", "mc", "µ", "μ");
+        prefix(prefixes, "n", 1e-9, "nano");
+        prefixes.sort((a, b) -> b.name.length() - a.name.length());
+        PREFIXES = prefixes.toArray(new Prefix[0]);
+    }
+
+    private UnitCanonicalizer() {
+    }
+
+    /**
+     * Get the canonical form of a unit expression
+     *
+     * @param unit The unit expression
+     * @return The canonical form, e.g. "ml/h", or null if the unit is null
+     */
+    public static String normalize(String unit) {
+        CanonicalUnit canonical = canonicalize(unit);
+        return canonical != null ? canonical.getCanonical() : null;
+    }
+
+    /**
+     * Parse a unit expression
+     *
+     * @param unit The unit expression
+     * @return The parsed unit, or null if the unit is null
+     */
+    public static CanonicalUnit canonicalize(String unit) {
+        if (unit == null) {
+            return null;
+        }
+        CanonicalUnit canonical = CACHE.get(unit);
+        if (canonical != null) {
+            return canonical;
+        }
+
+        ConversionEvent event = ConversionEvent.start();
+        canonical = parse(unit);
+        ConversionEvent.end(event, "unitCanonicalize", unit, canonical.getCanonical());
+        if (CACHE.size() < MAX_ENTRIES) {
+            CanonicalUnit existing = CACHE.putIfAbsent(unit, canonical);
+            if (existing != null) {
+                return existing;
+            }
+        }
+        return canonical;
+    }
+
+    /**
+     * Parse the quotient of two unit expressions, equivalent to canonicalizing
+     * {@code numerator + "/(" + denominator + ")"} without building that string on every call
+     *
+     * @param numerator The numerator unit, e.g. "mL"
+     * @param denominator The denominator unit, e.g. "h" or "kg.h"
+     * @return The parsed quotient, e.g. "ml/h"; a null unit is read as the text "null"
+     */
+    public static CanonicalUnit canonicalizeRatio(String numerator, String denominator) {
+        return canonicalize(String.valueOf(numerator)).per(canonicalize(String.valueOf(denominator)));
+    }
+
+    private static CanonicalUnit parse(String unit) {
+        List<CanonicalUnit.Term> terms = new ArrayList<>();
+        StringBuilder token = new StringBuilder();
+        // Sign applied to the terms of each parenthesis level
+        int[] groupSigns = new int[MAX_DEPTH];
+        groupSigns[0] = 1;
+        int depth = 0;
+        // Sign of the next term: -1 right after '/'
+        int sign = 1;
+        boolean malformed = false;
+
+        for (int i = 0, n = unit.length(); i < n && !malformed; i++) {
+            char c = Character.toLowerCase(unit.charAt(i));
+            switch (c) {
+                case '{':
+                    int end = unit.indexOf('}', i);
+                    if (end < 0) {
+                        malformed = true;
+                    } else {
+                        i = end;
+                    }
+                    break;
+                case '/':
+                    term(token, terms, sign * groupSigns[depth]);
+                    sign = -1;
+                    break;
+                case '.':
+                case '*':
+                    term(token, terms, sign * groupSigns[depth]);
+                    sign = 1;
+                    break;
+                case '(':
+                    if (term(token, terms, sign * groupSigns[depth])) {
+                        sign = 1;
+                    }
+                    if (depth + 1 == MAX_DEPTH) {
+                        malformed = true;
+                    } else {
+                        groupSigns[depth + 1] = sign * groupSigns[depth];
+                        depth++;
+                        sign = 1;
+                    }
+                    break;
+                case ')':
+                    term(token, terms, sign * groupSigns[depth]);
+                    sign = 1;
+                    if (depth == 0) {
+                        malformed = true;
+                    } else {
+                        depth--;
+                    }
+                    break;
+                default:
+                    if (Character.isWhitespace(c)) {
+                        // Whitespace only ends a term; "per" reads as '/'
+                        if (token.length() == 3 && token.indexOf("per") == 0) {
+                            token.setLength(0);
+                            sign = -1;
+                        } else if (term(token, terms, sign * groupSigns[depth])) {
+                            sign = 1;
+                        }
+                    } else {
+                        token.append(c);
+                    }
+            }
+        }
+        term(token, terms, sign * groupSigns[depth]);
+
+        if (malformed || depth != 0) {
+            // Keep the input comparable as before, but never treat it as a known unit
+            String fallback = unit.trim().toLowerCase().replaceAll("\\s*/\\s*", "/");
+            List<CanonicalUnit.Term> unknown = new ArrayList<>();
+            unknown.add(new CanonicalUnit.Term(fallback, fallback, UnitKind.UNKNOWN, Double.NaN, 1));
+            return new CanonicalUnit(fallback, unknown);
+        }
+        return new CanonicalUnit(format(terms), terms);
+    }
+
+    /**
+     * Converts the collected token into a term, if there is one
+     *
+     * @return true if a term was added
+     */
+    private static boolean term(StringBuilder token, List<CanonicalUnit.Term> terms, int sign) {
+        int length = token.length();
+        if (length == 0) {
+            return false;
+        }
+
+        // Trailing exponent such as "-1" or "2", only after at least one non-digit
+        int exponentStart = length;
+        while (exponentStart > 0 && Character.isDigit(token.charAt(exponentStart - 1))) {
+            exponentStart--;
+        }
+        if (exponentStart < length && exponentStart > 0
+            && (token.charAt(exponentStart - 1) == '-' || token.charAt(exponentStart - 1) == '+')) {
+            exponentStart--;
+        }
+
+        String name;
+        int exponent = 1;
+        if (exponentStart == 0 || exponentStart == length) {
+            name = token.toString();
+        } else {
+            name = token.substring(0, exponentStart);
+            try {
+                exponent = Integer.parseInt(token.substring(exponentStart));
+            } catch (NumberFormatException e) {
+                name = token.toString();
+            }
+        }
+        token.setLength(0);
+        exponent *= sign;
+
+        if (exponent == 0) {
+            return true;
+        }
+        if (isNumber(name)) {
+            // The unity in "1/d" carries no information
+            if (!name.equals("1")) {
+                terms.add(new CanonicalUnit.Term(name, name, UnitKind.DIMENSIONLESS, Double.parseDouble(name), exponent));
+            }
+            return true;
+        }
+
+        Atom atom = ATOMS.get(name);
+        if (atom != null) {
+            terms.add(new CanonicalUnit.Term(atom.symbol, atom.symbol, atom.kind, atom.factor, exponent));
+            return true;
+        }
+        for (Prefix prefix : PREFIXES) {
+            if (name.length() > prefix.name.length() && name.startsWith(prefix.name)) {
+                atom = ATOMS.get(name.substring(prefix.name.length()));
+                if (atom != null && atom.metric) {
+                    terms.add(new CanonicalUnit.Term(prefix.symbol + atom.symbol, atom.symbol, atom.kind,
+                                                     prefix.factor * atom.factor, exponent));
+                    return true;
+                }
+            }
+        }
+        terms.add(new CanonicalUnit.Term(name, name, UnitKind.UNKNOWN, Double.NaN, exponent));
+        return true;
+    }
+
+    private static String format(List<CanonicalUnit.Term> terms) {
+        StringBuilder sb = new StringBuilder();
+        for (CanonicalUnit.Term term : terms) {
+            if (term.getExponent() > 0) {
+                if (sb.length() > 0) {
+                    sb.append('.');
+                }
+                sb.append(term.getSymbol());
+                if (term.getExponent() != 1) {
+                    sb.append(term.getExponent());
+                }
+            }
+        }
+        if (sb.length() == 0 && !terms.isEmpty()) {
+            sb.append('1');
+        }
+        for (CanonicalUnit.Term term : terms) {
+            if (term.getExponent() < 0) {
+                sb.append('/').append(term.getSymbol());
+                if (term.getExponent() != -1) {
+                    sb.append(-term.getExponent());
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    private static boolean isNumber(String name) {
+        for (int i = 0; i < name.length(); i++) {
+            if (!Character.isDigit(name.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void atom(String symbol, UnitKind kind, double factor, boolean metric, String... names) {
+        Atom atom = new Atom(symbol, kind, factor, metric);
+        ATOMS.put(symbol, atom);
+        for (String name : names) {
+            ATOMS.put(name, atom);
+        }
+    }
+
+    private static void prefix(List<Prefix> prefixes, String symbol, double factor, String... names) {
+        prefixes.add(new Prefix(symbol, symbol, factor));
+        for (String name : names) {
+            prefixes.add(new Prefix(name, symbol, factor));
+        }
+    }
+
+    private static final class Atom {
+        final String symbol;
+        final UnitKind kind;
+        final double factor;
+        // Whether metric prefixes may be applied
+        final boolean metric;
+
+        Atom(String symbol, UnitKind kind, double factor, boolean metric) {
+            this.symbol = symbol;
+            this.kind = kind;
+            this.factor = factor;
+            this.metric = metric;
+        }
+    }
+
+    private static final class Prefix {
+        final String name;
+        final String symbol;
+        final double factor;
+
+        Prefix(String name, String symbol, double factor) {
+            this.name = name;
+            this.symbol = symbol;
+            this.factor = factor;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.medblocks.plugins.unit;
+
+/**
+ * The kind of quantity a unit atom measures, each with the base unit its conversion factor refers to
+ */
+public enum UnitKind {
+    // Base unit: l
+    VOLUME,
+    // Base unit: g
+    MASS,
+    // Base unit: mol
+    AMOUNT,
+    // Base unit: s
+    TIME,
+    // Plain numbers such as the 10 in "10.ml"
+    DIMENSIONLESS,
+    // Atoms missing from the token table
+    UNKNOWN
+}
@@ -0,0 +1,170 @@
+package com.medblocks.plugins;
+
+import com.medblocks.plugins.composition.FlatCompositionSink;
+import com.medblocks.plugins.handler.DosageCompositeHandler;
+import com.medblocks.plugins.handler.DosageDurationHandler;
+import com.medblocks.plugins.handler.DosageQuantityToRangeHandler;
+import com.medblocks.plugins.handler.MappingHandlerRegistry;
+import com.medblocks.plugins.handler.RatioToDvQuantityHandler;
+import com.medblocks.plugins.handler.TimingToDailyHandler;
+import org.hl7.fhir.r4.model.Dosage;
+import org.hl7.fhir.r4.model.Quantity;
+import org.hl7.fhir.r4.model.Range;
+import org.hl7.fhir.r4.model.Ratio;
+import org.hl7.fhir.r4.model.SimpleQuantity;
+import org.hl7.fhir.r4.model.Timing;
+import org.hl7.fhir.r4.model.Timing.UnitsOfTime;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Allocation budgets for the FHIR to OpenEHR hot path.
+ *
+ * Every mapping code is run into a sink that discards the values, so only the allocations of
+ * the plugin itself are measured, not those of the target composition. After warm-up the
+ * bytes allocated per call are read from {@link com.sun.management.ThreadMXBean} and compared
+ * against the budget of the mapping code. A mapping change that starts allocating on every
+ * call fails this test; raise a budget only together with the reason in the change.
+ *
+ * Tagged {@value #TAG}, so that Maven runs it alone in a fresh JVM (see the surefire
+ * configuration in the pom) where the JIT decisions do not depend on other test classes.
+ */
+@Tag(AllocationBudgetTest.TAG)
+public class AllocationBudgetTest {
+
+    static final String TAG = "allocation";
+
+    private static final int WARMUP_ITERATIONS = 200_000;
+    private static final int MEASURED_ITERATIONS = 20_000;
+    private static final int ROUNDS = 10;
+
+    private static final CustomMapping.TestFormatConverter converter = new CustomMapping.TestFormatConverter();
+
+    @Test
+    public void testMappingCodesStayWithinAllocationBudgets() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assertTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        Map<String, Budget> budgets = budgets();
+        assertTrue(budgets.keySet().containsAll(MappingHandlerRegistry.builtIn().getMappingCodes()),
+                   "Every mapping code needs a budget");
+
+        NoOpSink sink = new NoOpSink();
+        for (Map.Entry<String, Budget> entry : budgets.entrySet()) {
+            Budget budget = entry.getValue();
+            for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+                map(budget, sink);
+            }
+
+            // The lowest round filters out allocations by the JIT compiler and other noise
+            long best = Long.MAX_VALUE;
+            long threadId = Thread.currentThread().getId();
+            for (int round = 0; round < ROUNDS; round++) {
+                long before = threads.getThreadAllocatedBytes(threadId);
+                for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+                    map(budget, sink);
+                }
+                best = Math.min(best, (threads.getThreadAllocatedBytes(threadId) - before) / MEASURED_ITERATIONS);
+            }
+
+            assertTrue(best <= budget.bytesPerCall,
+                       entry.getKey() + " allocates " + best + " bytes per call, budget is " + budget.bytesPerCall);
+        }
+        assertTrue(sink.values > 0);
+    }
+
+    private static void map(Budget budget, NoOpSink sink) {
+        if (!converter.applyFhirToOpenEhrMapping(budget.mappingCode, "medication/dosage", budget.fhirValue,
+                                                 budget.openEhrType, sink)) {
+            throw new IllegalStateException("Not mapped: " + budget.mappingCode);
+        }
+    }
+
+    /**
+     * The budgets, one representative input per mapping code
+     */
+    private static Map<String, Budget> budgets() {
+        Map<String, Budget> budgets = new LinkedHashMap<>();
+
+        Timing timing = new Timing();
+        timing.getRepeat().setFrequency(2).setFrequencyMax(3).setPeriod(1).setPeriodUnit(UnitsOfTime.D)
+            .setCount(10).addTimeOfDay("08:00:00");
+        // Timing.hasRepeat() allocates the varargs array of ElementUtil.isEmpty, hasTimeOfDay() an iterator
+        budgets.put(TimingToDailyHandler.MAPPING_CODE, new Budget(TimingToDailyHandler.MAPPING_CODE, timing, "CLUSTER", 128));
+
+        Timing.TimingRepeatComponent duration = new Timing.TimingRepeatComponent();
+        duration.setDuration(1).setDurationMax(2).setDurationUnit(UnitsOfTime.H);
+        budgets.put(DosageDurationHandler.MAPPING_CODE, new Budget(DosageDurationHandler.MAPPING_CODE, duration, "DV_DURATION", 0));
+
+        Dosage.DosageDoseAndRateComponent rate = new Dosage.DosageDoseAndRateComponent();
+        Ratio ratio = new Ratio();
+        ratio.setNumerator(new Quantity().setValue(100).setUnit("mL"));
+        ratio.setDenominator(new Quantity().setValue(1).setUnit("h"));
+        rate.setRate(ratio);
+        budgets.put(RatioToDvQuantityHandler.MAPPING_CODE, new Budget(RatioToDvQuantityHandler.MAPPING_CODE, rate, "DV_QUANTITY", 0));
+
+        Range range = new Range();
+        range.setLow(new SimpleQuantity().setValue(1).setUnit("tablet"));
+        range.setHigh(new SimpleQuantity().setValue(2).setUnit("tablet"));
+        // Range.hasLow() and hasHigh() allocate the varargs array of ElementUtil.isEmpty
+        budgets.put(DosageQuantityToRangeHandler.MAPPING_CODE, new Budget(DosageQuantityToRangeHandler.MAPPING_CODE, range, "DV_QUANTITY", 96));
+
+        Dosage dosage = new Dosage();
+        dosage.setTiming(timing.copy());
+        dosage.getTiming().getRepeat().setDuration(1).setDurationUnit(UnitsOfTime.H);
+        dosage.addDoseAndRate().setDose(range.copy()).setRate(ratio.copy());
+        // The timing part, plus the arrays returned by getProperty for timing, repeat and doseAndRate
+        // (24 bytes each; getProperty is too large to be inlined, so they are not scalar-replaced)
+        budgets.put(DosageCompositeHandler.MAPPING_CODE, new Budget(DosageCompositeHandler.MAPPING_CODE, dosage, "CLUSTER", 160));
+
+        return budgets;
+    }
+
+    private static final class Budget {
+        final String mappingCode;
+        final Object fhirValue;
+        final String openEhrType;
+        final long bytesPerCall;
+
+        Budget(String mappingCode, Object fhirValue, String openEhrType, long bytesPerCall) {
+            this.mappingCode = mappingCode;
+            this.fhirValue = fhirValue;
+            this.openEhrType = openEhrType;
+            this.bytesPerCall = bytesPerCall;
+        }
+    }
+
+    /**
+     * Discards all values, counting them so that the calls cannot be optimized away
+     */
+    private static final class NoOpSink implements FlatCompositionSink {
+        long values;
+
+        @Override
+        public void put(String key, String value) {
+            values++;
+        }
+
+        @Override
+        public void put(String key, double value) {
+            values++;
+        }
+
+        @Override
+        public void put(String key, int value) {
+            values++;
+        }
+
+        @Override
+        public void put(String key, boolean value) {
+            values++;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.medblocks.plugins;
+
+import com.google.gson.JsonObject;
+import com.medblocks.plugins.handler.DosageDurationHandler;
+import com.medblocks.plugins.handler.DosageQuantityToRangeHandler;
+import org.hl7.fhir.r4.model.Range;
+import org.hl7.fhir.r4.model.SimpleQuantity;
+import org.hl7.fhir.r4.model.Timing;
+import org.hl7.fhir.r4.model.Timing.UnitsOfTime;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AsyncFormatConverterTest {
+
+    private static final int CALLS = 200;
+
+    @Test
+    public void testCallsAgainstOneCompositionRunInSubmissionOrder() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try (AsyncFormatConverter async = new AsyncFormatConverter(new CustomMapping.TestFormatConverter(), executor)) {
+            JsonObject shared = new JsonObject();
+            JsonObject other = new JsonObject();
+            List<CompletableFuture<Boolean>> futures = new ArrayList<>();
+            for (int i = 1; i <= CALLS; i++) {
+                // Every call writes the same key, so only the last submitted value may remain
+                futures.add(async.applyFhirToOpenEhrMapping(DosageDurationHandler.MAPPING_CODE, "async/duration",
+                                                            duration(i), "DV_DURATION", shared));
+                futures.add(async.applyFhirToOpenEhrMapping(DosageDurationHandler.MAPPING_CODE, "async/duration",
+                                                            duration(1), "DV_DURATION", other));
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get(30, TimeUnit.SECONDS);
+
+            for (CompletableFuture<Boolean> future : futures) {
+                assertTrue(future.join());
+            }
+            JsonObject expected = new JsonObject();
+            new CustomMapping.TestFormatConverter().applyFhirToOpenEhrMapping(
+                DosageDurationHandler.MAPPING_CODE, "async/duration", duration(CALLS), "DV_DURATION", expected);
+            assertEquals(expected, shared);
+            assertEquals(1, other.size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testReverseMappingSeesPrecedingBatch() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try (AsyncFormatConverter async = new AsyncFormatConverter(new CustomMapping.TestFormatConverter(), executor)) {
+            Range dose = new Range();
+            dose.setLow(new SimpleQuantity().setValue(1).setUnit("tablet"));
+            dose.setHigh(new SimpleQuantity().setValue(2).setUnit("tablet"));
+            List<MappingRequest> requests = List.of(
+                new MappingRequest(DosageQuantityToRangeHandler.MAPPING_CODE, "async/dose", dose, "DV_QUANTITY"),
+                new MappingRequest(DosageDurationHandler.MAPPING_CODE, "async/duration", duration(2), "DV_DURATION"),
+                new MappingRequest("asyncUnknownCode", "async/unknown", dose, "DV_QUANTITY"));
+
+            JsonObject composition = new JsonObject();
+            CompletableFuture<BatchResult> batch = async.applyFhirToOpenEhrMappings(requests, composition);
+            CompletableFuture<Object> reverse = async.applyOpenEhrToFhirMapping(
+                DosageQuantityToRangeHandler.MAPPING_CODE, "async/dose", composition, null, null);
+
+            Object range = reverse.get(30, TimeUnit.SECONDS);
+            BatchResult result = batch.join();
+            assertEquals(2, result.getMappedCount());
+            assertFalse(result.isMapped(2));
+            assertNotNull(range);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testCancelledCallStillBlocksTheNextOne() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger running = new AtomicInteger();
+        AtomicBoolean overlapped = new AtomicBoolean();
+        CustomMapping.TestFormatConverter converter = new CustomMapping.TestFormatConverter() {
+            @Override
+            public boolean applyFhirToOpenEhrMapping(String mappingCode, String openEhrPath, Object fhirValue,
+                                                     String openEhrType, Object flatComposition) {
+                if (running.incrementAndGet() > 1) {
+                    overlapped.set(true);
+                }
+                try {
+                    if (openEhrPath.equals("async/slow")) {
+                        started.countDown();
+                        release.await(30, TimeUnit.SECONDS);
+                    }
+                    return super.applyFhirToOpenEhrMapping(mappingCode, openEhrPath, fhirValue, openEhrType, flatComposition);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                } finally {
+                    running.decrementAndGet();
+                }
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try (AsyncFormatConverter async = new AsyncFormatConverter(converter, executor)) {
+            JsonObject composition = new JsonObject();
+            CompletableFuture<Boolean> slow = async.applyFhirToOpenEhrMapping(DosageDurationHandler.MAPPING_CODE, "async/slow",
+                                                                              duration(1), "DV_DURATION", composition);
+            assertTrue(started.await(30, TimeUnit.SECONDS));
+            assertTrue(slow.cancel(true));
+
+            CompletableFuture<Boolean> next = async.applyFhirToOpenEhrMapping(DosageDurationHandler.MAPPING_CODE, "async/next",
+                                                                              duration(2), "DV_DURATION", composition);
+            assertThrows(TimeoutException.class, () -> next.get(200, TimeUnit.MILLISECONDS));
+
+            release.countDown();
+            assertTrue(next.get(30, TimeUnit.SECONDS));
+            assertFalse(overlapped.get());
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testDefaultExecutor() throws Exception {
+        try (AsyncFormatConverter async = new AsyncFormatConverter()) {
+            JsonObject composition = new JsonObject();
+            assertTrue(async.applyFhirToOpenEhrMapping(DosageDurationHandler.MAPPING_CODE, "async/duration",
+                                                       duration(3), "DV_DURATION", composition)
+                           .get(30, TimeUnit.SECONDS));
+        }
+
+        ExecutorService pool = AsyncFormatConverter.createExecutor(2);
+        try {
+            assertEquals("custom-mapping-async-1", pool.submit(() -> Thread.currentThread().getName()).get());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static Timing.TimingRepeatComponent duration(int hours) {
+        return new Timing.TimingRepeatComponent().setDuration(hours).setDurationUnit(UnitsOfTime.H);
+    }
+}
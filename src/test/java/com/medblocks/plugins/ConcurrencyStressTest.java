@@ -0,0 +1,363 @@
+package com.medblocks.plugins;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.medblocks.plugins.composition.JsonWriterSink;
+import com.medblocks.plugins.diagnostics.MappingDiagnostics;
+import com.medblocks.plugins.handler.DosageCompositeHandler;
+import com.medblocks.plugins.handler.DosageDurationHandler;
+import com.medblocks.plugins.handler.DosageQuantityToRangeHandler;
+import com.medblocks.plugins.handler.MappingHandlerRegistry;
+import com.medblocks.plugins.handler.RatioToDvQuantityHandler;
+import com.medblocks.plugins.handler.TimingToDailyHandler;
+import org.hl7.fhir.r4.model.Dosage;
+import org.hl7.fhir.r4.model.Quantity;
+import org.hl7.fhir.r4.model.Range;
+import org.hl7.fhir.r4.model.Ratio;
+import org.hl7.fhir.r4.model.SimpleQuantity;
+import org.hl7.fhir.r4.model.Timing;
+import org.hl7.fhir.r4.model.Timing.UnitsOfTime;
+import org.junit.jupiter.api.Test;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Stress tests for calling one {@link CustomMapping.TestFormatConverter} from many threads.
+ *
+ * Like jcstress tests, every test tallies the outcomes observed by the threads and fails if any
+ * outcome outside the acceptable set was seen. The acceptable outcome is always the result of
+ * the same mapping run on a single thread.
+ */
+public class ConcurrencyStressTest {
+
+    private static final int THREADS = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+    private static final int ITERATIONS = 500;
+    private static final String ACCEPTABLE = "expected result";
+
+    private static final CustomMapping.TestFormatConverter converter = new CustomMapping.TestFormatConverter();
+
+    // Outcomes recorded by the task running on the current thread
+    private static final ThreadLocal<Outcomes> currentOutcomes = new ThreadLocal<>();
+
+    /**
+     * One input per built-in mapping code. HAPI getters create missing children on access,
+     * so every thread maps its own FHIR values.
+     */
+    private static final Case[] CASES = {
+        new Case(TimingToDailyHandler.MAPPING_CODE, "timing", "CLUSTER", () -> {
+            Timing timing = new Timing();
+            timing.getRepeat().setFrequency(2).setPeriod(1.5).setPeriodUnit(UnitsOfTime.H).addTimeOfDay("0800");
+            return timing;
+        }),
+        new Case(TimingToDailyHandler.MAPPING_CODE, "ranges", "CLUSTER", () -> {
+            Timing timing = new Timing();
+            timing.getRepeat().setFrequency(1).setFrequencyMax(2).setPeriod(6).setPeriodMax(8)
+                .setPeriodUnit(UnitsOfTime.H).setCount(10);
+            return timing;
+        }),
+        new Case(DosageDurationHandler.MAPPING_CODE, "duration", "DV_DURATION", () -> {
+            Timing.TimingRepeatComponent repeat = new Timing.TimingRepeatComponent();
+            return repeat.setDuration(1).setDurationMax(2).setDurationUnit(UnitsOfTime.H);
+        }),
+        new Case(RatioToDvQuantityHandler.MAPPING_CODE, "rate", "DV_QUANTITY", () -> {
+            Dosage.DosageDoseAndRateComponent doseAndRate = new Dosage.DosageDoseAndRateComponent();
+            Ratio ratio = new Ratio();
+            ratio.setNumerator(new Quantity().setValue(100).setUnit("milliliter"));
+            ratio.setDenominator(new Quantity().setValue(1).setUnit("hour"));
+            return doseAndRate.setRate(ratio);
+        }),
+        new Case(DosageQuantityToRangeHandler.MAPPING_CODE, "dose", "DV_QUANTITY", () -> {
+            Range range = new Range();
+            range.setLow(new SimpleQuantity().setValue(1).setUnit("tablet"));
+            range.setHigh(new SimpleQuantity().setValue(2).setUnit("tablet"));
+            return range;
+        }),
+        new Case(DosageCompositeHandler.MAPPING_CODE, "dosage", "CLUSTER", () -> {
+            Dosage dosage = new Dosage();
+            dosage.getTiming().getRepeat().setFrequency(3).setPeriod(1).setPeriodUnit(UnitsOfTime.D)
+                .setDuration(30).setDurationUnit(UnitsOfTime.MIN);
+            Dosage.DosageDoseAndRateComponent doseAndRate = dosage.addDoseAndRate();
+            doseAndRate.setDose(new SimpleQuantity().setValue(500).setUnit("mg"));
+            Ratio ratio = new Ratio();
+            ratio.setNumerator(new Quantity().setValue(50).setUnit("mL"));
+            ratio.setDenominator(new Quantity().setValue(1).setUnit("h"));
+            doseAndRate.setRate(ratio);
+            return dosage;
+        }),
+    };
+
+    @Test
+    public void testCasesCoverAllMappingCodes() {
+        List<String> covered = new ArrayList<>();
+        for (Case c : CASES) {
+            covered.add(c.mappingCode);
+        }
+        assertTrue(covered.containsAll(MappingHandlerRegistry.builtIn().getMappingCodes()));
+    }
+
+    @Test
+    public void testPerThreadCompositions() throws Exception {
+        JsonObject expected = mapAll("p");
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            Outcomes outcomes = run(executor, THREADS, thread -> {
+                for (int i = 0; i < ITERATIONS; i++) {
+                    outcome(mapAll("p"), expected);
+                }
+            });
+            outcomes.assertOnlyAcceptable(THREADS * ITERATIONS);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testPerThreadCompositionsOnVirtualThreads() throws Exception {
+        ExecutorService executor = newVirtualThreadExecutor();
+        assumeTrue(executor != null, "Virtual threads need JDK 21 or later");
+
+        JsonObject expected = mapAll("p");
+        int threads = THREADS * 16;
+        try {
+            Outcomes outcomes = run(executor, threads, thread -> {
+                for (int i = 0; i < ITERATIONS / 10; i++) {
+                    outcome(mapAll("p"), expected);
+                }
+            });
+            outcomes.assertOnlyAcceptable(threads * (ITERATIONS / 10));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testSharedComposition() throws Exception {
+        int compositionsPerThread = ITERATIONS / 5;
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            // Every thread writes its own paths into one composition
+            JsonObject shared = new JsonObject();
+            run(executor, THREADS, thread -> {
+                for (int i = 0; i < compositionsPerThread; i++) {
+                    mapAll("t" + thread + "i" + i, shared);
+                }
+            }).assertNoFailures();
+
+            Map<String, JsonObject> byPrefix = new TreeMap<>();
+            for (Map.Entry<String, JsonElement> entry : shared.entrySet()) {
+                String prefix = entry.getKey().substring(0, entry.getKey().indexOf('/'));
+                byPrefix.computeIfAbsent(prefix, key -> new JsonObject()).add(entry.getKey(), entry.getValue());
+            }
+            Outcomes outcomes = new Outcomes();
+            for (int thread = 0; thread < THREADS; thread++) {
+                for (int i = 0; i < compositionsPerThread; i++) {
+                    String prefix = "t" + thread + "i" + i;
+                    JsonObject own = byPrefix.getOrDefault(prefix, new JsonObject());
+                    outcomes.record(own.equals(mapAll(prefix)) ? ACCEPTABLE : "lost or corrupted writes");
+                }
+            }
+            outcomes.assertOnlyAcceptable(THREADS * compositionsPerThread);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testSharedCompositionSamePaths() throws Exception {
+        JsonObject expected = mapAll("p");
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            Outcomes outcomes = new Outcomes();
+            for (int round = 0; round < 50; round++) {
+                // All threads race to write the same keys with the same values
+                JsonObject shared = new JsonObject();
+                run(executor, THREADS, thread -> mapAll("p", shared)).assertNoFailures();
+                outcomes.record(shared.equals(expected) ? ACCEPTABLE : "unexpected result: " + shared);
+            }
+            outcomes.assertOnlyAcceptable(50);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testSharedSink() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            StringWriter out = new StringWriter();
+            JsonWriterSink sink = JsonWriterSink.to(out);
+            run(executor, THREADS, thread -> {
+                for (int i = 0; i < ITERATIONS / 5; i++) {
+                    mapAll("t" + thread + "i" + i, sink);
+                }
+            }).assertNoFailures();
+            sink.close();
+
+            JsonObject written = JsonParser.parseString(out.toString()).getAsJsonObject();
+            JsonObject expected = new JsonObject();
+            for (int thread = 0; thread < THREADS; thread++) {
+                for (int i = 0; i < ITERATIONS / 5; i++) {
+                    for (Map.Entry<String, JsonElement> entry : mapAll("t" + thread + "i" + i).entrySet()) {
+                        expected.add(entry.getKey(), entry.getValue());
+                    }
+                }
+            }
+            assertEquals(new TreeMap<>(expected.asMap()), new TreeMap<>(written.asMap()));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testSharedReverseMapping() throws Exception {
+        JsonObject shared = mapAll("p");
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            Outcomes outcomes = run(executor, THREADS, thread -> {
+                for (int i = 0; i < ITERATIONS; i++) {
+                    for (Case c : CASES) {
+                        Object result = converter.applyOpenEhrToFhirMapping(c.mappingCode, "p/" + c.name, shared, null, null);
+                        currentOutcomes.get().record(result != null ? ACCEPTABLE : "no result for " + c.name);
+                    }
+                }
+            });
+            outcomes.assertOnlyAcceptable(THREADS * ITERATIONS * CASES.length);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testCountersDoNotLoseUpdates() throws Exception {
+        Case c = CASES[0];
+        long before = MappingDiagnostics.forCode(c.mappingCode).getMapped();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            run(executor, THREADS, thread -> {
+                for (int i = 0; i < ITERATIONS; i++) {
+                    converter.applyFhirToOpenEhrMapping(c.mappingCode, "p", c.value.get(), c.openEhrType, new JsonObject());
+                }
+            }).assertNoFailures();
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals((long) THREADS * ITERATIONS, MappingDiagnostics.forCode(c.mappingCode).getMapped() - before);
+    }
+
+    /**
+     * Runs a task on the given number of threads, released together, and collects the outcomes
+     */
+    private static Outcomes run(ExecutorService executor, int threads, Task task) throws Exception {
+        Outcomes outcomes = new Outcomes();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            futures.add(executor.submit(() -> {
+                currentOutcomes.set(outcomes);
+                try {
+                    start.await();
+                    task.run(thread);
+                } catch (Throwable e) {
+                    outcomes.record("exception: " + e);
+                } finally {
+                    currentOutcomes.remove();
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(2, TimeUnit.MINUTES);
+        }
+        return outcomes;
+    }
+
+    private static void outcome(JsonObject actual, JsonObject expected) {
+        currentOutcomes.get().record(actual.equals(expected) ? ACCEPTABLE : "unexpected result: " + actual);
+    }
+
+    private static JsonObject mapAll(String prefix) {
+        JsonObject composition = new JsonObject();
+        mapAll(prefix, composition);
+        return composition;
+    }
+
+    private static void mapAll(String prefix, Object composition) {
+        for (Case c : CASES) {
+            if (!converter.applyFhirToOpenEhrMapping(c.mappingCode, prefix + "/" + c.name, c.value.get(),
+                                                     c.openEhrType, composition)) {
+                throw new IllegalStateException("Not mapped: " + c.name);
+            }
+        }
+    }
+
+    /**
+     * Creates an executor starting a virtual thread per task, through reflection so that the
+     * tests still compile for Java 17
+     *
+     * @return The executor, or null before JDK 21
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private interface Task {
+        void run(int thread) throws Exception;
+    }
+
+    private static final class Case {
+        final String mappingCode;
+        final String name;
+        final String openEhrType;
+        final Supplier<Object> value;
+
+        Case(String mappingCode, String name, String openEhrType, Supplier<Object> value) {
+            this.mappingCode = mappingCode;
+            this.name = name;
+            this.openEhrType = openEhrType;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Tally of observed outcomes, as reported by jcstress
+     */
+    private static final class Outcomes {
+        private final Map<String, LongAdder> counts = new ConcurrentHashMap<>();
+
+        void record(String outcome) {
+            counts.computeIfAbsent(outcome, key -> new LongAdder()).increment();
+        }
+
+        void assertOnlyAcceptable(long expectedCount) {
+            Map<String, Long> observed = new TreeMap<>();
+            counts.forEach((outcome, count) -> observed.put(outcome, count.sum()));
+            assertEquals(Map.of(ACCEPTABLE, expectedCount), observed, "Forbidden outcomes observed");
+        }
+
+        void assertNoFailures() {
+            counts.keySet().forEach(outcome -> assertEquals(ACCEPTABLE, outcome, "Forbidden outcome observed"));
+        }
+    }
+}
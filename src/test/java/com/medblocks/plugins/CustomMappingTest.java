@@ -0,0 +1,117 @@
+package com.medblocks.plugins;
+
+import com.google.gson.JsonObject;
+import com.medblocks.plugins.handler.DosageDurationHandler;
+import com.medblocks.plugins.handler.DosageQuantityToRangeHandler;
+import com.medblocks.plugins.handler.MappingHandler;
+import com.medblocks.plugins.handler.MappingHandlerRegistry;
+import org.hl7.fhir.r4.model.Range;
+import org.hl7.fhir.r4.model.SimpleQuantity;
+import org.hl7.fhir.r4.model.Timing;
+import org.hl7.fhir.r4.model.Timing.UnitsOfTime;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CustomMappingTest {
+
+    private static final String FAILING_CODE = "batchTestFailing";
+
+    private final CustomMapping.TestFormatConverter converter = new CustomMapping.TestFormatConverter();
+
+    @AfterEach
+    public void tearDown() {
+        MappingHandlerRegistry.install(MappingHandlerRegistry.builtIn());
+    }
+
+    @Test
+    public void testBatchResultsAreInRequestOrder() {
+        // Interleaved codes are grouped for mapping, but reported in request order
+        List<MappingRequest> requests = List.of(
+            new MappingRequest(DosageDurationHandler.MAPPING_CODE, "batch/duration1", duration(1), "DV_DURATION"),
+            new MappingRequest(DosageQuantityToRangeHandler.MAPPING_CODE, "batch/dose1", dose(), "DV_QUANTITY"),
+            new MappingRequest(DosageDurationHandler.MAPPING_CODE, "batch/duration2", new Range(), "DV_DURATION"),
+            new MappingRequest(DosageQuantityToRangeHandler.MAPPING_CODE, "batch/dose2", null, "DV_QUANTITY"),
+            new MappingRequest(DosageDurationHandler.MAPPING_CODE, "batch/duration3", duration(3), "DV_DURATION"));
+
+        JsonObject composition = new JsonObject();
+        BatchResult result = converter.applyFhirToOpenEhrMappings(requests, composition);
+        assertArrayEquals(new boolean[] {true, true, false, false, true}, result.toArray());
+        assertEquals(3, result.getMappedCount());
+        assertEquals("PT1H", composition.get("batch/duration1/duration_value|value").getAsString());
+        assertEquals("PT3H", composition.get("batch/duration3/duration_value|value").getAsString());
+    }
+
+    @Test
+    public void testUnknownCodesAndNullRequestsDoNotAffectOthers() {
+        List<MappingRequest> requests = Arrays.asList(
+            new MappingRequest("batchTestUnknown", "batch/unknown", duration(1), "DV_DURATION"),
+            null,
+            new MappingRequest(DosageDurationHandler.MAPPING_CODE, "batch/duration", duration(2), "DV_DURATION"),
+            new MappingRequest(null, "batch/none", duration(1), "DV_DURATION"));
+
+        JsonObject composition = new JsonObject();
+        BatchResult result = converter.applyFhirToOpenEhrMappings(requests, composition);
+        assertArrayEquals(new boolean[] {false, false, true, false}, result.toArray());
+        assertEquals(1, composition.size());
+    }
+
+    @Test
+    public void testUnsupportedCompositionMapsNothing() {
+        List<MappingRequest> requests = List.of(
+            new MappingRequest(DosageDurationHandler.MAPPING_CODE, "batch/duration", duration(1), "DV_DURATION"),
+            new MappingRequest(DosageQuantityToRangeHandler.MAPPING_CODE, "batch/dose", dose(), "DV_QUANTITY"));
+
+        BatchResult result = converter.applyFhirToOpenEhrMappings(requests, "not a composition");
+        assertArrayEquals(new boolean[] {false, false}, result.toArray());
+        assertFalse(converter.applyFhirToOpenEhrMappings(requests, null).isAllMapped());
+        assertEquals(0, converter.applyFhirToOpenEhrMappings(List.of(), new JsonObject()).size());
+    }
+
+    @Test
+    public void testFailingHandlerOnlyFailsItsOwnRequest() {
+        MappingHandlerRegistry.install(MappingHandlerRegistry.build(List.of(new MappingHandler() {
+            @Override
+            public String getMappingCode() {
+                return FAILING_CODE;
+            }
+
+            @Override
+            public boolean apply(String openEhrPath, Object fhirValue, String openEhrType, Object flatComposition) {
+                if ("batch/fail".equals(openEhrPath)) {
+                    throw new IllegalStateException("Test failure");
+                }
+                MappingUtils.setValueInJson(flatComposition, openEhrPath + "|value", "ok");
+                return true;
+            }
+        })));
+
+        List<MappingRequest> requests = List.of(
+            new MappingRequest(FAILING_CODE, "batch/fail", duration(1), "DV_TEXT"),
+            new MappingRequest(DosageDurationHandler.MAPPING_CODE, "batch/duration", duration(1), "DV_DURATION"),
+            new MappingRequest(FAILING_CODE, "batch/ok", duration(1), "DV_TEXT"));
+
+        JsonObject composition = new JsonObject();
+        BatchResult result = converter.applyFhirToOpenEhrMappings(requests, composition);
+        assertArrayEquals(new boolean[] {false, true, true}, result.toArray());
+        assertEquals("ok", composition.get("batch/ok|value").getAsString());
+        assertFalse(composition.has("batch/fail|value"));
+    }
+
+    private static Timing.TimingRepeatComponent duration(int hours) {
+        Timing.TimingRepeatComponent repeat = new Timing.TimingRepeatComponent();
+        repeat.setDuration(hours).setDurationUnit(UnitsOfTime.H);
+        return repeat;
+    }
+
+    private static Range dose() {
+        Range range = new Range();
+        range.setLow(new SimpleQuantity().setValue(1).setUnit("tablet"));
+        range.setHigh(new SimpleQuantity().setValue(2).setUnit("tablet"));
+        return range;
+    }
+}
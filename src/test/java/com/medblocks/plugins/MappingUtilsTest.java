@@ -0,0 +1,22 @@
+package com.medblocks.plugins;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MappingUtilsTest {
+
+    @Test
+    public void testParseDecimal() {
+        assertEquals(600.0, MappingUtils.parseDecimal("600.0"));
+        assertEquals(-1.5, MappingUtils.parseDecimal("-1.5"));
+        assertEquals(2000.0, MappingUtils.parseDecimal("2e3"));
+        assertEquals(0.5, MappingUtils.parseDecimal(".5"));
+        assertNull(MappingUtils.parseDecimal(null));
+        assertNull(MappingUtils.parseDecimal(""));
+        assertNull(MappingUtils.parseDecimal("-"));
+        assertNull(MappingUtils.parseDecimal("1e"));
+        assertNull(MappingUtils.parseDecimal("12mg"));
+        assertNull(MappingUtils.parseDecimal("NaN"));
+    }
+}
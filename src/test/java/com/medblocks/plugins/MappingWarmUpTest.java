@@ -0,0 +1,43 @@
+package com.medblocks.plugins;
+
+import com.medblocks.plugins.diagnostics.MappingCodeStats;
+import com.medblocks.plugins.diagnostics.MappingDiagnostics;
+import com.medblocks.plugins.handler.MappingHandlerRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MappingWarmUpTest {
+
+    private static final CustomMapping.TestFormatConverter converter = new CustomMapping.TestFormatConverter();
+
+    @Test
+    public void testEveryMappingCodeIsWarmedUpBothWays() {
+        Map<String, Long> before = new HashMap<>();
+        for (String code : MappingHandlerRegistry.builtIn().getMappingCodes()) {
+            before.put(code, MappingDiagnostics.forCode(code).getMapped());
+        }
+
+        assertTrue(MappingWarmUp.run(converter, 10));
+        assertTrue(MappingWarmUp.getLastDurationMillis() >= 0);
+
+        for (Map.Entry<String, Long> entry : before.entrySet()) {
+            MappingCodeStats stats = MappingDiagnostics.forCode(entry.getKey());
+            // One forward and one reverse call per round, both mapped
+            assertEquals(entry.getValue() + 20, stats.getMapped(), entry.getKey());
+        }
+    }
+
+    @Test
+    public void testInterruptedWarmUpStops() {
+        Thread.currentThread().interrupt();
+        try {
+            assertFalse(MappingWarmUp.run(converter, 1_000_000));
+        } finally {
+            Thread.interrupted();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.medblocks.plugins.cache;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LruCacheTest {
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        // A single stripe makes the eviction order exact
+        LruCache<String, Integer> cache = new LruCache<>(1);
+        cache.put("a", 1);
+        assertEquals(1, cache.get("a"));
+        cache.put("b", 2);
+        assertNull(cache.get("a"));
+        assertEquals(2, cache.get("b"));
+        assertEquals(1, cache.getEvictions());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testBoundedSize() {
+        LruCache<Integer, Integer> cache = new LruCache<>(64);
+        for (int i = 0; i < 10_000; i++) {
+            cache.put(i, i);
+            // Keep the first key hot so it survives in its stripe
+            assertEquals(0, cache.get(0));
+        }
+        assertTrue(cache.size() <= 64, "size " + cache.size());
+        assertEquals(10_000 - cache.size(), cache.getEvictions());
+
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testNeverExceedsMaxEntries() {
+        // Not a multiple of the stripe count
+        LruCache<Integer, Integer> cache = new LruCache<>(10);
+        for (int i = 0; i < 1_000; i++) {
+            cache.put(i, i);
+        }
+        assertEquals(10, cache.getMaxEntries());
+        assertTrue(cache.size() <= 10, "size " + cache.size());
+    }
+
+    @Test
+    public void testDisabled() {
+        LruCache<String, Integer> cache = new LruCache<>(0);
+        cache.put("a", 1);
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getMaxEntries());
+    }
+}
@@ -0,0 +1,88 @@
+package com.medblocks.plugins.composition;
+
+import com.google.gson.JsonObject;
+import com.medblocks.plugins.CustomMapping;
+import com.medblocks.plugins.handler.DosageCompositeHandler;
+import org.hl7.fhir.r4.model.Dosage;
+import org.hl7.fhir.r4.model.Quantity;
+import org.hl7.fhir.r4.model.Range;
+import org.hl7.fhir.r4.model.Ratio;
+import org.hl7.fhir.r4.model.SimpleQuantity;
+import org.hl7.fhir.r4.model.Timing.UnitsOfTime;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CompactFlatCompositionTest {
+
+    @Test
+    public void testMappingOutputMatchesJsonObject() throws IOException {
+        Dosage dosage = new Dosage();
+        dosage.getTiming().getRepeat().setFrequency(2).setPeriod(1).setPeriodUnit(UnitsOfTime.D)
+            .setDuration(1.5).setDurationUnit(UnitsOfTime.H).setCount(10).addTimeOfDay("08:00");
+        Ratio rate = new Ratio();
+        rate.setNumerator(new Quantity().setValue(100).setUnit("mL"));
+        rate.setDenominator(new Quantity().setValue(1).setUnit("h"));
+        Range dose = new Range();
+        dose.setLow(new SimpleQuantity().setValue(1).setUnit("tablet"));
+        dose.setHigh(new SimpleQuantity().setValue(2).setUnit("tablet"));
+        dosage.addDoseAndRate().setDose(dose).setRate(rate);
+
+        CustomMapping.TestFormatConverter converter = new CustomMapping.TestFormatConverter();
+        JsonObject json = new JsonObject();
+        CompactFlatComposition compact = new CompactFlatComposition();
+        assertTrue(converter.applyFhirToOpenEhrMapping(DosageCompositeHandler.MAPPING_CODE, "compact/dosage",
+                                                       dosage, "CLUSTER", json));
+        assertTrue(converter.applyFhirToOpenEhrMapping(DosageCompositeHandler.MAPPING_CODE, "compact/dosage",
+                                                       dosage, "CLUSTER", compact));
+
+        assertEquals(json.size(), compact.size());
+        assertEquals(json, compact.toJsonObject());
+
+        StringWriter out = new StringWriter();
+        compact.writeTo(out);
+        assertEquals(json.toString(), out.toString());
+    }
+
+    @Test
+    public void testValuesKeepTheirType() {
+        CompactFlatComposition compact = new CompactFlatComposition(2);
+        compact.put("a|magnitude", 2.5);
+        compact.put("a|count", 3);
+        compact.put("a|unit", "ml/h");
+        compact.put("a|flag", true);
+        compact.put("a|none", (String) null);
+
+        assertEquals(2.5, compact.get("a|magnitude"));
+        assertEquals(3, compact.get("a|count"));
+        assertEquals("ml/h", compact.get("a|unit"));
+        assertEquals(true, compact.get("a|flag"));
+        assertTrue(compact.has("a|none"));
+        assertNull(compact.get("missing"));
+        assertEquals("{\"a|magnitude\":2.5,\"a|count\":3,\"a|unit\":\"ml/h\",\"a|flag\":true,\"a|none\":null}",
+                     compact.toString());
+    }
+
+    @Test
+    public void testReplaceKeepsPositionAcrossResizes() {
+        CompactFlatComposition compact = new CompactFlatComposition();
+        JsonObject json = new JsonObject();
+        for (int i = 0; i < 1000; i++) {
+            // New instances, so lookups also compare by content
+            String key = new String("path/" + i + "|magnitude");
+            compact.put(key, i);
+            json.addProperty(key, i);
+        }
+        compact.put("path/7|magnitude", "replaced");
+        json.addProperty("path/7|magnitude", "replaced");
+
+        assertEquals(1000, compact.size());
+        assertEquals("replaced", compact.get("path/7|magnitude"));
+        assertEquals(999, compact.get("path/999|magnitude"));
+        assertEquals(json, compact.toJsonObject());
+        assertEquals(json.toString(), compact.toString());
+    }
+}
@@ -0,0 +1,81 @@
+package com.medblocks.plugins.composition;
+
+import com.google.gson.JsonObject;
+import com.medblocks.plugins.CustomMapping;
+import com.medblocks.plugins.handler.DosageDurationHandler;
+import org.hl7.fhir.r4.model.Timing;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FlatCompositionIndexTest {
+
+    @Test
+    public void testPrefixLookups() {
+        JsonObject composition = new JsonObject();
+        composition.addProperty("b/rate|unit", "ml/h");
+        composition.addProperty("b/rate|magnitude", 2.5);
+        composition.addProperty("a/duration", "PT1H");
+
+        FlatCompositionIndex index = FlatCompositionIndex.of(composition);
+        assertEquals(3, index.size());
+        assertTrue(index.hasKeysUnder("b/rate"));
+        assertTrue(index.hasKeysUnder("a/"));
+        assertFalse(index.hasKeysUnder("c"));
+        assertEquals(2.5, index.getDouble("b/rate|magnitude"));
+        assertEquals("PT1H", index.getString("a/duration"));
+    }
+
+    @Test
+    public void testIndexIsSharedUntilKeysChange() {
+        JsonObject composition = new JsonObject();
+        composition.addProperty("a/duration", "PT1H");
+        composition.addProperty("b/rate|magnitude", 2.5);
+        FlatCompositionIndex first = FlatCompositionIndex.of(composition);
+
+        // Changed values are read live without rebuilding
+        composition.addProperty("a/duration", "PT2H");
+        FlatCompositionIndex second = FlatCompositionIndex.of(composition);
+        assertEquals("PT2H", second.getString("a/duration"));
+        assertTrue(second.hasKeysUnder("b/rate"));
+        assertEquals(first.size(), second.size());
+    }
+
+    @Test
+    public void testUnchangedCompositionIsNotRescanned() {
+        JsonObject composition = new JsonObject();
+        composition.addProperty("a/duration", "PT1H");
+        composition.addProperty("b/rate|magnitude", 2.5);
+        assertTrue(FlatCompositionIndex.of(composition).hasKeysUnder("b/rate"));
+
+        // Same number of keys, different key set: the cached keys are used without looking at them
+        composition.remove("b/rate|magnitude");
+        composition.addProperty("c/dose|magnitude", 1.0);
+        FlatCompositionIndex cached = FlatCompositionIndex.of(composition);
+        assertTrue(cached.hasKeysUnder("b/rate"));
+        assertFalse(cached.hasKeysUnder("c/dose"));
+
+        // Until the writer invalidates them
+        FlatCompositionIndex.invalidate(composition);
+        FlatCompositionIndex index = FlatCompositionIndex.of(composition);
+        assertFalse(index.hasKeysUnder("b/rate"));
+        assertTrue(index.hasKeysUnder("c/dose"));
+    }
+
+    @Test
+    public void testMappingInvalidatesTheIndex() {
+        JsonObject composition = new JsonObject();
+        composition.addProperty("a/duration|value", "PT1H");
+        assertFalse(FlatCompositionIndex.of(composition).hasKeysUnder("b/duration"));
+
+        // Replace a key with one written by a mapping function, keeping the number of keys
+        composition.remove("a/duration|value");
+        Timing.TimingRepeatComponent repeat = new Timing.TimingRepeatComponent();
+        repeat.setDuration(2).setDurationUnit(Timing.UnitsOfTime.H);
+        assertTrue(new CustomMapping.TestFormatConverter().applyFhirToOpenEhrMapping(
+            DosageDurationHandler.MAPPING_CODE, "b/duration", repeat, "DV_DURATION", composition));
+        assertEquals(1, composition.size());
+
+        assertTrue(FlatCompositionIndex.of(composition).hasKeysUnder("b/duration"));
+    }
+}
@@ -0,0 +1,55 @@
+package com.medblocks.plugins.composition;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.medblocks.plugins.CustomMapping;
+import com.medblocks.plugins.handler.DosageDurationHandler;
+import org.hl7.fhir.r4.model.Timing;
+import org.hl7.fhir.r4.model.Timing.UnitsOfTime;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JsonWriterSinkTest {
+
+    @Test
+    public void testWritesFlatObject() throws IOException {
+        StringWriter out = new StringWriter();
+        JsonWriterSink sink = JsonWriterSink.to(out);
+        sink.put("a|magnitude", 2.5);
+        sink.put("a|count", 3);
+        sink.put("a|unit", "ml/h");
+        sink.put("a|flag", true);
+        sink.close();
+
+        JsonObject written = JsonParser.parseString(out.toString()).getAsJsonObject();
+        assertEquals(2.5, written.get("a|magnitude").getAsDouble());
+        assertEquals(3, written.get("a|count").getAsInt());
+        assertEquals("ml/h", written.get("a|unit").getAsString());
+        assertTrue(written.get("a|flag").getAsBoolean());
+    }
+
+    @Test
+    public void testNonFiniteValueLeavesSinkUsable() throws IOException {
+        StringWriter out = new StringWriter();
+        JsonWriterSink sink = JsonWriterSink.to(out);
+        assertThrows(IllegalArgumentException.class, () -> sink.put("a|magnitude", Double.POSITIVE_INFINITY));
+        assertThrows(IllegalArgumentException.class, () -> sink.put("a|magnitude", Double.NaN));
+
+        // The following mappings still write into the same object
+        Timing.TimingRepeatComponent repeat = new Timing.TimingRepeatComponent().setDuration(2).setDurationUnit(UnitsOfTime.H);
+        CustomMapping.TestFormatConverter converter = new CustomMapping.TestFormatConverter();
+        assertTrue(converter.applyFhirToOpenEhrMapping(DosageDurationHandler.MAPPING_CODE, "b/duration",
+                                                       repeat, "DV_DURATION", sink));
+        sink.put("c|magnitude", 1.5);
+        sink.close();
+
+        JsonObject written = JsonParser.parseString(out.toString()).getAsJsonObject();
+        assertFalse(written.has("a|magnitude"));
+        assertEquals("PT2H", written.get("b/duration/duration_value|value").getAsString());
+        assertEquals(1.5, written.get("c|magnitude").getAsDouble());
+    }
+}
@@ -0,0 +1,58 @@
+package com.medblocks.plugins.diagnostics;
+
+import com.medblocks.plugins.MappingUtils;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ErrorReporterTest {
+
+    @Test
+    public void testRepeatsAreSuppressed() {
+        StackTraceElement topFrame = null;
+        for (int i = 0; i < 100; i++) {
+            Integer result = MappingUtils.executeWithExceptionHandling("errorReporterTest", () -> fail(), -1);
+            assertEquals(-1, result);
+            if (topFrame == null) {
+                topFrame = captureTopFrame();
+            }
+        }
+        assertEquals(99, ErrorReporter.getSuppressed("errorReporterTest", IllegalStateException.class, topFrame));
+
+        // Another operation with the same failure is logged separately
+        MappingUtils.executeWithExceptionHandling("errorReporterTestOther", () -> fail(), -1);
+        assertEquals(0, ErrorReporter.getSuppressed("errorReporterTestOther", IllegalStateException.class, topFrame));
+
+        ErrorReporter.logSummary();
+    }
+
+    @Test
+    public void testValidationFailuresAreStackless() {
+        MappingValidationException e = assertThrows(MappingValidationException.class,
+            () -> MappingUtils.setValueInJson((Object) "not a composition", "path", "value"));
+        assertEquals(SkipReason.UNEXPECTED_TYPE, e.getReason());
+        assertEquals(0, e.getStackTrace().length);
+
+        for (int i = 0; i < 10; i++) {
+            MappingUtils.executeWithExceptionHandling("errorReporterValidation", () -> {
+                MappingUtils.setValueInJson((Object) "not a composition", "path", "value");
+                return true;
+            }, false);
+        }
+        assertEquals(9, ErrorReporter.getSuppressed("errorReporterValidation", MappingValidationException.class, null));
+    }
+
+    private static Integer fail() {
+        throw new IllegalStateException("Broken mapping");
+    }
+
+    // The frame that throws in fail(), as seen by the reporter
+    private static StackTraceElement captureTopFrame() {
+        try {
+            fail();
+        } catch (IllegalStateException e) {
+            return e.getStackTrace()[0];
+        }
+        return null;
+    }
+}
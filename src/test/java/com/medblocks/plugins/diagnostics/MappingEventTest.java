@@ -0,0 +1,81 @@
+package com.medblocks.plugins.diagnostics;
+
+import com.google.gson.JsonObject;
+import com.medblocks.plugins.CustomMapping;
+import com.medblocks.plugins.handler.DosageDurationHandler;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.hl7.fhir.r4.model.Timing;
+import org.hl7.fhir.r4.model.Timing.UnitsOfTime;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MappingEventTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testEventsAreOnlyCreatedWhileRecording() {
+        assertFalse(MappingEvent.isRecording());
+        assertNull(MappingEvent.start());
+        assertNull(ConversionEvent.start());
+    }
+
+    @Test
+    public void testMappingCallsAreRecorded() throws IOException {
+        CustomMapping.TestFormatConverter converter = new CustomMapping.TestFormatConverter();
+        Timing.TimingRepeatComponent repeat = new Timing.TimingRepeatComponent();
+        repeat.setDuration(2.25).setDurationUnit(UnitsOfTime.H);
+
+        Path file = dir.resolve("mapping.jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable(MappingEvent.NAME);
+            recording.enable(ConversionEvent.NAME);
+            recording.start();
+            assertTrue(MappingEvent.isRecording());
+
+            assertTrue(converter.applyFhirToOpenEhrMapping(DosageDurationHandler.MAPPING_CODE, "jfr/duration",
+                                                           repeat, "DV_DURATION", new JsonObject()));
+            assertFalse(converter.applyFhirToOpenEhrMapping("jfrUnknownCode", "jfr/unknown",
+                                                            repeat, "DV_DURATION", new JsonObject()));
+            recording.stop();
+            recording.dump(file);
+        }
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file).stream()
+            .filter(e -> e.getThread() != null && e.getThread().getJavaThreadId() == Thread.currentThread().getId())
+            .collect(Collectors.toList());
+
+        RecordedEvent mapped = find(events, MappingEvent.NAME, "mappingCode", DosageDurationHandler.MAPPING_CODE);
+        assertEquals("jfr/duration", mapped.getString("openEhrPath"));
+        assertEquals("Timing.repeat", mapped.getString("fhirType"));
+        assertEquals("DV_DURATION", mapped.getString("openEhrType"));
+        assertEquals(MappingEvent.MAPPED, mapped.getString("outcome"));
+
+        RecordedEvent unknown = find(events, MappingEvent.NAME, "mappingCode", "jfrUnknownCode");
+        assertEquals(MappingEvent.UNKNOWN_CODE, unknown.getString("outcome"));
+
+        // Nested within the mapping event
+        RecordedEvent conversion = find(events, ConversionEvent.NAME, "input", "2.25 h");
+        assertEquals("durationFormat", conversion.getString("converter"));
+        assertEquals("PT2H15M", conversion.getString("output"));
+        assertFalse(conversion.getStartTime().isBefore(mapped.getStartTime()));
+        assertFalse(conversion.getEndTime().isAfter(mapped.getEndTime()));
+    }
+
+    private static RecordedEvent find(List<RecordedEvent> events, String type, String field, String value) {
+        return events.stream()
+            .filter(e -> e.getEventType().getName().equals(type) && value.equals(e.getString(field)))
+            .findFirst()
+            .orElseThrow(() -> new AssertionError("No " + type + " event with " + field + " " + value));
+    }
+}
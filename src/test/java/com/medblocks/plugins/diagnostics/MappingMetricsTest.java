@@ -0,0 +1,70 @@
+package com.medblocks.plugins.diagnostics;
+
+import org.junit.jupiter.api.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.TabularData;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MappingMetricsTest {
+
+    @Test
+    public void testHistogramBuckets() {
+        for (long value = 0; value < 1_000_000; value += 1 + value / 7) {
+            int bucket = LatencyHistogram.bucketOf(value);
+            assertTrue(LatencyHistogram.upperBoundOf(bucket) >= value, "upper bound of " + value);
+            assertTrue(bucket == 0 || LatencyHistogram.upperBoundOf(bucket - 1) < value, "lower bound of " + value);
+        }
+        assertEquals(LatencyHistogram.bucketOf(Long.MAX_VALUE), LatencyHistogram.bucketOf(1L << 50));
+    }
+
+    @Test
+    public void testHistogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentileNanos(0.99));
+
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500_500, histogram.getMeanNanos(), 0.001);
+        assertEquals(1_000_000, histogram.getMaxNanos());
+
+        // Within the bucket precision of 12.5%
+        assertEquals(500_000, histogram.getPercentileNanos(0.5), 500_000 * 0.125);
+        assertEquals(990_000, histogram.getPercentileNanos(0.99), 990_000 * 0.125);
+        assertEquals(1_000_000, histogram.getPercentileNanos(1));
+    }
+
+    @Test
+    public void testBeansAreRegisteredWhileStarted() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        MappingCodeStats stats = MappingDiagnostics.forCode("metricsTest");
+        ObjectName name = MappingMetrics.objectName("metricsTest");
+
+        MappingMetrics.start();
+        try {
+            assertTrue(server.isRegistered(name));
+
+            stats.mapped();
+            stats.skipped(SkipReason.UNSUPPORTED_UNIT);
+            stats.latency(2_000);
+            assertEquals(1L, server.getAttribute(name, "Mapped"));
+            assertEquals(1L, server.getAttribute(name, "LatencyCount"));
+            assertTrue((Double) server.getAttribute(name, "Latency99thPercentileMicros") >= 2.0);
+            TabularData skipped = (TabularData) server.getAttribute(name, "Skipped");
+            assertEquals(1L, skipped.get(new Object[] {"UNSUPPORTED_UNIT"}).get("value"));
+
+            // Codes seen after the start are registered on first use
+            MappingDiagnostics.forCode("metricsTestLate");
+            assertTrue(server.isRegistered(MappingMetrics.objectName("metricsTestLate")));
+        } finally {
+            MappingMetrics.stop();
+        }
+        assertFalse(server.isRegistered(name));
+        assertFalse(server.isRegistered(MappingMetrics.objectName("metricsTestLate")));
+    }
+}
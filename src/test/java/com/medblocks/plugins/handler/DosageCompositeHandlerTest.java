@@ -0,0 +1,83 @@
+package com.medblocks.plugins.handler;
+
+import com.google.gson.JsonObject;
+import com.medblocks.plugins.composition.FlatCompositionIndex;
+import org.hl7.fhir.r4.model.Dosage;
+import org.hl7.fhir.r4.model.MedicationRequest;
+import org.hl7.fhir.r4.model.Quantity;
+import org.hl7.fhir.r4.model.Range;
+import org.hl7.fhir.r4.model.Ratio;
+import org.hl7.fhir.r4.model.SimpleQuantity;
+import org.hl7.fhir.r4.model.Timing.UnitsOfTime;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DosageCompositeHandlerTest {
+
+    private final DosageCompositeHandler handler = new DosageCompositeHandler();
+
+    private static Dosage dosage() {
+        Dosage dosage = new Dosage();
+        dosage.getTiming().getRepeat().setFrequency(3).setPeriod(1).setPeriodUnit(UnitsOfTime.D)
+            .setDuration(30).setDurationUnit(UnitsOfTime.MIN);
+        Dosage.DosageDoseAndRateComponent doseAndRate = dosage.addDoseAndRate();
+        Range range = new Range();
+        range.setLow(new SimpleQuantity().setValue(1).setUnit("tablet"));
+        range.setHigh(new SimpleQuantity().setValue(2).setUnit("tablet"));
+        doseAndRate.setDose(range);
+        Ratio ratio = new Ratio();
+        ratio.setNumerator(new Quantity().setValue(50).setUnit("mL"));
+        ratio.setDenominator(new Quantity().setValue(1).setUnit("h"));
+        doseAndRate.setRate(ratio);
+        return dosage;
+    }
+
+    @Test
+    public void testWholeDosageIsWrittenUnderOnePath() {
+        JsonObject flat = new JsonObject();
+        assertTrue(handler.apply("med/dosierung", dosage(), "CLUSTER", flat));
+
+        assertEquals(3, flat.get("med/dosierung/timing_daily/frequenz/quantity_value|magnitude").getAsInt());
+        assertEquals("1/d", flat.get("med/dosierung/timing_daily/frequenz/quantity_value|unit").getAsString());
+        assertEquals("P1D", flat.get("med/dosierung/timing_daily/intervall/duration_value").getAsString());
+        assertEquals("PT30M", flat.get("med/dosierung/verabreichungsdauer/duration_value|value").getAsString());
+        assertEquals(1.0, flat.get("med/dosierung/dosis/quantity_value/lower|magnitude").getAsDouble());
+        assertEquals("tablet", flat.get("med/dosierung/dosis/quantity_value/upper|unit").getAsString());
+        assertEquals(50.0, flat.get("med/dosierung/verabreichungsrate/quantity_value|magnitude").getAsDouble());
+        assertEquals("ml/h", flat.get("med/dosierung/verabreichungsrate/quantity_value|unit").getAsString());
+    }
+
+    @Test
+    public void testPartsAreOptional() {
+        Dosage dosage = new Dosage();
+        dosage.addDoseAndRate().setDose(new SimpleQuantity().setValue(500).setUnit("mg"));
+        JsonObject flat = new JsonObject();
+        assertTrue(handler.apply("med/dosierung", dosage, "CLUSTER", flat));
+        assertEquals(2, flat.size());
+
+        assertFalse(handler.apply("med/dosierung", new Dosage(), "CLUSTER", new JsonObject()));
+        assertFalse(handler.apply("med/dosierung", new Quantity(), "CLUSTER", new JsonObject()));
+    }
+
+    @Test
+    public void testReverseRebuildsDosage() {
+        JsonObject flat = new JsonObject();
+        assertTrue(handler.apply("med/dosierung", dosage(), "CLUSTER", flat));
+
+        Dosage dosage = (Dosage) handler.applyReverse("med/dosierung", FlatCompositionIndex.of(flat),
+                                                      "MedicationRequest.dosageInstruction", new MedicationRequest());
+        assertNotNull(dosage);
+        assertEquals(3, dosage.getTiming().getRepeat().getFrequency());
+        assertEquals(UnitsOfTime.D, dosage.getTiming().getRepeat().getPeriodUnit());
+        assertEquals(30, dosage.getTiming().getRepeat().getDuration().intValue());
+        assertEquals(UnitsOfTime.MIN, dosage.getTiming().getRepeat().getDurationUnit());
+
+        Dosage.DosageDoseAndRateComponent doseAndRate = dosage.getDoseAndRateFirstRep();
+        assertEquals(2, doseAndRate.getDoseRange().getHigh().getValue().intValue());
+        assertEquals(50, doseAndRate.getRateRatio().getNumerator().getValue().intValue());
+        assertEquals("h", doseAndRate.getRateRatio().getDenominator().getUnit());
+
+        assertNull(handler.applyReverse("med/other", FlatCompositionIndex.of(flat), null, null));
+    }
+}
@@ -0,0 +1,64 @@
+package com.medblocks.plugins.handler;
+
+import com.google.gson.JsonObject;
+import com.medblocks.plugins.diagnostics.MappingCodeStats;
+import com.medblocks.plugins.diagnostics.MappingDiagnostics;
+import com.medblocks.plugins.diagnostics.SkipReason;
+import org.hl7.fhir.r4.model.Timing;
+import org.hl7.fhir.r4.model.Timing.UnitsOfTime;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TimingToDailyHandlerTest {
+
+    private final TimingToDailyHandler handler = new TimingToDailyHandler();
+
+    private static Timing bid(String timeOfDay) {
+        Timing timing = new Timing();
+        timing.getRepeat().setFrequency(2).setPeriod(1).setPeriodUnit(UnitsOfTime.D).addTimeOfDay(timeOfDay);
+        return timing;
+    }
+
+    @Test
+    public void testSameShapeIsServedFromCache() {
+        MappingCodeStats stats = MappingDiagnostics.forCode(TimingToDailyHandler.MAPPING_CODE);
+
+        JsonObject first = new JsonObject();
+        assertTrue(handler.apply("cache/first", bid("07:15"), "CLUSTER", first));
+        long hits = stats.getCacheHits();
+        long misses = stats.getCacheMisses();
+
+        // Equal shape from another Timing instance, written under another path
+        JsonObject second = new JsonObject();
+        assertTrue(handler.apply("cache/second", bid("07:15"), "CLUSTER", second));
+        assertEquals(hits + 1, stats.getCacheHits());
+        assertEquals(misses, stats.getCacheMisses());
+
+        assertEquals("07:15:00", second.get("cache/second/zeitpunkt").getAsString());
+        assertEquals(2, second.get("cache/second/frequenz/quantity_value|magnitude").getAsInt());
+        assertEquals("1/d", second.get("cache/second/frequenz/quantity_value|unit").getAsString());
+        assertEquals("P1D", second.get("cache/second/intervall/duration_value").getAsString());
+        assertEquals(first.size(), second.size());
+
+        // Another value is another shape
+        assertTrue(handler.apply("cache/third", bid("07:16"), "CLUSTER", new JsonObject()));
+        assertEquals(misses + 1, stats.getCacheMisses());
+    }
+
+    @Test
+    public void testSkipsAreRecordedOnCacheHits() {
+        MappingCodeStats stats = MappingDiagnostics.forCode(TimingToDailyHandler.MAPPING_CODE);
+        long invalid = stats.getSkipped(SkipReason.INVALID_TIME);
+
+        for (int i = 0; i < 3; i++) {
+            Timing timing = new Timing();
+            timing.getRepeat().setCount(4).addTimeOfDay("25:61");
+            JsonObject flat = new JsonObject();
+            assertTrue(handler.apply("cache/skip", timing, "CLUSTER", flat));
+            assertEquals(4, flat.get("cache/skip/dosierungsreihenfolge").getAsInt());
+            assertFalse(flat.has("cache/skip/zeitpunkt"));
+        }
+        assertEquals(invalid + 3, stats.getSkipped(SkipReason.INVALID_TIME));
+    }
+}
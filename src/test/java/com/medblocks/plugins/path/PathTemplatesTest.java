@@ -0,0 +1,208 @@
+package com.medblocks.plugins.path;
+
+import com.google.gson.JsonObject;
+import com.medblocks.plugins.CustomMapping;
+import com.medblocks.plugins.PluginSettings;
+import com.medblocks.plugins.handler.DosageCompositeHandler;
+import com.medblocks.plugins.handler.DosageDurationHandler;
+import com.medblocks.plugins.handler.TimingToDailyHandler;
+import org.hl7.fhir.r4.model.Dosage;
+import org.hl7.fhir.r4.model.Timing;
+import org.hl7.fhir.r4.model.Timing.UnitsOfTime;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PathTemplatesTest {
+
+    private static final String TEMPLATES = "{"
+        + "\"templates\": {"
+        + "  \"english\": {\"TIME_OF_DAY\": \"/time_of_day\", \"INTERVAL\": \"/interval/duration_value\","
+        + "              \"FREQUENCY_MAGNITUDE\": \"/frequency/quantity_value|magnitude\","
+        + "              \"FREQUENCY_UNIT\": \"/frequency/quantity_value|unit\"},"
+        + "  \"duration\": {\"DURATION\": \"/duration|value\"}"
+        + "},"
+        + "\"templateIds\": {\"medication_list\": \"english\", \"medikationsliste\": \"default\"},"
+        + "\"openEhrTypes\": {\"DV_DURATION\": \"duration\"}"
+        + "}";
+
+    private final CustomMapping.TestFormatConverter converter = new CustomMapping.TestFormatConverter();
+
+    @TempDir
+    Path dir;
+
+    @AfterEach
+    public void tearDown() {
+        System.clearProperty(PluginSettings.PREFIX + "pathTemplates.file");
+        PathKeyCache.install(PathTemplates.defaults());
+    }
+
+    @Test
+    public void testTemplateIdSelectsTemplate() {
+        PathKeyCache.install(PathTemplates.compile(new StringReader(TEMPLATES), "test"));
+
+        JsonObject english = new JsonObject();
+        assertTrue(converter.applyFhirToOpenEhrMapping(TimingToDailyHandler.MAPPING_CODE,
+                                                       "medication_list/order/timing", timing(), "CLUSTER", english));
+        assertEquals("08:00:00", english.get("medication_list/order/timing/time_of_day").getAsString());
+        assertEquals(2, english.get("medication_list/order/timing/frequency/quantity_value|magnitude").getAsInt());
+        assertEquals("PT8H", english.get("medication_list/order/timing/interval/duration_value").getAsString());
+
+        JsonObject german = new JsonObject();
+        assertTrue(converter.applyFhirToOpenEhrMapping(TimingToDailyHandler.MAPPING_CODE,
+                                                       "medikationsliste/order/timing", timing(), "CLUSTER", german));
+        assertEquals("08:00:00", german.get("medikationsliste/order/timing/zeitpunkt").getAsString());
+
+        // Reverse mappings find the template by template id as well
+        Object reversed = converter.applyOpenEhrToFhirMapping(TimingToDailyHandler.MAPPING_CODE,
+                                                              "medication_list/order/timing", english, null, null);
+        assertNotNull(reversed);
+    }
+
+    @Test
+    public void testOpenEhrTypeSelectsTemplate() {
+        PathKeyCache.install(PathTemplates.compile(new StringReader(TEMPLATES), "test"));
+
+        Timing.TimingRepeatComponent repeat = new Timing.TimingRepeatComponent();
+        repeat.setDuration(2).setDurationUnit(UnitsOfTime.H);
+        JsonObject flat = new JsonObject();
+        assertTrue(converter.applyFhirToOpenEhrMapping(DosageDurationHandler.MAPPING_CODE, "other/duration",
+                                                       repeat, "DV_DURATION", flat));
+        assertEquals("PT2H", flat.get("other/duration/duration|value").getAsString());
+
+        // The template id takes precedence over the type
+        assertEquals("medikationsliste/duration/duration_value|value",
+                     PathKeyCache.keysFor("medikationsliste/duration", "DV_DURATION").get(PathSuffix.DURATION));
+    }
+
+    @Test
+    public void testOpenEhrTypeTemplatesOnlyApplyForward() {
+        PathKeyCache.install(PathTemplates.compile(new StringReader(TEMPLATES), "test"));
+
+        Timing.TimingRepeatComponent repeat = new Timing.TimingRepeatComponent();
+        repeat.setDuration(2).setDurationUnit(UnitsOfTime.H);
+        JsonObject flat = new JsonObject();
+        assertTrue(converter.applyFhirToOpenEhrMapping(DosageDurationHandler.MAPPING_CODE, "other/duration",
+                                                       repeat, "DV_DURATION", flat));
+
+        // The reverse mapping has no OpenEHR type and reads the default suffixes
+        assertNull(converter.applyOpenEhrToFhirMapping(DosageDurationHandler.MAPPING_CODE, "other/duration",
+                                                       flat, null, null));
+
+        // Selected by template id, the same values round-trip
+        JsonObject byTemplateId = new JsonObject();
+        byTemplateId.addProperty("medication_list/duration/duration_value|value", "PT2H");
+        Object reversed = converter.applyOpenEhrToFhirMapping(DosageDurationHandler.MAPPING_CODE,
+                                                              "medication_list/duration", byTemplateId, null, null);
+        assertTrue(reversed instanceof Timing.TimingRepeatComponent);
+        assertEquals(2, ((Timing.TimingRepeatComponent) reversed).getDuration().intValue());
+    }
+
+    @Test
+    public void testCompositePartsUseTheTemplateOfTheDosage() {
+        PathKeyCache.install(PathTemplates.compile(new StringReader(
+            "{\"templates\": {\"english\": {\"TIME_OF_DAY\": \"/time_of_day\", \"DURATION\": \"/duration|value\","
+            + "\"DOSAGE_TIMING\": \"/timing\", \"DOSAGE_DURATION\": \"/administration_duration\"}},"
+            + "\"openEhrTypes\": {\"CLUSTER\": \"english\"}}"), "test"));
+
+        Dosage dosage = new Dosage();
+        dosage.setTiming(timing());
+        dosage.getTiming().getRepeat().setDuration(1).setDurationUnit(UnitsOfTime.H);
+
+        JsonObject english = new JsonObject();
+        assertTrue(converter.applyFhirToOpenEhrMapping(DosageCompositeHandler.MAPPING_CODE, "other/dosage",
+                                                       dosage, "CLUSTER", english));
+        assertEquals("08:00:00", english.get("other/dosage/timing/time_of_day").getAsString());
+        assertEquals("PT1H", english.get("other/dosage/administration_duration/duration|value").getAsString());
+
+        JsonObject german = new JsonObject();
+        assertTrue(converter.applyFhirToOpenEhrMapping(DosageCompositeHandler.MAPPING_CODE, "other/dosage",
+                                                       dosage, "ELEMENT", german));
+        assertEquals("08:00:00", german.get("other/dosage/timing_daily/zeitpunkt").getAsString());
+        assertEquals("PT1H", german.get("other/dosage/verabreichungsdauer/duration_value|value").getAsString());
+    }
+
+    @Test
+    public void testKeysAreBuiltOncePerTemplateAndPath() {
+        PathKeyCache.install(PathTemplates.compile(new StringReader(TEMPLATES), "test"));
+
+        PathKeyCache.PathKeys keys = PathKeyCache.keysFor("shared/path", "DV_DURATION");
+        assertSame(keys, PathKeyCache.keysFor("shared/path", "DV_DURATION"));
+        assertNotSame(keys, PathKeyCache.keysFor("shared/path", "CLUSTER"));
+        assertSame(PathKeyCache.keysFor("shared/path", "CLUSTER"), PathKeyCache.keysFor("shared/path", null));
+        assertEquals("duration", keys.getTemplate().getName());
+        assertSame(PathTemplate.DEFAULT, PathKeyCache.keysFor("shared/path").getTemplate());
+
+        // Installing templates drops the keys built from the previous ones
+        PathKeyCache.install(PathTemplates.defaults());
+        assertEquals("shared/path/duration_value|value",
+                     PathKeyCache.keysFor("shared/path", "DV_DURATION").get(PathSuffix.DURATION));
+    }
+
+    @Test
+    public void testKeysBeyondTheCacheBoundAreNotRetained() {
+        PathKeyCache.install(PathTemplates.compile(new StringReader(TEMPLATES), "test"));
+
+        // Fill the cache until a path is no longer retained
+        PathKeyCache.PathKeys keys = null;
+        for (int i = 0; i < 100_000 && keys == null; i++) {
+            PathKeyCache.PathKeys candidate = PathKeyCache.keysFor("bound/path" + i, "DV_DURATION");
+            if (candidate != PathKeyCache.keysFor("bound/path" + i, "DV_DURATION")) {
+                keys = candidate;
+            }
+        }
+        assertNotNull(keys);
+
+        // Built per call with the selected template, and not interned
+        String key = keys.get(PathSuffix.DURATION);
+        assertEquals(keys.getPath() + "/duration|value", key);
+        assertNotSame(key, keys.get(PathSuffix.DURATION));
+        assertNotSame(key, (keys.getPath() + "/duration|value").intern());
+
+        // Paths cached before are still shared
+        assertSame(PathKeyCache.key("bound/path0", PathSuffix.DURATION), PathKeyCache.key("bound/path0", PathSuffix.DURATION));
+    }
+
+    @Test
+    public void testInvalidFilesAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> PathTemplates.compile(
+            new StringReader("{\"templates\": {\"t\": {\"UNKNOWN\": \"/x\"}}}"), "test"));
+        assertThrows(IllegalArgumentException.class, () -> PathTemplates.compile(
+            new StringReader("{\"templates\": {\"t\": {\"DURATION\": \"x\"}}}"), "test"));
+        assertThrows(IllegalArgumentException.class, () -> PathTemplates.compile(
+            new StringReader("{\"openEhrTypes\": {\"CLUSTER\": \"missing\"}}"), "test"));
+        assertThrows(IllegalArgumentException.class, () -> PathTemplates.compile(
+            new StringReader("{\"templates\": {\"default\": {}}}"), "test"));
+        assertThrows(IllegalArgumentException.class, () -> PathTemplates.compile(
+            new StringReader("{\"templates\": "), "test"));
+    }
+
+    @Test
+    public void testConfiguredFile() throws IOException {
+        assertSame(PathTemplates.defaults(), PathTemplates.configured());
+
+        Path file = dir.resolve("templates.json");
+        Files.writeString(file, TEMPLATES);
+        System.setProperty(PluginSettings.PREFIX + "pathTemplates.file", file.toString());
+        PathTemplates templates = PathTemplates.configured();
+        assertEquals(3, templates.size());
+        assertEquals(file.toString(), templates.getSource());
+
+        // An invalid file falls back to the built-in paths
+        Files.writeString(file, "{\"templates\": {\"t\": {\"UNKNOWN\": \"/x\"}}}");
+        assertSame(PathTemplates.defaults(), PathTemplates.configured());
+    }
+
+    private static Timing timing() {
+        Timing timing = new Timing();
+        timing.getRepeat().setFrequency(2).setPeriod(8).setPeriodUnit(UnitsOfTime.H).addTimeOfDay("08:00");
+        return timing;
+    }
+}
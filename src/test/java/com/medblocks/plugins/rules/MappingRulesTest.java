@@ -0,0 +1,139 @@
+package com.medblocks.plugins.rules;
+
+import com.google.gson.JsonObject;
+import com.medblocks.plugins.CustomMapping;
+import com.medblocks.plugins.PluginSettings;
+import com.medblocks.plugins.diagnostics.MappingCodeStats;
+import com.medblocks.plugins.diagnostics.MappingDiagnostics;
+import com.medblocks.plugins.diagnostics.SkipReason;
+import org.hl7.fhir.r4.model.Quantity;
+import org.hl7.fhir.r4.model.Timing;
+import org.hl7.fhir.r4.model.Timing.UnitsOfTime;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MappingRulesTest {
+
+    private static final String TIMING_RULES = "[{"
+        + "\"mappingCode\": \"ruleTiming\", \"fhirType\": \"Timing\", \"targets\": ["
+        + "  {\"source\": \"repeat.count\", \"suffix\": \"/dosierungsreihenfolge\"},"
+        + "  {\"source\": \"repeat.period\", \"unitSource\": \"repeat.periodUnit\","
+        + "   \"suffix\": \"/intervall/duration_value\", \"converter\": \"isoDuration\"},"
+        + "  {\"source\": \"repeat.periodUnit\", \"suffix\": \"/frequenz/quantity_value|unit\", \"converter\": \"frequencyUnit\"},"
+        + "  {\"source\": \"repeat.timeOfDay\", \"suffix\": \"/zeitpunkt\", \"converter\": \"dvTime\"}"
+        + "]}]";
+
+    @TempDir
+    Path dir;
+
+    @AfterEach
+    public void tearDown() {
+        System.clearProperty(PluginSettings.PREFIX + "rules.file");
+        MappingRules.stop();
+    }
+
+    @Test
+    public void testCompiledRuleWritesConvertedValues() {
+        CompiledRule rule = RuleCompiler.compile(new StringReader(TIMING_RULES), "test").get("ruleTiming");
+        assertEquals(4, rule.getTargetCount());
+
+        Timing timing = new Timing();
+        timing.getRepeat().setCount(10).setPeriod(8).setPeriodUnit(UnitsOfTime.H).addTimeOfDay("08:00");
+        JsonObject flat = new JsonObject();
+        assertTrue(rule.apply("rules/timing", timing, "CLUSTER", flat));
+
+        assertEquals(10, flat.get("rules/timing/dosierungsreihenfolge").getAsInt());
+        assertEquals("PT8H", flat.get("rules/timing/intervall/duration_value").getAsString());
+        assertEquals("1/h", flat.get("rules/timing/frequenz/quantity_value|unit").getAsString());
+        assertEquals("08:00:00", flat.get("rules/timing/zeitpunkt").getAsString());
+    }
+
+    @Test
+    public void testAbsentAndInvalidValues() {
+        CompiledRule rule = RuleCompiler.compile(new StringReader(TIMING_RULES), "test").get("ruleTiming");
+        long invalid = MappingDiagnostics.forCode("ruleTiming").getSkipped(SkipReason.INVALID_TIME);
+        long unexpected = MappingDiagnostics.forCode("ruleTiming").getSkipped(SkipReason.UNEXPECTED_TYPE);
+
+        // Missing children are neither written nor created
+        Timing timing = new Timing();
+        timing.getRepeat().addTimeOfDay("25:61");
+        JsonObject flat = new JsonObject();
+        assertFalse(rule.apply("rules/invalid", timing, "CLUSTER", flat));
+        assertEquals(0, flat.size());
+        assertFalse(timing.getRepeat().hasCount());
+        assertEquals(invalid + 1, MappingDiagnostics.forCode("ruleTiming").getSkipped(SkipReason.INVALID_TIME));
+
+        assertFalse(rule.apply("rules/invalid", new Quantity(), "CLUSTER", flat));
+        assertEquals(unexpected + 1, MappingDiagnostics.forCode("ruleTiming").getSkipped(SkipReason.UNEXPECTED_TYPE));
+    }
+
+    @Test
+    public void testInvalidRulesAreRejected() {
+        assertInvalid("[{\"mappingCode\": \"a\", \"targets\": []}]");
+        assertInvalid("[{\"targets\": [{\"source\": \"value\", \"suffix\": \"/a\"}]}]");
+        assertInvalid("[{\"mappingCode\": \"a\", \"targets\": [{\"source\": \"value\", \"suffix\": \"a\"}]}]");
+        assertInvalid("[{\"mappingCode\": \"a\", \"targets\": [{\"source\": \"value\", \"suffix\": \"/a\", \"converter\": \"nope\"}]}]");
+        assertInvalid("[{\"mappingCode\": \"a\", \"targets\": [{\"source\": \"value\", \"suffix\": \"/a\", \"converter\": \"isoDuration\"}]}]");
+        assertInvalid("[{\"mappingCode\": \"a\", \"fhirType\": \"Timing\", \"targets\": [{\"source\": \"repeat.bogus\", \"suffix\": \"/a\"}]}]");
+        assertInvalid("[{\"mappingCode\": \"a\", \"fhirType\": \"Timing\", \"targets\": [{\"source\": \"repeat\", \"suffix\": \"/a\"}]}]");
+        assertInvalid("[{\"mappingCode\": \"a\", \"fhirType\": \"NoSuchType\", \"targets\": [{\"source\": \"value\", \"suffix\": \"/a\"}]}]");
+        assertInvalid("[{\"mappingCode\": \"a\", \"targets\": [{\"source\": \"value\", \"suffix\": \"/a\"}]},"
+                      + "{\"mappingCode\": \"a\", \"targets\": [{\"source\": \"value\", \"suffix\": \"/b\"}]}]");
+        assertInvalid("{not json");
+    }
+
+    @Test
+    public void testRejectedFileRegistersNoCounters() {
+        String json = "[{\"mappingCode\": \"ruleNeverInstalled\", \"targets\": [{\"source\": \"value\", \"suffix\": \"/a\"}]},"
+                      + "{\"mappingCode\": \"ruleInvalid\", \"targets\": []}]";
+        assertInvalid(json);
+        for (MappingCodeStats stats : MappingDiagnostics.getStats()) {
+            assertNotEquals("ruleNeverInstalled", stats.getMappingCode());
+        }
+    }
+
+    private static void assertInvalid(String json) {
+        assertThrows(IllegalArgumentException.class, () -> RuleCompiler.compile(new StringReader(json), "test"), json);
+    }
+
+    @Test
+    public void testReloadSwapsRulesAndKeepsThemOnError() throws IOException {
+        Path file = dir.resolve("rules.json");
+        Files.writeString(file, TIMING_RULES);
+        System.setProperty(PluginSettings.PREFIX + "rules.file", file.toString());
+
+        MappingRules bean = MappingRules.getInstance();
+        assertTrue(bean.reload());
+        RuleSet first = MappingRules.current();
+        assertNotNull(first.get("ruleTiming"));
+
+        // An invalid file keeps the rules in use
+        Files.writeString(file, "[{\"mappingCode\": \"ruleTiming\"}]");
+        assertFalse(bean.reload());
+        assertSame(first, MappingRules.current());
+        assertNotNull(bean.getLastError());
+
+        Files.writeString(file, "[{\"mappingCode\": \"ruleQuantity\", \"fhirType\": \"Quantity\", \"targets\": ["
+                                + "{\"source\": \"value\", \"suffix\": \"|magnitude\"},"
+                                + "{\"source\": \"unit\", \"suffix\": \"|unit\", \"converter\": \"ucum\"}]}]");
+        assertTrue(bean.reload());
+        assertNull(bean.getLastError());
+        assertNull(MappingRules.current().get("ruleTiming"));
+
+        // Dispatched by the converter like a handler
+        CustomMapping.TestFormatConverter converter = new CustomMapping.TestFormatConverter();
+        JsonObject flat = new JsonObject();
+        assertTrue(converter.applyFhirToOpenEhrMapping("ruleQuantity", "rules/quantity",
+                                                       new Quantity().setValue(2.5).setUnit("mL/h"), "DV_QUANTITY", flat));
+        assertEquals(2.5, flat.get("rules/quantity|magnitude").getAsDouble());
+        assertEquals("ml/h", flat.get("rules/quantity|unit").getAsString());
+    }
+}
@@ -0,0 +1,160 @@
+package com.medblocks.plugins.time;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DvTimeFormatterTest {
+
+    private static final String EXTENDED =
+            "^([01]\\d|2[0-3]):([0-5]\\d):([0-5]\\d)([,.][0-9]+)?(Z|[+-]([01]\\d|2[0-3])(:?[0-5]\\d)?)?$";
+    private static final String COMPACT =
+            "^([01]\\d|2[0-3])([0-5]\\d)([0-5]\\d)([,.][0-9]+)?(Z|[+-]([01]\\d|2[0-3])([0-5]\\d)?)?$";
+
+    // Input and expected output; null means the input is rejected
+    private static final String[][] CASES = {
+            {"08:00", "08:00:00"},
+            {"08", "08:00:00"},
+            {"23", "23:00:00"},
+            {"08:00:00", "08:00:00"},
+            {"23:59:59", "23:59:59"},
+            {"08:00:00.5", "08:00:00.5"},
+            {"08:00:00,125Z", "08:00:00,125Z"},
+            {"08:00:00+05:30", "08:00:00+05:30"},
+            {"08:00:00+0530", "08:00:00+0530"},
+            {"08:00:00-03", "08:00:00-03"},
+            {"080000", "08:00:00"},
+            {"235959.999", "23:59:59.999"},
+            {"080000Z", "08:00:00Z"},
+            {"080000+0530", "08:00:00+05:30"},
+            {"080000,5-03", "08:00:00,5-03"},
+            {"0800", null},
+            {"8:00", null},
+            {"24:00", null},
+            {"23:59:60", null},
+            {"23:60", null},
+            {"", null},
+            {null, null},
+            {"8", null},
+            {"08:0", null},
+            {"08:00:", null},
+            {"08:00:00.", null},
+            {"08:00:00Z1", null},
+            {"08:00:00+5", null},
+            {"08:00:00+05:3", null},
+            {"080000+05:30", null},
+            {"0800000", null},
+            {"08:00:00 ", null},
+            {" 08:00", null},
+            {"ab:cd", null},
+    };
+
+    @Test
+    public void testTable() {
+        for (String[] c : CASES) {
+            assertEquals(c[1], DvTimeFormatter.format(c[0]), "input: " + c[0]);
+        }
+    }
+
+    @Test
+    public void testMatchesRegexImplementation() {
+        for (String[] c : CASES) {
+            assertEquals(regexFormat(c[0]), DvTimeFormatter.format(c[0]), "input: " + c[0]);
+        }
+
+        // Every hh, hh:mm and hhmmss value, with a few out-of-range ones
+        for (int h = 0; h <= 25; h++) {
+            String hh = twoDigits(h);
+            assertEquals(regexFormat(hh), DvTimeFormatter.format(hh), hh);
+            for (int m = 0; m <= 61; m++) {
+                String hhmm = hh + ":" + twoDigits(m);
+                assertEquals(regexFormat(hhmm), DvTimeFormatter.format(hhmm), hhmm);
+                String compact = hh + twoDigits(m) + twoDigits(m % 7 == 0 ? 60 : m);
+                assertEquals(regexFormat(compact), DvTimeFormatter.format(compact), compact);
+            }
+        }
+    }
+
+    @Test
+    public void testCacheCollisions() {
+        // Find two compact times that share a cache slot
+        Map<Integer, String> slots = new HashMap<>();
+        String first = null;
+        String second = null;
+        for (int seconds = 0; seconds < 24 * 3600 && first == null; seconds++) {
+            String time = twoDigits(seconds / 3600) + twoDigits(seconds / 60 % 60) + twoDigits(seconds % 60);
+            String other = slots.putIfAbsent(time.hashCode() & 255, time);
+            if (other != null) {
+                first = other;
+                second = time;
+            }
+        }
+        assertNotNull(first);
+
+        String firstResult = DvTimeFormatter.format(first);
+        assertEquals(regexFormat(first), firstResult);
+        // A repeated value is served from the cache
+        assertSame(firstResult, DvTimeFormatter.format(first));
+
+        // The colliding value replaces the slot but must not be answered from it
+        assertEquals(regexFormat(second), DvTimeFormatter.format(second));
+        assertEquals(regexFormat(first), DvTimeFormatter.format(first));
+        assertEquals(regexFormat(second), DvTimeFormatter.format(second));
+    }
+
+    private static String twoDigits(int value) {
+        return value < 10 ? "0" + value : Integer.toString(value);
+    }
+
+    /**
+     * The regular expression based implementation DvTimeFormatter replaced
+     */
+    private static String regexFormat(String timeStr) {
+        if (timeStr == null || timeStr.isEmpty()) {
+            return null;
+        }
+        if (timeStr.matches(EXTENDED)) {
+            return timeStr;
+        }
+        if (timeStr.matches(COMPACT)) {
+            String formattedTime = timeStr.substring(0, 2) + ":" + timeStr.substring(2, 4) + ":" + timeStr.substring(4, 6);
+            String remainder = timeStr.substring(6);
+            if (remainder.startsWith(",") || remainder.startsWith(".")) {
+                int tzIndex = -1;
+                for (int i = 1; i < remainder.length(); i++) {
+                    char c = remainder.charAt(i);
+                    if (c == 'Z' || c == '+' || c == '-') {
+                        tzIndex = i;
+                        break;
+                    }
+                }
+                if (tzIndex > 0) {
+                    formattedTime += remainder.substring(0, tzIndex);
+                    remainder = remainder.substring(tzIndex);
+                } else {
+                    formattedTime += remainder;
+                    remainder = "";
+                }
+            }
+            if (remainder.equals("Z")) {
+                formattedTime += "Z";
+            } else if (!remainder.isEmpty()) {
+                formattedTime += remainder.substring(0, 3);
+                if (remainder.length() >= 5) {
+                    formattedTime += ":" + remainder.substring(3, 5);
+                }
+            }
+            return formattedTime;
+        }
+        if (timeStr.matches("^([01]\\d|2[0-3]):([0-5]\\d)$")) {
+            return timeStr + ":00";
+        }
+        if (timeStr.matches("^([01]\\d|2[0-3])$")) {
+            return timeStr + ":00:00";
+        }
+        return null;
+    }
+}
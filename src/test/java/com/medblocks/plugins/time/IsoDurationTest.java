@@ -0,0 +1,89 @@
+package com.medblocks.plugins.time;
+
+import com.medblocks.plugins.MappingUtils;
+import com.medblocks.plugins.unit.DurationUnitConverter;
+import com.medblocks.plugins.unit.TimeUnitConverterFactory;
+import org.hl7.fhir.r4.model.Timing.UnitsOfTime;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IsoDurationTest {
+
+    @Test
+    public void testComponents() {
+        IsoDuration duration = IsoDuration.parse("P1Y2M3W4DT5H6M7.25S");
+        assertNotNull(duration);
+        assertEquals(1, duration.getYears());
+        assertEquals(2, duration.getMonths());
+        assertEquals(3, duration.getWeeks());
+        assertEquals(4, duration.getDays());
+        assertEquals(5 * 3600 + 6 * 60 + 7, duration.getSeconds());
+        assertEquals(250_000_000, duration.getNanos());
+        assertEquals(UnitsOfTime.A, duration.getLargestUnit());
+
+        duration = IsoDuration.parse("PT-2H");
+        assertEquals(-7200, duration.getSeconds());
+        assertEquals(UnitsOfTime.H, duration.getLargestUnit());
+
+        duration = IsoDuration.parse("-PT1.5S");
+        assertEquals(-2, duration.getSeconds());
+        assertEquals(500_000_000, duration.getNanos());
+    }
+
+    @Test
+    public void testToValue() {
+        assertEquals(1.5, IsoDuration.parse("PT1H30M").toValue(UnitsOfTime.H), 1e-9);
+        assertEquals(90, IsoDuration.parse("PT1H30M").toValue(UnitsOfTime.MIN), 1e-9);
+        assertEquals(1.5, IsoDuration.parse("P1DT12H").toValue(UnitsOfTime.D), 1e-9);
+        assertEquals(1.5, IsoDuration.parse("P1.5D").toValue(UnitsOfTime.D), 1e-9);
+        assertEquals(1.5, IsoDuration.parse("P1.5M").toValue(UnitsOfTime.MO), 1e-9);
+        assertEquals(18, IsoDuration.parse("P1.5Y").toValue(UnitsOfTime.MO), 1e-9);
+        assertEquals(2, IsoDuration.parse("P14D").toValue(UnitsOfTime.WK), 1e-9);
+        assertEquals(1.5, IsoDuration.parse("PT1,5S").toValue(UnitsOfTime.S), 1e-9);
+        assertTrue(Double.isNaN(IsoDuration.parse("P1D").toValue(UnitsOfTime.NULL)));
+    }
+
+    @Test
+    public void testInvalid() {
+        assertNull(IsoDuration.parse(null));
+        assertNull(IsoDuration.parse(""));
+        assertNull(IsoDuration.parse("P"));
+        assertNull(IsoDuration.parse("PT"));
+        assertNull(IsoDuration.parse("P1DT"));
+        assertNull(IsoDuration.parse("1D"));
+        assertNull(IsoDuration.parse("P1H"));
+        assertNull(IsoDuration.parse("PT1D"));
+        assertNull(IsoDuration.parse("P1D2Y"));
+        assertNull(IsoDuration.parse("P1D1D"));
+        assertNull(IsoDuration.parse("P1.D"));
+        assertNull(IsoDuration.parse("P1"));
+        assertNull(IsoDuration.parse("P99999999999999999999D"));
+    }
+
+    @Test
+    public void testExtractNumericValue() {
+        assertEquals(30, MappingUtils.extractNumericValue("PT30M", "M"));
+        assertEquals(6, MappingUtils.extractNumericValue("P6M", "M"));
+        assertEquals(90, MappingUtils.extractNumericValue("PT1H30M", "M"));
+        assertEquals(36, MappingUtils.extractNumericValue("P1DT12H", "H"));
+        assertEquals(0, MappingUtils.extractNumericValue("invalid", "H"));
+    }
+
+    @Test
+    public void testRoundTrip() {
+        DurationUnitConverter converter = TimeUnitConverterFactory.getDurationConverter();
+        UnitsOfTime[] units = {UnitsOfTime.S, UnitsOfTime.MIN, UnitsOfTime.H, UnitsOfTime.D,
+                               UnitsOfTime.WK, UnitsOfTime.MO, UnitsOfTime.A};
+        double[] values = {0, 1, 1.5, 2.25, 7, 121, 1000, 0.4};
+        for (UnitsOfTime unit : units) {
+            for (double value : values) {
+                String iso = converter.formatDuration(value, unit);
+                UnitsOfTime parsedUnit = converter.toTimeUnit(iso);
+                assertNotNull(parsedUnit, iso);
+                double parsed = MappingUtils.durationToValue(iso, unit);
+                assertEquals(value, parsed, 1e-9, iso);
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.medblocks.plugins.unit;
+
+import com.google.gson.JsonObject;
+import com.medblocks.plugins.diagnostics.MappingCodeStats;
+import com.medblocks.plugins.diagnostics.MappingDiagnostics;
+import com.medblocks.plugins.diagnostics.SkipReason;
+import com.medblocks.plugins.handler.RatioToDvQuantityHandler;
+import org.hl7.fhir.r4.model.Dosage;
+import org.hl7.fhir.r4.model.Quantity;
+import org.hl7.fhir.r4.model.Ratio;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RateConversionTest {
+
+    private static RateConversion conversion(String unit) {
+        return UnitCanonicalizer.canonicalize(unit).getRateConversion();
+    }
+
+    @Test
+    public void testAllowedUnitsAreKept() {
+        for (String unit : new String[] {"l/h", "ml/min", "ml/s", "ml/h"}) {
+            RateConversion conversion = conversion(unit);
+            assertEquals(unit, conversion.getUnit());
+            assertEquals(1, conversion.getFactor(), 0);
+        }
+    }
+
+    @Test
+    public void testNearestAllowedUnit() {
+        assertEquals("ml/min", conversion("L/min").getUnit());
+        assertEquals(1000, conversion("L/min").getFactor(), 0);
+        assertEquals("ml/s", conversion("l/s").getUnit());
+        assertEquals("ml/h", conversion("mL/d").getUnit());
+        assertEquals(1 / 24.0, conversion("mL/d").getFactor(), 1e-15);
+        assertEquals("l/h", conversion("L/day").getUnit());
+        assertEquals("l/h", conversion("kl/h").getUnit());
+        assertEquals(1000, conversion("kl/h").getFactor(), 0);
+        assertEquals("ml/h", conversion("dl/h").getUnit());
+        assertEquals(100, conversion("dl/h").getFactor(), 0);
+        assertEquals("ml/min", conversion("ul/min").getUnit());
+        assertEquals(0.001, conversion("ul/min").getFactor(), 1e-18);
+        assertEquals("ml/h", conversion("ml/wk").getUnit());
+        assertEquals(1 / 168.0, conversion("ml/wk").getFactor(), 1e-15);
+        assertEquals(0.1, conversion("ml/(10.min)").getFactor(), 1e-15);
+        assertSame(conversion("ml/d"), RateConversion.of("ml", "d"));
+    }
+
+    @Test
+    public void testUnsupportedUnits() {
+        assertNull(conversion("mg/h"));
+        assertNull(conversion("ml"));
+        assertNull(conversion("ml/kg/h"));
+        assertNull(conversion("l/s2"));
+        assertNull(conversion("tbl/d"));
+        assertNull(RateConversion.of("ml", "ms"));
+    }
+
+    @Test
+    public void testRateIsRescaled() {
+        Dosage.DosageDoseAndRateComponent doseAndRate = new Dosage.DosageDoseAndRateComponent();
+        Ratio ratio = new Ratio();
+        ratio.setNumerator(new Quantity().setValue(2400).setUnit("mL"));
+        ratio.setDenominator(new Quantity().setValue(2).setUnit("d"));
+        doseAndRate.setRate(ratio);
+
+        JsonObject flat = new JsonObject();
+        assertTrue(new RatioToDvQuantityHandler().apply("rate", doseAndRate, "DV_QUANTITY", flat));
+        assertEquals(50, flat.get("rate/quantity_value|magnitude").getAsDouble(), 1e-12);
+        assertEquals("ml/h", flat.get("rate/quantity_value|unit").getAsString());
+    }
+
+    @Test
+    public void testRateWithoutFiniteMagnitudeIsSkipped() {
+        MappingCodeStats stats = MappingDiagnostics.forCode(RatioToDvQuantityHandler.MAPPING_CODE);
+        long failed = stats.getSkipped(SkipReason.CONVERSION_FAILED);
+
+        JsonObject flat = new JsonObject();
+        assertFalse(new RatioToDvQuantityHandler().apply("rate", rate(100, 0), "DV_QUANTITY", flat));
+        assertFalse(new RatioToDvQuantityHandler().apply("rate", rate(0, 0), "DV_QUANTITY", flat));
+        assertFalse(new RatioToDvQuantityHandler().apply("rate", rate(1e308, 1e-10), "DV_QUANTITY", flat));
+        assertEquals(0, flat.size());
+        assertEquals(failed + 3, stats.getSkipped(SkipReason.CONVERSION_FAILED));
+    }
+
+    private static Dosage.DosageDoseAndRateComponent rate(double numerator, double denominator) {
+        Ratio ratio = new Ratio();
+        ratio.setNumerator(new Quantity().setValue(numerator).setUnit("mL"));
+        ratio.setDenominator(new Quantity().setValue(denominator).setUnit("h"));
+        return new Dosage.DosageDoseAndRateComponent().setRate(ratio);
+    }
+}
@@ -1,64 +1,126 @@
-// package com.medblocks.plugins.unit;
+package com.medblocks.plugins.unit;
 
-// import org.hl7.fhir.r4.model.Timing.UnitsOfTime;
-// import org.junit.jupiter.api.Test;
-// import static org.junit.jupiter.api.Assertions.*;
+import org.hl7.fhir.r4.model.Timing.UnitsOfTime;
+import org.junit.jupiter.api.Test;
 
-// public class TimeUnitConverterTest {
+import java.lang.management.ManagementFactory;
 
-//     @Test
-//     public void testFrequencyConverter() {
-//         FrequencyUnitConverter converter = TimeUnitConverterFactory.getFrequencyConverter();
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TimeUnitConverterTest {
+
+    @Test
+    public void testFrequencyConverter() {
+        FrequencyUnitConverter converter = TimeUnitConverterFactory.getFrequencyConverter();
         
-//         // Test valid units
-//         assertTrue(converter.isValidUnit(UnitsOfTime.S));
-//         assertTrue(converter.isValidUnit(UnitsOfTime.MIN));
-//         assertTrue(converter.isValidUnit(UnitsOfTime.H));
-//         assertTrue(converter.isValidUnit(UnitsOfTime.D));
+        // Test valid units
+        assertTrue(converter.isValidUnit(UnitsOfTime.S));
+        assertTrue(converter.isValidUnit(UnitsOfTime.MIN));
+        assertTrue(converter.isValidUnit(UnitsOfTime.H));
+        assertTrue(converter.isValidUnit(UnitsOfTime.D));
         
-//         // Test invalid units
-//         assertFalse(converter.isValidUnit(UnitsOfTime.WK));
-//         assertFalse(converter.isValidUnit(UnitsOfTime.MO));
-//         assertFalse(converter.isValidUnit(UnitsOfTime.A));
-//         assertFalse(converter.isValidUnit(null));
+        // Test invalid units
+        assertFalse(converter.isValidUnit(UnitsOfTime.WK));
+        assertFalse(converter.isValidUnit(UnitsOfTime.MO));
+        assertFalse(converter.isValidUnit(UnitsOfTime.A));
+        assertFalse(converter.isValidUnit(null));
         
-//         // Test conversions
-//         assertEquals("1/s", converter.convertUnit(UnitsOfTime.S));
-//         assertEquals("1/min", converter.convertUnit(UnitsOfTime.MIN));
-//         assertEquals("1/h", converter.convertUnit(UnitsOfTime.H));
-//         assertEquals("1/d", converter.convertUnit(UnitsOfTime.D));
+        // Test conversions
+        assertEquals("1/s", converter.convertUnit(UnitsOfTime.S));
+        assertEquals("1/min", converter.convertUnit(UnitsOfTime.MIN));
+        assertEquals("1/h", converter.convertUnit(UnitsOfTime.H));
+        assertEquals("1/d", converter.convertUnit(UnitsOfTime.D));
         
-//         // Test invalid conversion
-//         assertNull(converter.convertUnit(UnitsOfTime.WK));
-//         assertNull(converter.convertUnit(null));
-//     }
+        // Test invalid conversion
+        assertNull(converter.convertUnit(UnitsOfTime.WK));
+        assertNull(converter.convertUnit(null));
+    }
     
-//     @Test
-//     public void testDurationConverter() {
-//         DurationUnitConverter converter = TimeUnitConverterFactory.getDurationConverter();
+    @Test
+    public void testDurationConverter() {
+        DurationUnitConverter converter = TimeUnitConverterFactory.getDurationConverter();
+        
+        // Test valid units (all units are valid for duration)
+        assertTrue(converter.isValidUnit(UnitsOfTime.S));
+        assertTrue(converter.isValidUnit(UnitsOfTime.MIN));
+        assertTrue(converter.isValidUnit(UnitsOfTime.H));
+        assertTrue(converter.isValidUnit(UnitsOfTime.D));
+        assertTrue(converter.isValidUnit(UnitsOfTime.WK));
+        assertTrue(converter.isValidUnit(UnitsOfTime.MO));
+        assertTrue(converter.isValidUnit(UnitsOfTime.A));
         
-//         // Test valid units (all units are valid for duration)
-//         assertTrue(converter.isValidUnit(UnitsOfTime.S));
-//         assertTrue(converter.isValidUnit(UnitsOfTime.MIN));
-//         assertTrue(converter.isValidUnit(UnitsOfTime.H));
-//         assertTrue(converter.isValidUnit(UnitsOfTime.D));
-//         assertTrue(converter.isValidUnit(UnitsOfTime.WK));
-//         assertTrue(converter.isValidUnit(UnitsOfTime.MO));
-//         assertTrue(converter.isValidUnit(UnitsOfTime.A));
+        // Test null
+        assertFalse(converter.isValidUnit(null));
+        
+        // Test duration formatting
+        assertEquals("PT5S", converter.formatDuration(5, UnitsOfTime.S));
+        assertEquals("PT10M", converter.formatDuration(10, UnitsOfTime.MIN));
+        assertEquals("PT2H", converter.formatDuration(2, UnitsOfTime.H));
+        assertEquals("P3D", converter.formatDuration(3, UnitsOfTime.D));
+        assertEquals("P1W", converter.formatDuration(1, UnitsOfTime.WK));
+        assertEquals("P6M", converter.formatDuration(6, UnitsOfTime.MO));
+        assertEquals("P2Y", converter.formatDuration(2, UnitsOfTime.A));
+        
+        // Test invalid formatting
+        assertNull(converter.formatDuration(1, null));
+    }
+    
+    @Test
+    public void testFractionalDurations() {
+        DurationUnitConverter converter = TimeUnitConverterFactory.getDurationConverter();
+        
+        // Fractions are carried into smaller units instead of being rounded
+        assertEquals("PT1H30M", converter.formatDuration(1.5, UnitsOfTime.H));
+        assertEquals("PT2H15M", converter.formatDuration(2.25, UnitsOfTime.H));
+        assertEquals("PT15S", converter.formatDuration(0.25, UnitsOfTime.MIN));
+        assertEquals("PT1.5S", converter.formatDuration(1.5, UnitsOfTime.S));
+        assertEquals("P1DT12H", converter.formatDuration(1.5, UnitsOfTime.D));
+        assertEquals("P3DT12H", converter.formatDuration(0.5, UnitsOfTime.WK));
+        
+        // Months and years have no fixed length and keep the decimal fraction
+        assertEquals("P1.5M", converter.formatDuration(1.5, UnitsOfTime.MO));
+        assertEquals("P0.5Y", converter.formatDuration(0.5, UnitsOfTime.A));
+        
+        // Whole values outside the precomputed table
+        assertEquals("PT1000H", converter.formatDuration(1000, UnitsOfTime.H));
+        assertEquals("PT-2H", converter.formatDuration(-2, UnitsOfTime.H));
+        
+        // Values that are not finite
+        assertNull(converter.formatDuration(Double.NaN, UnitsOfTime.H));
+        assertNull(converter.formatDuration(Double.POSITIVE_INFINITY, UnitsOfTime.D));
+    }
+    
+    @Test
+    public void testDurationFormattingAllocatesOnlyResult() {
+        DurationUnitConverter converter = TimeUnitConverterFactory.getDurationConverter();
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        UnitsOfTime[] units = {UnitsOfTime.S, UnitsOfTime.MIN, UnitsOfTime.H, UnitsOfTime.D, 
+                               UnitsOfTime.WK, UnitsOfTime.MO, UnitsOfTime.A};
+        int iterations = 100_000;
         
-//         // Test null
-//         assertFalse(converter.isValidUnit(null));
+        // Warm up so that the measured loops run compiled code
+        int length = 0;
+        for (int i = 0; i < 200_000; i++) {
+            length += converter.formatDuration(i % (DurationUnitConverter.TABLE_MAX + 1), units[i % units.length]).length();
+            length += converter.formatDuration(1000 + i % 1000, units[i % units.length]).length();
+        }
         
-//         // Test duration formatting
-//         assertEquals("PT5S", converter.formatDuration(5, UnitsOfTime.S));
-//         assertEquals("PT10M", converter.formatDuration(10, UnitsOfTime.MIN));
-//         assertEquals("PT2H", converter.formatDuration(2, UnitsOfTime.H));
-//         assertEquals("P3D", converter.formatDuration(3, UnitsOfTime.D));
-//         assertEquals("P1W", converter.formatDuration(1, UnitsOfTime.WK));
-//         assertEquals("P6M", converter.formatDuration(6, UnitsOfTime.MO));
-//         assertEquals("P2Y", converter.formatDuration(2, UnitsOfTime.A));
+        // Values in the precomputed table allocate nothing
+        long before = threads.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < iterations; i++) {
+            length += converter.formatDuration(i % (DurationUnitConverter.TABLE_MAX + 1), units[i % units.length]).length();
+        }
+        long tableBytes = threads.getCurrentThreadAllocatedBytes() - before;
+        assertTrue(tableBytes < 1024, "Table lookups allocated " + tableBytes + " bytes");
         
-//         // Test invalid formatting
-//         assertNull(converter.formatDuration(1, null));
-//     }
-// } 
\ No newline at end of file
+        // Other whole values only allocate the result: a String header plus a byte[] of at most
+        // 16 + 7 Latin-1 characters ("PT1999H"), i.e. 24 + 24 bytes with compressed oops
+        before = threads.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < iterations; i++) {
+            length += converter.formatDuration(1000 + i % 1000, units[i % units.length]).length();
+        }
+        long perCall = (threads.getCurrentThreadAllocatedBytes() - before) / iterations;
+        assertTrue(perCall <= 48, "Formatting allocated " + perCall + " bytes per call");
+        assertTrue(length > 0);
+    }
+}
@@ -0,0 +1,76 @@
+package com.medblocks.plugins.unit;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UnitCanonicalizerTest {
+
+    @Test
+    public void testRateUnits() {
+        assertEquals("ml/h", UnitCanonicalizer.normalize("mL/h"));
+        assertEquals("ml/h", UnitCanonicalizer.normalize("milliliter/hour"));
+        assertEquals("ml/h", UnitCanonicalizer.normalize("millilitres / hour"));
+        assertEquals("ml/h", UnitCanonicalizer.normalize("ml.h-1"));
+        assertEquals("ml/h", UnitCanonicalizer.normalize("ml per hour"));
+        assertEquals("ml/h", UnitCanonicalizer.normalize("mL/h{infusion}"));
+        assertEquals("ml/min", UnitCanonicalizer.normalize("mL/minute"));
+        assertEquals("ml/s", UnitCanonicalizer.normalize("ml/sec"));
+        assertEquals("l/h", UnitCanonicalizer.normalize("L/hr"));
+        assertEquals("ml/h", UnitCanonicalizer.normalize("mL/(h)"));
+    }
+
+    @Test
+    public void testCompoundUnits() {
+        assertEquals("1/d", UnitCanonicalizer.normalize("1/d"));
+        assertEquals("mg/kg/h", UnitCanonicalizer.normalize("mg/(kg.h)"));
+        assertEquals("mg/kg/h", UnitCanonicalizer.normalize("mg.kg-1.h-1"));
+        // '/' only divides by the next term, as in UCUM
+        assertEquals("mg.h/kg", UnitCanonicalizer.normalize("mg/kg.h"));
+        assertEquals("ug/min", UnitCanonicalizer.normalize("mcg/min"));
+        assertEquals("l/s2", UnitCanonicalizer.normalize("l/s2"));
+    }
+
+    @Test
+    public void testRatioUnits() {
+        assertEquals("ml/h", UnitCanonicalizer.canonicalizeRatio("mL", "hour").getCanonical());
+        assertEquals("mg/kg/h", UnitCanonicalizer.canonicalizeRatio("mg", "kg.h").getCanonical());
+        assertEquals("null/h", UnitCanonicalizer.canonicalizeRatio(null, "h").getCanonical());
+        assertSame(UnitCanonicalizer.canonicalize("ml/(h)"), UnitCanonicalizer.canonicalizeRatio("milliliter", "h"));
+    }
+
+    @Test
+    public void testTerms() {
+        CanonicalUnit unit = UnitCanonicalizer.canonicalize("milliliter/hour");
+        assertTrue(unit.isRecognized());
+        assertEquals(2, unit.getTerms().size());
+
+        CanonicalUnit.Term volume = unit.getTerms().get(0);
+        assertEquals("ml", volume.getSymbol());
+        assertEquals("l", volume.getAtom());
+        assertEquals(UnitKind.VOLUME, volume.getKind());
+        assertEquals(1e-3, volume.getFactor(), 1e-15);
+        assertEquals(1, volume.getExponent());
+
+        CanonicalUnit.Term time = unit.getTerms().get(1);
+        assertEquals("h", time.getSymbol());
+        assertEquals(UnitKind.TIME, time.getKind());
+        assertEquals(3600, time.getFactor(), 0);
+        assertEquals(-1, time.getExponent());
+
+        assertSame(unit, UnitCanonicalizer.canonicalize("milliliter/hour"));
+    }
+
+    @Test
+    public void testUnknownUnits() {
+        assertNull(UnitCanonicalizer.normalize(null));
+
+        CanonicalUnit unit = UnitCanonicalizer.canonicalize("Tbl/d");
+        assertEquals("tbl/d", unit.getCanonical());
+        assertFalse(unit.isRecognized());
+
+        CanonicalUnit malformed = UnitCanonicalizer.canonicalize("ml / (h");
+        assertEquals("ml/(h", malformed.getCanonical());
+        assertFalse(malformed.isRecognized());
+    }
+}